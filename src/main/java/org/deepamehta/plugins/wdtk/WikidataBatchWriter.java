@@ -0,0 +1,238 @@
+package org.deepamehta.plugins.wdtk;
+
+import de.deepamehta.core.service.CoreService;
+import de.deepamehta.core.storage.spi.DeepaMehtaTransaction;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Applies the writes of an import processor on a thread of its own, so the thread processing the
+ * dump does not wait for the storage. Writes are applied in the order they were submitted, in
+ * batches with one transaction per batch, a batch ends early when the processor commits (see
+ * {@link #flush}).
+ *
+ * The number of writes per batch adapts to the storage: starting at {@link #INITIAL_BATCH_SIZE},
+ * it doubles while commits take less than half of {@link #TARGET_COMMIT_MILLIS} and halves while
+ * they take more than twice as long, so transactions neither stay tiny nor grow huge. The sizes
+ * of the transactions and the time taken to commit them are reported with {@link #toString}.
+ *
+ * Writes are queued in a bounded queue: once the writer falls {@link #QUEUE_CAPACITY} writes behind,
+ * submitting a write blocks until the writer caught up. Writes should therefore capture just the
+ * values they need, not the (reused) records of the dump. All storage access of a processor using a
+ * writer, lookups included, is done by its writes, so it happens on one and the same thread.
+ *
+ * If a write fails, its batch is rolled back and the failure is rethrown on the submitting thread
+ * with the next call; the writes queued later on are dropped. State kept by a processor about the
+ * objects written (caches, filters) is to be updated by a {@link BatchListener}, which learns whether
+ * each batch was committed or rolled back.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataBatchWriter implements Runnable {
+
+    private static Logger log = Logger.getLogger(WikidataBatchWriter.class.getName());
+
+    /** The number of writes applied in one transaction, to begin with. */
+    static final int INITIAL_BATCH_SIZE = 1024;
+    static final int MIN_BATCH_SIZE = 64;
+    static final int MAX_BATCH_SIZE = 32768;
+
+    /** The time a commit should take. */
+    static final long TARGET_COMMIT_MILLIS = 250;
+
+    /** The most writes waiting to be applied. */
+    static final int QUEUE_CAPACITY = 8192;
+
+    /** A write to the storage, e.g. creating a topic or an association. */
+    interface Write {
+
+        void apply();
+
+    }
+
+    /** Told about the outcome of each batch, on the writer thread. */
+    interface BatchListener {
+
+        /** The writes applied since the last call are committed. */
+        void committed();
+
+        /** The writes applied since the last call are rolled back. */
+        void rolledBack();
+
+    }
+
+    // markers, a flush marks the end of a batch, the end marker stops the writer
+    private static class Flush implements Write {
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        @Override
+        public void apply() {
+        }
+
+    }
+
+    private static final Write END = new Flush();
+
+    private final CoreService dm4;
+    private final Thread thread;
+    private final BatchListener listener;
+    private final BlockingQueue<Write> queue = new ArrayBlockingQueue<Write>(QUEUE_CAPACITY);
+
+    private volatile RuntimeException failure = null;
+    private volatile int batchLimit = INITIAL_BATCH_SIZE;
+
+    // statistics, written by the writer thread only
+    private volatile long writes = 0;
+    private volatile long batches = 0;
+    private volatile long commitNanos = 0;
+    private volatile long maxCommitNanos = 0;
+    private volatile int maxBatchSize = 0;
+
+    WikidataBatchWriter(CoreService dm4, String name, BatchListener listener) {
+        this.dm4 = dm4;
+        this.listener = listener;
+        this.thread = new Thread(this, "wdtk-writer-" + name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /** Queues the given write, blocks while the queue is full. */
+    void submit(Write write) {
+        checkFailure();
+        try {
+            queue.put(write);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while handing over a write to " + thread.getName(), e);
+        }
+    }
+
+    /** Waits until all writes submitted so far are applied and committed. */
+    void flush() {
+        Flush flush = new Flush();
+        submit(flush);
+        try {
+            flush.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for " + thread.getName() + " to commit", e);
+        }
+        checkFailure();
+    }
+
+    /** Applies (and commits) all writes submitted so far and stops the writer. */
+    void close() {
+        try {
+            queue.put(END);
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warning("Interrupted while waiting for " + thread.getName() + " to stop");
+            return;
+        }
+        log.info(toString());
+        checkFailure();
+    }
+
+    @Override
+    public void run() {
+        // the transaction is kept open across writes until a batch is full or a flush comes in
+        DeepaMehtaTransaction tx = null;
+        int batchSize = 0;
+        try {
+            Write write;
+            while ((write = queue.take()) != END) {
+                if (write instanceof Flush) {
+                    if (tx != null) commit(tx, batchSize);
+                    tx = null;
+                    batchSize = 0;
+                    ((Flush) write).done.countDown();
+                    continue;
+                }
+                if (failure != null) continue; // once failed, the writes are dropped
+                if (tx == null) tx = dm4.beginTx();
+                try {
+                    write.apply();
+                    batchSize++;
+                } catch (RuntimeException e) {
+                    log.log(Level.SEVERE, thread.getName() + " failed, rolling back " + (batchSize + 1) + " writes", e);
+                    failure = e;
+                    tx.failure();
+                    tx.finish();
+                    listener.rolledBack();
+                    tx = null;
+                    batchSize = 0;
+                    continue;
+                }
+                if (batchSize >= batchLimit) {
+                    commit(tx, batchSize);
+                    tx = null;
+                    batchSize = 0;
+                }
+            }
+        } catch (InterruptedException e) {
+            log.warning(thread.getName() + " interrupted");
+        } finally {
+            if (tx != null) commit(tx, batchSize);
+        }
+    }
+
+    private void commit(DeepaMehtaTransaction tx, int batchSize) {
+        try {
+            long start = System.nanoTime();
+            tx.success();
+            tx.finish();
+            long nanos = System.nanoTime() - start;
+            writes += batchSize;
+            batches++;
+            commitNanos += nanos;
+            if (nanos > maxCommitNanos) maxCommitNanos = nanos;
+            if (batchSize > maxBatchSize) maxBatchSize = batchSize;
+            // just full batches tell about the limit, those ended by a flush are smaller anyway
+            if (batchSize >= batchLimit) adaptBatchLimit(nanos / 1000000);
+        } catch (RuntimeException e) {
+            log.log(Level.SEVERE, thread.getName() + " failed to commit " + batchSize + " writes", e);
+            if (failure == null) failure = e;
+            listener.rolledBack();
+            return;
+        }
+        listener.committed();
+    }
+
+    private void adaptBatchLimit(long commitMillis) {
+        int limit = batchLimit;
+        if (commitMillis < TARGET_COMMIT_MILLIS / 2 && limit < MAX_BATCH_SIZE) {
+            limit *= 2;
+        } else if (commitMillis > TARGET_COMMIT_MILLIS * 2 && limit > MIN_BATCH_SIZE) {
+            limit /= 2;
+        } else {
+            return;
+        }
+        log.fine(thread.getName() + " committed " + batchLimit + " writes in " + commitMillis
+            + " ms, now commits every " + limit + " writes");
+        batchLimit = limit;
+    }
+
+    @Override
+    public String toString() {
+        long batchCount = batches;
+        return thread.getName() + ": " + writes + " writes in " + batchCount + " transactions ("
+            + ((batchCount > 0) ? writes / batchCount : 0) + " writes on average, " + maxBatchSize + " at most), "
+            + "commits took " + ((batchCount > 0) ? commitNanos / batchCount / 1000000 : 0) + " ms on average, "
+            + maxCommitNanos / 1000000 + " ms at most, committing every " + batchLimit + " writes";
+    }
+
+    /** Rethrows the exception a write failed with (on the submitting thread). */
+    private void checkFailure() {
+        RuntimeException e = failure;
+        if (e != null) throw e;
+    }
+
+}
@@ -0,0 +1,121 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Splits an indexed (BGZF, as written by bgzip) gzip file into its members so these can be inflated
+ * in parallel. Each member of such a file names its own compressed size in a "BC" extra field, so
+ * member boundaries are known without inflating anything.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataBgzfChunks implements WikidataChunkedInputStream.ChunkSource {
+
+    private static final int HEADER_LENGTH = 18;
+
+    private final DataInputStream in;
+    private long offset;
+
+    /**
+     * @param in        The compressed file, positioned at the start of a member.
+     * @param offset    The position of the given stream within the file.
+     */
+    WikidataBgzfChunks(InputStream in, long offset) {
+        this.in = new DataInputStream(in);
+        this.offset = offset;
+    }
+
+    /**
+     * @return  The total size of the BGZF member starting with the given bytes or -1 if these bytes
+     *          do not start a BGZF member.
+     */
+    static int memberSize(byte[] header, int length) {
+        if (length < HEADER_LENGTH) return -1;
+        boolean gzip = (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b && header[2] == 8;
+        boolean extra = (header[3] & 0x04) != 0;
+        int extraLength = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+        boolean bc = header[12] == 'B' && header[13] == 'C' && header[14] == 2 && header[15] == 0;
+        if (!gzip || !extra || extraLength < 6 || !bc) return -1;
+        return ((header[16] & 0xff) | (header[17] & 0xff) << 8) + 1;
+    }
+
+    @Override
+    public WikidataChunkedInputStream.Chunk next() throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        int read = 0;
+        while (read < HEADER_LENGTH) {
+            int n = in.read(header, read, HEADER_LENGTH - read);
+            if (n == -1) break;
+            read += n;
+        }
+        if (read == 0) return null;
+        int size = memberSize(header, read);
+        if (size < HEADER_LENGTH) {
+            throw new IOException("Not a BGZF member at offset " + offset + " of the dump");
+        }
+        byte[] member = new byte[size];
+        System.arraycopy(header, 0, member, 0, HEADER_LENGTH);
+        try {
+            in.readFully(member, HEADER_LENGTH, size - HEADER_LENGTH);
+        } catch (EOFException e) {
+            throw new IOException("Truncated BGZF member at offset " + offset + " of the dump", e);
+        }
+        Member chunk = new Member(member, offset);
+        offset += size;
+        return chunk;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    /** A complete gzip member. */
+    static class Member implements WikidataChunkedInputStream.Chunk {
+
+        final byte[] bytes;
+        final long fileOffset;
+
+        Member(byte[] bytes, long fileOffset) {
+            this.bytes = bytes;
+            this.fileOffset = fileOffset;
+        }
+
+        @Override
+        public byte[] decode() throws IOException {
+            InputStream member = new GZIPInputStream(new ByteArrayInputStream(bytes), 1 << 16);
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length * 4);
+                byte[] chunk = new byte[1 << 16];
+                int n;
+                while ((n = member.read(chunk)) != -1) {
+                    out.write(chunk, 0, n);
+                }
+                return out.toByteArray();
+            } finally {
+                member.close();
+            }
+        }
+
+        @Override
+        public long fileOffset() {
+            return fileOffset;
+        }
+
+        @Override
+        public WikidataChunkedInputStream.Chunk merge(WikidataChunkedInputStream.Chunk next) {
+            return null; // member boundaries are explicit, there is nothing to repair
+        }
+
+    }
+
+}
@@ -0,0 +1,259 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * Splits a bzip2 file into its single compressed blocks so these can be decoded in parallel.
+ *
+ * Bzip2 blocks are not byte aligned, so the file is scanned bit by bit for the 48 bit block and
+ * end-of-stream markers. Each block is then wrapped into a synthetic bzip2 stream of its own (stream
+ * header, the block, the end-of-stream marker and the blocks CRC as the combined stream CRC) which
+ * any standard bzip2 decoder accepts. This works for single-stream files as well as for files
+ * concatenated from many streams (as written by pbzip2 or lbzip2).
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataBzip2Chunks implements WikidataChunkedInputStream.ChunkSource {
+
+    static final long BLOCK_MAGIC = 0x314159265359L;
+    static final long EOS_MAGIC = 0x177245385090L;
+    static final long MASK_48 = 0xFFFFFFFFFFFFL;
+
+    private static final byte[] STREAM_HEADER = {'B', 'Z', 'h', '9'};
+
+    private final InputStream in;
+    private final byte[] readBuffer = new byte[1 << 16];
+    private int readPosition = 0;
+    private int readLength = 0;
+
+    private long window = 0;        // the last 64 bits read
+    private int currentByte = 0;
+    private int currentBit = -1;    // the next bit of the current byte to scan, -1 if fully scanned
+    private long bitsRead = 0;      // number of bits read from the file so far
+    private long bufferStart = 0;   // bit offset of the first byte in buffer
+    private byte[] buffer = new byte[1 << 20];
+    private int bufferLength = 0;
+    private long blockStart = -1;   // bit offset of the current blocks magic, -1 if not within a block
+    private boolean eof = false;
+
+    WikidataBzip2Chunks(File file) throws IOException {
+        this(new FileInputStream(file), 0);
+    }
+
+    /**
+     * @param in            The compressed file positioned at the given bit offset (rounded down to
+     *                      full bytes), e.g. to continue reading from a block boundary.
+     */
+    WikidataBzip2Chunks(InputStream in, long bitOffset) {
+        this.in = in;
+        this.bitsRead = (bitOffset / 8) * 8;
+        this.bufferStart = bitsRead;
+    }
+
+    @Override
+    public WikidataChunkedInputStream.Chunk next() throws IOException {
+        while (!eof) {
+            if (currentBit < 0) {
+                if (readPosition == readLength) {
+                    readLength = in.read(readBuffer);
+                    readPosition = 0;
+                    if (readLength == -1) {
+                        eof = true;
+                        break;
+                    }
+                    continue;
+                }
+                currentByte = readBuffer[readPosition++] & 0xff;
+                currentBit = 7;
+                appendToBuffer((byte) currentByte);
+            }
+            while (currentBit >= 0) {
+                window = (window << 1) | ((currentByte >>> currentBit--) & 1);
+                bitsRead++;
+                long marker = window & MASK_48;
+                if (marker == BLOCK_MAGIC || marker == EOS_MAGIC) {
+                    long markerStart = bitsRead - 48;
+                    Block block = null;
+                    if (blockStart >= 0) {
+                        block = cutBlock(markerStart);
+                    }
+                    blockStart = (marker == BLOCK_MAGIC) ? markerStart : -1;
+                    if (block != null) return block;
+                }
+            }
+        }
+        if (blockStart >= 0) { // truncated file, let the decoder report it
+            Block block = cutBlock(bitsRead);
+            blockStart = -1;
+            return block;
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void appendToBuffer(byte b) {
+        if (bufferLength == buffer.length) {
+            // drop all bytes before the current block, grow if the block does not fit
+            int keep = (blockStart >= 0) ? (int) ((blockStart - bufferStart) / 8) : bufferLength - 8;
+            keep = Math.max(0, keep);
+            if (keep > 0) {
+                System.arraycopy(buffer, keep, buffer, 0, bufferLength - keep);
+                bufferLength -= keep;
+                bufferStart += keep * 8L;
+            }
+            if (bufferLength == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        buffer[bufferLength++] = b;
+    }
+
+    private Block cutBlock(long blockEnd) {
+        int from = (int) ((blockStart - bufferStart) / 8);
+        int to = (int) ((blockEnd - bufferStart + 7) / 8);
+        byte[] bytes = Arrays.copyOfRange(buffer, from, to);
+        long firstBit = blockStart - bufferStart - from * 8L;
+        return new Block(bytes, firstBit, blockEnd - blockStart, blockStart);
+    }
+
+    /** One bzip2 block, given as a range of bits within a byte array. */
+    static class Block implements WikidataChunkedInputStream.Chunk {
+
+        final byte[] bytes;
+        final long firstBit;
+        final long bitLength;
+        final long fileBitOffset;
+
+        Block(byte[] bytes, long firstBit, long bitLength, long fileBitOffset) {
+            this.bytes = bytes;
+            this.firstBit = firstBit;
+            this.bitLength = bitLength;
+            this.fileBitOffset = fileBitOffset;
+        }
+
+        @Override
+        public byte[] decode() throws IOException {
+            BitWriter stream = new BitWriter((int) (bitLength / 8) + 16);
+            for (byte b : STREAM_HEADER) stream.write(b & 0xff, 8);
+            stream.copy(bytes, firstBit, bitLength);
+            // the combined CRC of a single block stream equals the blocks CRC (following its magic)
+            long blockCrc = readBits(bytes, firstBit + 48, 32);
+            stream.write(EOS_MAGIC, 48);
+            stream.write(blockCrc, 32);
+            InputStream block = new BZip2CompressorInputStream(new ByteArrayInputStream(stream.toByteArray()));
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream((int) (bitLength / 2));
+                byte[] chunk = new byte[1 << 16];
+                int n;
+                while ((n = block.read(chunk)) != -1) {
+                    out.write(chunk, 0, n);
+                }
+                return out.toByteArray();
+            } finally {
+                block.close();
+            }
+        }
+
+        /** @return The position of this blocks magic in bits, bzip2 blocks are not byte aligned. */
+        @Override
+        public long fileOffset() {
+            return fileBitOffset;
+        }
+
+        @Override
+        public WikidataChunkedInputStream.Chunk merge(WikidataChunkedInputStream.Chunk next) {
+            if (!(next instanceof Block)) return null;
+            Block other = (Block) next;
+            if (fileBitOffset + bitLength != other.fileBitOffset) return null;
+            BitWriter merged = new BitWriter(bytes.length + other.bytes.length);
+            merged.copy(bytes, firstBit, bitLength);
+            merged.copy(other.bytes, other.firstBit, other.bitLength);
+            return new Block(merged.toByteArray(), 0, bitLength + other.bitLength, fileBitOffset);
+        }
+
+    }
+
+    static long readBits(byte[] bytes, long bitOffset, int count) {
+        long value = 0;
+        for (int i = 0; i < count; i++) {
+            long bit = bitOffset + i;
+            value = (value << 1) | ((bytes[(int) (bit >>> 3)] >>> (7 - (bit & 7))) & 1);
+        }
+        return value;
+    }
+
+    /** Writes single bits (most significant first), as bzip2 streams are bit- and not byte-aligned. */
+    static class BitWriter {
+
+        private byte[] bytes;
+        private long bits = 0;
+
+        BitWriter(int capacity) {
+            bytes = new byte[Math.max(16, capacity)];
+        }
+
+        void write(long value, int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                writeBit((int) (value >>> i) & 1);
+            }
+        }
+
+        void copy(byte[] source, long firstBit, long count) {
+            long bit = firstBit;
+            long end = firstBit + count;
+            // copy bit-wise until the target is byte aligned, then byte-wise with shifting
+            while (bit < end && (bits & 7) != 0) {
+                writeBit((source[(int) (bit >>> 3)] >>> (7 - (bit & 7))) & 1);
+                bit++;
+            }
+            int shift = (int) (bit & 7);
+            while (end - bit >= 8) {
+                int index = (int) (bit >>> 3);
+                int value = (source[index] & 0xff) << shift;
+                if (shift > 0) value |= (source[index + 1] & 0xff) >>> (8 - shift);
+                ensureCapacity();
+                bytes[(int) (bits >>> 3)] = (byte) value;
+                bits += 8;
+                bit += 8;
+            }
+            while (bit < end) {
+                writeBit((source[(int) (bit >>> 3)] >>> (7 - (bit & 7))) & 1);
+                bit++;
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, (int) ((bits + 7) >>> 3));
+        }
+
+        private void writeBit(int bit) {
+            ensureCapacity();
+            if (bit != 0) {
+                bytes[(int) (bits >>> 3)] |= (byte) (0x80 >>> (bits & 7));
+            }
+            bits++;
+        }
+
+        private void ensureCapacity() {
+            if ((bits >>> 3) + 1 >= bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+        }
+
+    }
+
+}
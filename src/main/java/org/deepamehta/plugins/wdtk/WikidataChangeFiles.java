@@ -0,0 +1,291 @@
+package org.deepamehta.plugins.wdtk;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The daily change files of wikidata stored locally, read to apply just the items changed since the
+ * last import instead of importing a complete dump again.
+ *
+ * Change files are looked up in the directory layout used by the WDTK for daily dumps
+ * (<code>dumpfiles/wikidatawiki/daily-YYYYMMDD/</code>). Both the incremental xml dumps of the
+ * wikimedia foundation (<code>*-pages-meta-hist-incr.xml.bz2</code>, the entity json being the text
+ * of each revision) and files with one entity json per line (<code>*.json</code>, e.g. as fetched
+ * from Special:EntityData) are understood, compressed with bzip2 or gzip or not at all.
+ *
+ * An item may be changed many times a day and on many days. Just the latest revision of each item
+ * found in all the change files is collected (see {@link #collect}), into a file with one entity per
+ * line which is then processed like a json dump. Revisions are taken to be in chronological order
+ * within a file and files in the order of their date stamps. Items turned into a redirect (merged)
+ * are written without any statement (<code>{"type":"item","id":"Q3"}</code>), so their claims are
+ * removed when the changes are applied. The deletion of items is not part of the change files.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataChangeFiles {
+
+    private static Logger log = Logger.getLogger(WikidataChangeFiles.class.getName());
+
+    static final String DAILY_DIRECTORY_PREFIX = "daily-";
+
+    private static final String ITEM_MODEL = "wikibase-item";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** Called for every revision of an item in the change files, in order. */
+    private interface RevisionHandler {
+
+        /** @param   json    the entity json of the revision, null if the item turned into a redirect */
+        void revision(int item, String json) throws IOException;
+
+    }
+
+    private final List<File> files;
+    private final String lastDateStamp;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private WikidataChangeFiles(List<File> files, String lastDateStamp) {
+        this.files = files;
+        this.lastDateStamp = lastDateStamp;
+    }
+
+    /**
+     * Looks up the change files stored locally which are more recent than the given date stamp.
+     *
+     * @param   appliedDateStamp    The date stamp (YYYYMMDD) of the last change files applied, or null
+     *                              to take all change files.
+     */
+    static WikidataChangeFiles find(String baseDirectory, String appliedDateStamp) {
+        File[] directories = new File(baseDirectory, WikidataDumpFileStream.DUMP_DIRECTORY).listFiles();
+        if (directories == null) directories = new File[0];
+        Arrays.sort(directories);
+        List<File> files = new ArrayList<File>();
+        String lastDateStamp = appliedDateStamp;
+        for (File directory : directories) {
+            String dateStamp = dateStamp(directory);
+            if (dateStamp == null) continue;
+            if (appliedDateStamp != null && dateStamp.compareTo(appliedDateStamp) <= 0) continue;
+            File[] changeFiles = directory.listFiles();
+            if (changeFiles == null) continue;
+            Arrays.sort(changeFiles);
+            for (File file : changeFiles) {
+                if (file.isFile() && (isXml(file) || isJsonLines(file))) files.add(file);
+            }
+            lastDateStamp = dateStamp;
+        }
+        return new WikidataChangeFiles(files, lastDateStamp);
+    }
+
+    List<File> getFiles() {
+        return Collections.unmodifiableList(files);
+    }
+
+    /** @return The date stamp of the most recent change files, or the one given if there are none. */
+    String getLastDateStamp() {
+        return lastDateStamp;
+    }
+
+    boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    /**
+     * Writes the latest revision of each item changed to the given file, one entity json per line,
+     * items turned into a redirect without any statement. The change files are read twice, first to
+     * find the latest revision of each item, then to write these revisions.
+     *
+     * @param   threads     The number of threads used to decompress a change file.
+     * @return  The number of items written.
+     */
+    int collect(File out, int threads) throws IOException {
+        // 1) the position of the latest revision of each item among all revisions read
+        final Map<Integer, Integer> latest = new HashMap<Integer, Integer>();
+        final int[] revisions = {0, 0, 0}; // read in the first and second pass, written
+        read(threads, new RevisionHandler() {
+            @Override
+            public void revision(int item, String json) {
+                latest.put(item, revisions[0]++);
+            }
+        });
+        // 2) the latest revisions, an item turned into a redirect as one without any statement
+        out.getParentFile().mkdirs();
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out), UTF8), 1 << 16);
+        try {
+            read(threads, new RevisionHandler() {
+                @Override
+                public void revision(int item, String json) throws IOException {
+                    Integer position = latest.get(item);
+                    if (position == null || position != revisions[1]++) return;
+                    if (json == null) {
+                        writer.write("{\"type\":\"item\",\"id\":\"" + WikidataIdCodec.decodeItem(item) + "\"}");
+                    } else {
+                        // line breaks may just be whitespace in (valid) json, each entity is kept on a line
+                        writer.write(json.replace('\n', ' ').replace('\r', ' '));
+                    }
+                    writer.write('\n');
+                    revisions[2]++;
+                }
+            });
+        } finally {
+            writer.close();
+        }
+        int written = revisions[2];
+        log.info("Collected the latest revisions of " + written + " items changed in " + revisions[0]
+            + " revisions from " + files.size() + " change files up to " + lastDateStamp);
+        return written;
+    }
+
+    // --- Reading change files
+
+    private void read(int threads, RevisionHandler handler) throws IOException {
+        for (File file : files) {
+            log.info("Reading the wikidata change file " + file.getPath());
+            InputStream in = WikidataDumpFileStream.open(file, threads);
+            try {
+                if (isXml(file)) {
+                    readXml(in, handler);
+                } else {
+                    readJsonLines(in, handler);
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /** Reads the revisions of an xml dump, the entity json being the text of a revision. */
+    private void readXml(InputStream in, RevisionHandler handler) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            XMLStreamReader xml = factory.createXMLStreamReader(in, "UTF-8");
+            try {
+                String model = null;
+                String text = null;
+                while (xml.hasNext()) {
+                    int event = xml.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String name = xml.getLocalName();
+                        if (name.equals("revision")) {
+                            model = null;
+                            text = null;
+                        } else if (name.equals("model")) {
+                            model = xml.getElementText();
+                        } else if (name.equals("text")) {
+                            text = xml.getElementText();
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && xml.getLocalName().equals("revision")) {
+                        // wikitext pages (e.g. talk pages) and revisions with their text suppressed are skipped
+                        if (model != null && !model.equals(ITEM_MODEL)) continue;
+                        if (text == null || !text.startsWith("{")) continue;
+                        handleRevision(text, handler);
+                    }
+                }
+            } finally {
+                xml.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Could not read the wikidata change file", e);
+        }
+    }
+
+    /** Reads entities given one per line, lines may be separated by commas as in the json dumps. */
+    private void readJsonLines(InputStream in, RevisionHandler handler) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF8), 1 << 16);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.endsWith(",")) line = line.substring(0, line.length() - 1);
+            if (!line.startsWith("{")) continue; // empty line, "[" or "]"
+            handleRevision(line, handler);
+        }
+    }
+
+    private void handleRevision(String json, RevisionHandler handler) throws IOException {
+        String[] entity;
+        try {
+            entity = entityId(json);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Could not parse a revision of the wikidata change files", e);
+            return;
+        }
+        if (entity == null) return;
+        int item = WikidataIdCodec.encodeItem(entity[0]);
+        if (item == WikidataIdCodec.NO_ID) return; // properties and other entities
+        handler.revision(item, (entity[1] == null) ? json : null);
+    }
+
+    /**
+     * @return  The id of the given entity and the item it redirects to, if it is a redirect
+     *          (<code>{"entity":"Q1","redirect":"Q2"}</code>), null if there is no id.
+     */
+    private String[] entityId(String json) throws IOException {
+        JsonParser parser = jsonFactory.createParser(json);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return null;
+            String id = null;
+            String redirect = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (field.equals("id") && value == JsonToken.VALUE_STRING) {
+                    return new String[] {parser.getText(), null}; // the complete entity, no need to read on
+                } else if (field.equals("entity") && value == JsonToken.VALUE_STRING) {
+                    id = parser.getText();
+                } else if (field.equals("redirect") && value == JsonToken.VALUE_STRING) {
+                    redirect = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return (id != null && redirect != null) ? new String[] {id, redirect} : null;
+        } finally {
+            parser.close();
+        }
+    }
+
+    private static String dateStamp(File directory) {
+        String name = directory.getName();
+        if (!directory.isDirectory() || !name.startsWith(DAILY_DIRECTORY_PREFIX)) return null;
+        String dateStamp = name.substring(DAILY_DIRECTORY_PREFIX.length());
+        return (dateStamp.length() == 8 && dateStamp.matches("[0-9]+")) ? dateStamp : null;
+    }
+
+    private static boolean isXml(File file) {
+        String name = file.getName();
+        return name.endsWith(".xml") || name.endsWith(".xml.bz2") || name.endsWith(".xml.gz");
+    }
+
+    private static boolean isJsonLines(File file) {
+        String name = file.getName();
+        return name.endsWith(".json") || name.endsWith(".json.bz2") || name.endsWith(".json.gz");
+    }
+
+}
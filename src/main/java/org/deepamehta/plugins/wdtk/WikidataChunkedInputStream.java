@@ -0,0 +1,201 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+/**
+ * An input stream decoding independently compressed chunks of a dump file (e.g. bzip2 blocks or
+ * BGZF members) on a pool of threads while still handing out the decoded bytes in file order.
+ *
+ * Chunks are split off the compressed file lazily by the thread reading from this stream and
+ * decoded with a bounded lookahead, so just a few chunks are held in memory at any time.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataChunkedInputStream extends InputStream implements WikidataDumpFileStream.Positions {
+
+    private Logger log = Logger.getLogger(getClass().getName());
+
+    /** A compressed chunk which can be decoded independently of all other chunks. */
+    interface Chunk {
+
+        byte[] decode() throws IOException;
+
+        /** @return The position to re-open the file at to read this chunk first (see {@link ChunkSource}). */
+        long fileOffset();
+
+        /** @return A chunk spanning this and the given following chunk (or null if not supported). */
+        Chunk merge(Chunk next);
+
+    }
+
+    /**
+     * Splits a compressed file into chunks, in file order. Sources are expected to be able to start
+     * reading the file again at the {@link Chunk#fileOffset} of any of their chunks.
+     */
+    interface ChunkSource {
+
+        /** @return The next chunk or null at the end of the file. */
+        Chunk next() throws IOException;
+
+        void close() throws IOException;
+
+    }
+
+    /** How many following chunks are tried to be merged with a chunk which could not be decoded. */
+    private static final int MAX_MERGES = 3;
+
+    /** How many of the most recently decoded chunks are remembered to resolve file positions. */
+    private static final int RECENT_CHUNKS = 16;
+
+    private final ChunkSource source;
+    private final ExecutorService decoders;
+    private final int lookahead;
+
+    private final ArrayDeque<Chunk> chunks = new ArrayDeque<Chunk>();
+    private final ArrayDeque<Future<byte[]>> decoded = new ArrayDeque<Future<byte[]>>();
+    private boolean sourceExhausted = false;
+
+    private byte[] current = new byte[0];
+    private int position = 0;
+
+    // decoded offset (index 0) and file offset (index 1) at which the most recent chunks start
+    private final ArrayDeque<long[]> recentChunks = new ArrayDeque<long[]>();
+    private long decodedBytes = 0;
+
+    WikidataChunkedInputStream(ChunkSource source, int threads) {
+        this.source = source;
+        this.lookahead = Math.max(2, threads * 2);
+        this.decoders = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            private int count = 0;
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "wdtk-dump-decompressor-" + count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) return -1;
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!ensureData()) return -1;
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        decoders.shutdownNow();
+        source.close();
+    }
+
+    /**
+     * Note: Only offsets within the last few chunks handed out by this stream can be resolved, so this
+     * is to be called by the thread reading this stream, shortly after reading the given offset.
+     */
+    @Override
+    public long[] filePosition(long offset) {
+        for (Iterator<long[]> i = recentChunks.descendingIterator(); i.hasNext();) {
+            long[] chunkStart = i.next();
+            if (chunkStart[0] <= offset) {
+                return new long[] {chunkStart[1], offset - chunkStart[0]};
+            }
+        }
+        return null;
+    }
+
+    private boolean ensureData() throws IOException {
+        while (position >= current.length) {
+            fillLookahead();
+            if (decoded.isEmpty()) return false;
+            Chunk chunk = chunks.peek();
+            current = nextDecoded();
+            position = 0;
+            recentChunks.add(new long[] {decodedBytes, chunk.fileOffset()});
+            if (recentChunks.size() > RECENT_CHUNKS) recentChunks.poll();
+            decodedBytes += current.length;
+        }
+        return true;
+    }
+
+    private void fillLookahead() throws IOException {
+        while (!sourceExhausted && decoded.size() < lookahead) {
+            Chunk chunk = source.next();
+            if (chunk == null) {
+                sourceExhausted = true;
+            } else {
+                submit(chunk);
+            }
+        }
+    }
+
+    private void submit(final Chunk chunk) {
+        chunks.add(chunk);
+        decoded.add(decoders.submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return chunk.decode();
+            }
+        }));
+    }
+
+    private byte[] nextDecoded() throws IOException {
+        Chunk chunk = chunks.poll();
+        Future<byte[]> result = decoded.poll();
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decompressing the dump", e);
+        } catch (ExecutionException e) {
+            return decodeMerged(chunk, e.getCause());
+        }
+    }
+
+    /**
+     * A chunk may fail to decode if the file was split at a byte pattern which just looked like a
+     * chunk boundary. Such chunks are decoded again together with their successors.
+     */
+    private byte[] decodeMerged(Chunk chunk, Throwable cause) throws IOException {
+        for (int i = 0; i < MAX_MERGES; i++) {
+            fillLookahead();
+            Chunk next = chunks.poll();
+            if (next == null) break;
+            decoded.poll().cancel(true);
+            chunk = chunk.merge(next);
+            if (chunk == null) break;
+            try {
+                byte[] data = chunk.decode();
+                log.warning("Decoded a chunk of the dump only after merging it with " + (i + 1)
+                    + " following chunk(s)");
+                return data;
+            } catch (Exception e) {
+                cause = e;
+            }
+        }
+        throw new IOException("Could not decompress a chunk of the dump", cause);
+    }
+
+}
@@ -0,0 +1,213 @@
+package org.deepamehta.plugins.wdtk;
+
+import de.deepamehta.core.Association;
+import de.deepamehta.core.Role;
+import de.deepamehta.core.service.CoreService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Knows which claim edges (associations of a few types between two topics) exist, so the import
+ * does not have to ask the storage about every edge it is about to create. Seeded with the edges
+ * existing when an import starts and told about every edge created by it, once the transaction
+ * creating the edge is committed.
+ *
+ * A Bloom filter answers most questions on a fresh import: an edge it has never seen does not
+ * exist. Edges it may have seen are looked up in an exact set of edges, which is bounded, though. Once
+ * more edges are known than the set may hold, edges not in the set may still exist and the storage
+ * has to be asked (see {@link #isComplete}).
+ *
+ * Edges of types registered as undirected (with default roles) are the same edge whichever way
+ * round their players are given, edges of directed types (parent and child) are not. Filters are
+ * safe to share among the processors of an import.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataClaimEdgeFilter {
+
+    private static Logger log = Logger.getLogger(WikidataClaimEdgeFilter.class.getName());
+
+    /** The most edges kept in the exact set, which takes about 40 bytes per edge. */
+    static final int EXACT_LIMIT = 1 << 20;
+
+    private static final int HASHES = 7;
+
+    private final List<String> types = new ArrayList<String>();
+    private final List<Boolean> directed = new ArrayList<Boolean>();
+
+    // the Bloom filter
+    private final long[] bits;
+    private final long bitMask;
+
+    // the exact set, open addressing, a type index of 0 marks a free slot
+    private long[] froms = new long[1024];
+    private long[] tos = new long[1024];
+    private byte[] typeIndices = new byte[1024];
+    private int size = 0;
+    private boolean complete = true;
+
+    private long definitelyNew = 0;
+    private long known = 0;
+    private long unsure = 0;
+
+    /** @param   expectedEdges   the number of edges the Bloom filter is sized for (at ~1% false positives) */
+    WikidataClaimEdgeFilter(long expectedEdges) {
+        long bitCount = 64;
+        while (bitCount < expectedEdges * 10 && bitCount < (1L << 31)) bitCount <<= 1;
+        this.bits = new long[(int) (bitCount >>> 6)];
+        this.bitMask = bitCount - 1;
+    }
+
+    /** Makes the filter keep track of the edges of the given association type. */
+    synchronized void addType(String assocTypeUri, boolean isDirected) {
+        if (types.contains(assocTypeUri)) return;
+        if (types.size() == 255) throw new IllegalStateException("Too many association types to filter");
+        types.add(assocTypeUri);
+        directed.add(isDirected);
+    }
+
+    /** Adds the existing edges of all types registered, just these associations are read. */
+    synchronized void seed(CoreService dm4) {
+        long seeded = 0;
+        for (String assocTypeUri : types) {
+            for (Association assoc : dm4.getAssociationsByType(assocTypeUri)) {
+                Role role1 = assoc.getRole1();
+                Role role2 = assoc.getRole2();
+                if (role1.getRoleTypeUri().equals("dm4.core.child")) {
+                    add(role2.getPlayerId(), role1.getPlayerId(), assocTypeUri);
+                } else {
+                    add(role1.getPlayerId(), role2.getPlayerId(), assocTypeUri);
+                }
+                seeded++;
+            }
+        }
+        log.info("Seeded the claim edge filter with " + seeded + " existing edges of " + types.size() + " types");
+    }
+
+    /**
+     * Records that an edge exists.
+     *
+     * @param   from    the id of the topic playing the parent (for directed types)
+     * @param   to      the id of the topic playing the child (for directed types)
+     */
+    synchronized void add(long from, long to, String assocTypeUri) {
+        int type = typeIndex(assocTypeUri);
+        if (!directed.get(type - 1) && from > to) {
+            long swap = from;
+            from = to;
+            to = swap;
+        }
+        long hash = hash(from, to, type);
+        long step = (hash >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = (hash + i * step) & bitMask;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        addExact(from, to, type, hash);
+    }
+
+    /**
+     * @return  {@link Boolean#FALSE} if the edge does not exist, {@link Boolean#TRUE} if it does and
+     *          null if it is not known, in which case the storage has to be asked.
+     */
+    synchronized Boolean exists(long from, long to, String assocTypeUri) {
+        int type = typeIndex(assocTypeUri);
+        if (!directed.get(type - 1) && from > to) {
+            long swap = from;
+            from = to;
+            to = swap;
+        }
+        long hash = hash(from, to, type);
+        long step = (hash >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = (hash + i * step) & bitMask;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                definitelyNew++;
+                return Boolean.FALSE;
+            }
+        }
+        if (containsExact(from, to, type, hash)) {
+            known++;
+            return Boolean.TRUE;
+        }
+        if (complete) { // a false positive of the Bloom filter
+            definitelyNew++;
+            return Boolean.FALSE;
+        }
+        unsure++;
+        return null;
+    }
+
+    /** @return true as long as the exact set holds all edges known. */
+    synchronized boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "claim edge filter: " + definitelyNew + " new, " + known + " known, " + unsure
+            + " looked up (" + size + " edges kept" + ((complete) ? "" : ", incomplete") + ")";
+    }
+
+    private int typeIndex(String assocTypeUri) {
+        int index = types.indexOf(assocTypeUri);
+        if (index < 0) throw new IllegalArgumentException("Edges of type \"" + assocTypeUri + "\" are not filtered");
+        return index + 1;
+    }
+
+    // --- The exact set
+
+    private void addExact(long from, long to, int type, long hash) {
+        if (containsExact(from, to, type, hash)) return;
+        if (size == EXACT_LIMIT) {
+            if (complete) log.info("The claim edge filter keeps " + size + " edges at most, some edges will be looked up");
+            complete = false;
+            return;
+        }
+        if ((size + 1) * 2 > froms.length) grow();
+        insert(from, to, type, hash);
+        size++;
+    }
+
+    private boolean containsExact(long from, long to, int type, long hash) {
+        int mask = froms.length - 1;
+        for (int slot = (int) hash & mask; typeIndices[slot] != 0; slot = (slot + 1) & mask) {
+            if (froms[slot] == from && tos[slot] == to && typeIndices[slot] == (byte) type) return true;
+        }
+        return false;
+    }
+
+    private void insert(long from, long to, int type, long hash) {
+        int mask = froms.length - 1;
+        int slot = (int) hash & mask;
+        while (typeIndices[slot] != 0) slot = (slot + 1) & mask;
+        froms[slot] = from;
+        tos[slot] = to;
+        typeIndices[slot] = (byte) type;
+    }
+
+    private void grow() {
+        long[] oldFroms = froms;
+        long[] oldTos = tos;
+        byte[] oldTypes = typeIndices;
+        froms = new long[oldFroms.length * 2];
+        tos = new long[oldFroms.length * 2];
+        typeIndices = new byte[oldFroms.length * 2];
+        for (int i = 0; i < oldFroms.length; i++) {
+            int type = oldTypes[i] & 0xff;
+            if (type != 0) insert(oldFroms[i], oldTos[i], type, hash(oldFroms[i], oldTos[i], type));
+        }
+    }
+
+    private static long hash(long from, long to, int type) {
+        long h = from * 0x9E3779B97F4A7C15L + to;
+        h = (h ^ (h >>> 31)) * 0xBF58476D1CE4E5B9L + type;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+
+}
@@ -0,0 +1,283 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
+
+/**
+ * Hands over the entities of one pass through a wikidata dump to several import processors, so the
+ * dump is decompressed and parsed just once for all of them.
+ *
+ * Entities are extracted once with the union of the fields all processors make use of and lines are
+ * kept if any of the processors may use them. The processors are either run one after the other on
+ * the thread processing the dump, or each on a thread of its own (a lane), which is handed over
+ * copies of the entity records. In the latter case commits and the final stop are run on the lanes,
+ * so every processor still sees all of its calls (and transactions) on one and the same thread.
+ *
+ * At checkpoints, each processor saves its state to a file of its own, named after the one given
+ * and the position of the processor (see {@link #stateFile}).
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataCompositeProcessor implements WikidataImportProcessor {
+
+    private static Logger log = Logger.getLogger(WikidataCompositeProcessor.class.getName());
+
+    /** The number of entities a lane may fall behind the thread processing the dump. */
+    static final int LANE_CAPACITY = 1024;
+
+    // markers handed over to the lanes
+    private static final WikidataEntityRecord COMMIT = new WikidataEntityRecord();
+    private static final WikidataEntityRecord END = new WikidataEntityRecord();
+
+    private final List<WikidataImportProcessor> processors;
+    private final List<Lane> lanes;
+    private final WikidataEntityExtractor entityExtractor;
+    private final WikidataLineFilter lineFilter;
+    private final WikidataEntityRecord documentRecord = new WikidataEntityRecord();
+
+    private int entityCount = 0;
+
+    /**
+     * @param   threadPerProcessor  true to run each processor on a thread of its own, false to run
+     *                              them one after the other on the calling thread
+     */
+    WikidataCompositeProcessor(List<WikidataImportProcessor> processors, boolean threadPerProcessor) {
+        if (processors.isEmpty()) throw new IllegalArgumentException("No import processors given");
+        this.processors = new ArrayList<WikidataImportProcessor>(processors);
+        // extractor and filter covering all processors
+        WikidataEntityExtractor extractor = null;
+        WikidataLineFilter filter = new WikidataLineFilter();
+        for (WikidataImportProcessor processor : processors) {
+            extractor = (extractor == null) ? processor.getEntityExtractor()
+                : extractor.join(processor.getEntityExtractor());
+            WikidataLineFilter processorFilter = processor.getLineFilter();
+            if (processorFilter == null) {
+                filter = null; // this processor wants to see all entities
+            } else if (filter != null) {
+                filter.addFilter(processorFilter);
+            }
+        }
+        this.entityExtractor = extractor;
+        this.lineFilter = filter;
+        if (threadPerProcessor) {
+            lanes = new ArrayList<Lane>();
+            for (int i = 0; i < processors.size(); i++) {
+                Lane lane = new Lane(processors.get(i), i);
+                lane.thread.start();
+                lanes.add(lane);
+            }
+        } else {
+            lanes = Collections.emptyList();
+        }
+        log.info("Handing over the entities of the dump to " + processors.size() + " processors"
+            + ((threadPerProcessor) ? ", each running on a thread of its own" : ""));
+    }
+
+    @Override
+    public void processItemDocument(ItemDocument itemDocument) {
+        entityExtractor.extract(itemDocument, documentRecord);
+        processEntityRecord(documentRecord);
+    }
+
+    @Override
+    public void processPropertyDocument(PropertyDocument propertyDocument) {
+        // processors just count properties, as they do for all records of entities not being items
+        documentRecord.reset();
+        documentRecord.entityId = propertyDocument.getEntityId().getId();
+        processEntityRecord(documentRecord);
+    }
+
+    @Override
+    public void processEntityRecord(WikidataEntityRecord record) {
+        entityCount++;
+        if (lanes.isEmpty()) {
+            for (WikidataImportProcessor processor : processors) {
+                processor.processEntityRecord(record);
+            }
+            return;
+        }
+        try {
+            for (Lane lane : lanes) {
+                lane.checkFailure();
+                WikidataEntityRecord copy = lane.free.take();
+                copy.copyFrom(record);
+                lane.filled.put(copy);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while handing over an entity to the processors", e);
+        }
+    }
+
+    /** @return true if all processors stored or saved all entities handed over so far. */
+    @Override
+    public boolean commit(File stateFile) {
+        boolean committed = true;
+        if (lanes.isEmpty()) {
+            for (int i = 0; i < processors.size(); i++) {
+                committed &= processors.get(i).commit(stateFile(stateFile, i));
+            }
+            return committed;
+        }
+        try {
+            for (Lane lane : lanes) {
+                lane.stateFile = stateFile;
+                lane.filled.put(COMMIT);
+            }
+            for (Lane lane : lanes) {
+                committed &= lane.commits.take();
+            }
+            for (Lane lane : lanes) {
+                lane.checkFailure();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the processors to commit", e);
+        }
+        return committed;
+    }
+
+    /** Called before the lanes get any entity, so the processors are resumed on the calling thread. */
+    @Override
+    public boolean resume(File stateFile) {
+        for (int i = 0; i < processors.size(); i++) {
+            if (!processors.get(i).resume(stateFile(stateFile, i))) return false;
+        }
+        return true;
+    }
+
+    /** @return The file the processor at the given position saves its state to. */
+    static File stateFile(File stateFile, int processor) {
+        return new File(stateFile.getPath() + "." + processor);
+    }
+
+    /**
+     * Stops the processors one after the other, lanes are done with all entities handed over before
+     * their processor is stopped.
+     */
+    @Override
+    public void stop() {
+        if (lanes.isEmpty()) {
+            for (WikidataImportProcessor processor : processors) {
+                processor.stop();
+            }
+            return;
+        }
+        RuntimeException stopFailure = null;
+        for (Lane lane : lanes) {
+            try {
+                lane.filled.put(END);
+                lane.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warning("Interrupted while waiting for " + lane.thread.getName() + " to stop");
+                return;
+            }
+            if (lane.stopFailure != null && stopFailure == null) stopFailure = lane.stopFailure;
+        }
+        if (stopFailure != null) throw stopFailure;
+    }
+
+    @Override
+    public int getEntityCount() {
+        return entityCount;
+    }
+
+    @Override
+    public WikidataEntityExtractor getEntityExtractor() {
+        return entityExtractor;
+    }
+
+    @Override
+    public WikidataLineFilter getLineFilter() {
+        return lineFilter;
+    }
+
+    /**
+     * A processor running on a thread of its own. Records cycle between the free and the filled queue,
+     * so a lane allocates no records of its own once the import is running.
+     */
+    private static class Lane implements Runnable {
+
+        final WikidataImportProcessor processor;
+        final int index;
+        final Thread thread;
+        final BlockingQueue<WikidataEntityRecord> free = new ArrayBlockingQueue<WikidataEntityRecord>(LANE_CAPACITY);
+        final BlockingQueue<WikidataEntityRecord> filled = new ArrayBlockingQueue<WikidataEntityRecord>(LANE_CAPACITY);
+        final BlockingQueue<Boolean> commits = new ArrayBlockingQueue<Boolean>(1);
+
+        // the first exception thrown by the processor, once failed the lane just drains its queue
+        volatile RuntimeException failure = null;
+        volatile RuntimeException stopFailure = null;
+
+        // the file given with the last commit, set before the commit is handed over
+        File stateFile = null;
+
+        Lane(WikidataImportProcessor processor, int index) {
+            this.processor = processor;
+            this.index = index;
+            for (int i = 0; i < LANE_CAPACITY; i++) {
+                free.add(new WikidataEntityRecord());
+            }
+            this.thread = new Thread(this, "wdtk-processor-" + processor.getClass().getSimpleName());
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                WikidataEntityRecord record;
+                while ((record = filled.take()) != END) {
+                    if (record == COMMIT) {
+                        commits.put(failure == null && commit());
+                        continue;
+                    }
+                    if (failure == null) {
+                        try {
+                            processor.processEntityRecord(record);
+                        } catch (RuntimeException e) {
+                            log.log(Level.SEVERE, thread.getName() + " failed", e);
+                            failure = e;
+                        }
+                    }
+                    record.reset();
+                    free.put(record);
+                }
+                processor.stop();
+            } catch (InterruptedException e) {
+                log.warning(thread.getName() + " interrupted");
+            } catch (RuntimeException e) {
+                stopFailure = e;
+            }
+        }
+
+        private boolean commit() {
+            try {
+                return processor.commit(stateFile(stateFile, index));
+            } catch (RuntimeException e) {
+                log.log(Level.SEVERE, thread.getName() + " failed to commit", e);
+                failure = e;
+                return false;
+            }
+        }
+
+        /** Rethrows the exception the processor failed with (on the thread processing the dump). */
+        void checkFailure() {
+            RuntimeException e = failure;
+            if (e != null) throw e;
+        }
+
+    }
+
+}
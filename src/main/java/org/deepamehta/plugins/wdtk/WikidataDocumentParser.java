@@ -0,0 +1,46 @@
+package org.deepamehta.plugins.wdtk;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import java.io.IOException;
+import org.wikidata.wdtk.datamodel.helpers.Datamodel;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.datamodel.json.jackson.JacksonTermedStatementDocument;
+
+/**
+ * Deserializes single lines of a wikidata (json) dump into WDTK entity documents. Mirrors what the
+ * JsonDumpFileProcessor of the WDTK does per line, but works on raw bytes so it can be called by
+ * many parser threads at once (ObjectReader instances are immutable and thread-safe).
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataDocumentParser {
+
+    private final ObjectReader documentReader = new ObjectMapper()
+        .reader(JacksonTermedStatementDocument.class)
+        .with(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT);
+
+    /**
+     * @return  The entity document encoded in the given line or null if the line carries
+     *          no entity (e.g. the opening or closing bracket of the dumps json array).
+     */
+    EntityDocument parse(byte[] data, int start, int end) throws IOException {
+        // strip the trailing comma (and whitespace) separating the entities of the dumps array
+        while (end > start && (data[end - 1] == ',' || data[end - 1] == '\r'
+                || data[end - 1] == ' ' || data[end - 1] == '\t')) {
+            end--;
+        }
+        while (start < end && (data[start] == ' ' || data[start] == '\t')) {
+            start++;
+        }
+        if (end - start <= 1) return null; // empty line, "[" or "]"
+        JacksonTermedStatementDocument document = documentReader.readValue(data, start, end - start);
+        document.setSiteIri(Datamodel.SITE_WIKIDATA);
+        return document;
+    }
+
+}
@@ -0,0 +1,343 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens local wikidata (json) dump files for reading, decompressing <code>.json.bz2</code> and
+ * indexed (BGZF) <code>.json.gz</code> dumps in parallel. Plain gzip files can not be split without
+ * inflating them, so these are at least inflated on a thread of their own ahead of the reader.
+ * Uncompressed <code>.json</code> dumps can be memory-mapped and split into shards read side by side.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataDumpFileStream {
+
+    private static Logger log = Logger.getLogger(WikidataDumpFileStream.class.getName());
+
+    static final String DUMP_DIRECTORY = "dumpfiles/wikidatawiki";
+
+    /**
+     * Maps offsets within a decompressed dump stream to positions the dump file can be opened at again
+     * (see {@link #open(File, int, long[])}).
+     */
+    interface Positions {
+
+        /**
+         * @param   offset  The number of bytes read from the decompressed stream.
+         * @return  The offset of the chunk to re-open the file at (in bits for bzip2 files, in bytes
+         *          otherwise) and the number of decompressed bytes to skip from there on, or null if the
+         *          given offset can not be resolved (anymore).
+         */
+        long[] filePosition(long offset);
+
+    }
+
+    /**
+     * @param   threads     The number of threads used to decompress the dump.
+     * @return  The decompressed contents of the given dump file.
+     */
+    static InputStream open(File dumpFile, int threads) throws IOException {
+        return open(dumpFile, threads, new long[] {0, 0});
+    }
+
+    /**
+     * Opens the given dump file at a position formerly obtained through {@link #positions}.
+     *
+     * Compressed files split into chunks are opened right at the chunk given, all others are read
+     * (and decompressed) from their start up to the given position.
+     *
+     * @param   position    The file offset to open the file at and the number of bytes to skip from there.
+     */
+    static InputStream open(File dumpFile, int threads, long[] position) throws IOException {
+        String name = dumpFile.getName();
+        long fileOffset = position[0];
+        InputStream in = null;
+        if (name.endsWith(".bz2")) {
+            log.info("Decompressing " + name + " with " + threads + " threads (bzip2 blocks)");
+            in = new WikidataChunkedInputStream(new WikidataBzip2Chunks(
+                openAt(dumpFile, fileOffset / 8), fileOffset), threads);
+        } else if (name.endsWith(".gz")) {
+            if (isBgzf(dumpFile)) {
+                log.info("Decompressing " + name + " with " + threads + " threads (BGZF members)");
+                in = new WikidataChunkedInputStream(
+                    new WikidataBgzfChunks(openAt(dumpFile, fileOffset), fileOffset), threads);
+            } else {
+                log.info("Decompressing " + name + " on one thread (no BGZF index)");
+                in = new ReadAheadInputStream(new GZIPInputStream(new FileInputStream(dumpFile), 1 << 16));
+            }
+        } else { // uncompressed files are just opened at the position to skip to
+            return new BufferedInputStream(openAt(dumpFile, position[1]), 1 << 16);
+        }
+        skipFully(in, position[1]);
+        return in;
+    }
+
+    /** @return true if the given dump file can be split into shards (see {@link #openShards}). */
+    static boolean isShardable(File dumpFile) {
+        return dumpFile.getName().endsWith(".json");
+    }
+
+    /**
+     * Splits an uncompressed dump file into (about) equally sized shards, each ending right after a
+     * line break, and opens each shard as a memory-mapped stream.
+     */
+    static List<InputStream> openShards(File dumpFile, int shards) throws IOException {
+        long length = dumpFile.length();
+        long[] bounds = new long[shards + 1];
+        RandomAccessFile file = new RandomAccessFile(dumpFile, "r");
+        try {
+            for (int i = 1; i < shards; i++) {
+                bounds[i] = Math.max(bounds[i - 1], nextLineStart(file, length / shards * i, length));
+            }
+        } finally {
+            file.close();
+        }
+        bounds[shards] = length;
+        List<InputStream> streams = new ArrayList<InputStream>();
+        for (int i = 0; i < shards; i++) {
+            if (bounds[i + 1] > bounds[i]) {
+                streams.add(new WikidataMappedInputStream(dumpFile, bounds[i], bounds[i + 1]));
+            }
+        }
+        log.info("Split " + dumpFile.getName() + " (" + length + " bytes) into " + streams.size()
+            + " memory-mapped shards");
+        return streams;
+    }
+
+    /** @return The offset right after the first line break at or after the given offset. */
+    private static long nextLineStart(RandomAccessFile file, long offset, long length) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        file.seek(offset);
+        while (offset < length) {
+            int n = file.read(buffer);
+            if (n == -1) break;
+            for (int i = 0; i < n; i++) {
+                if (buffer[i] == '\n') return offset + i + 1;
+            }
+            offset += n;
+        }
+        return length;
+    }
+
+    /**
+     * @param   skipped     The number of decompressed bytes skipped when the stream was opened.
+     * @return  The positions of all bytes read from the given stream, counted from after the skip.
+     */
+    static Positions positions(InputStream in, final long skipped) {
+        if (in instanceof WikidataChunkedInputStream) {
+            final Positions chunks = (Positions) in;
+            return new Positions() {
+                @Override
+                public long[] filePosition(long offset) {
+                    return chunks.filePosition(skipped + offset);
+                }
+            };
+        }
+        return new Positions() {
+            @Override
+            public long[] filePosition(long offset) {
+                return new long[] {0, skipped + offset};
+            }
+        };
+    }
+
+    /** Skips the given number of bytes of the (decompressed) stream, reading through it if need be. */
+    static void skipFully(InputStream in, long bytes) throws IOException {
+        byte[] discard = null;
+        while (bytes > 0) {
+            long n = in.skip(bytes);
+            if (n <= 0) {
+                if (discard == null) discard = new byte[1 << 16];
+                n = in.read(discard, 0, (int) Math.min(discard.length, bytes));
+                if (n == -1) throw new EOFException("Dump file ended before the position to continue at");
+            }
+            bytes -= n;
+        }
+    }
+
+    private static InputStream openAt(File file, long offset) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        if (offset > 0) in.getChannel().position(offset);
+        return in;
+    }
+
+    /**
+     * Looks up the most recent json dump file stored locally in the directory layout used by the WDTK
+     * (<code>dumpfiles/wikidatawiki/json-YYYYMMDD/</code>) or placed directly into
+     * <code>dumpfiles/wikidatawiki/</code>.
+     *
+     * @param   dateStamp   The date stamp of the dump to look for or null to pick the most recent one.
+     * @return  The dump file or null if no such file was found.
+     */
+    static File findLocalDumpFile(String baseDirectory, String dateStamp) {
+        File directory = new File(baseDirectory, DUMP_DIRECTORY);
+        File result = null;
+        for (File candidate : listDumpFiles(directory)) {
+            if (dateStamp != null && !candidate.getPath().contains(dateStamp)) continue;
+            if (result == null || candidate.getName().compareTo(result.getName()) > 0) {
+                result = candidate;
+            }
+        }
+        return result;
+    }
+
+    private static File[] listDumpFiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) return new File[0];
+        File[] dumps = new File[0];
+        for (File file : files) {
+            if (file.isDirectory() && file.getName().startsWith("json-")) {
+                File[] nested = listDumpFiles(file);
+                int length = dumps.length;
+                dumps = Arrays.copyOf(dumps, length + nested.length);
+                System.arraycopy(nested, 0, dumps, length, nested.length);
+            } else if (isJsonDumpFile(file)) {
+                dumps = Arrays.copyOf(dumps, dumps.length + 1);
+                dumps[dumps.length - 1] = file;
+            }
+        }
+        return dumps;
+    }
+
+    private static boolean isJsonDumpFile(File file) {
+        String name = file.getName();
+        return file.isFile() && (name.endsWith(".json.gz") || name.endsWith(".json.bz2") || name.endsWith(".json"));
+    }
+
+    private static boolean isBgzf(File file) throws IOException {
+        byte[] header = new byte[18];
+        InputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            int n;
+            while (read < header.length && (n = in.read(header, read, header.length - read)) != -1) {
+                read += n;
+            }
+            return WikidataBgzfChunks.memberSize(header, read) > 0;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the given stream on a thread of its own, handing out its contents through a small queue
+     * of buffers. Used to overlap single-threaded decompression with the rest of the pipeline.
+     *
+     * The end of the stream is told by a flag set once the last buffer is queued, not by a marker
+     * put into the queue, as the queue is usually full by then.
+     */
+    static class ReadAheadInputStream extends InputStream {
+
+        private static final byte[] END = new byte[0];
+
+        private final BlockingQueue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(16);
+        private final Thread reader;
+        private volatile IOException error = null;
+        private volatile boolean done = false;
+
+        private byte[] current = new byte[0];
+        private int position = 0;
+        private boolean finished = false;
+
+        ReadAheadInputStream(final InputStream in) {
+            reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            byte[] buffer = new byte[1 << 20];
+                            int length = 0;
+                            int n;
+                            while (length < buffer.length && (n = in.read(buffer, length, buffer.length - length)) != -1) {
+                                length += n;
+                            }
+                            if (length == 0) break;
+                            buffers.put(length == buffer.length ? buffer : Arrays.copyOf(buffer, length));
+                        }
+                    } catch (InterruptedException e) {
+                        log.fine("Read ahead thread interrupted");
+                    } catch (IOException e) {
+                        error = e;
+                        log.log(Level.SEVERE, "Could not decompress the dump", e);
+                    } finally {
+                        try {
+                            in.close();
+                        } catch (IOException e) {
+                            log.log(Level.WARNING, "Could not close the dump", e);
+                        }
+                        done = true;
+                    }
+                }
+            }, "wdtk-dump-decompressor");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!ensureData()) return -1;
+            return current[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!ensureData()) return -1;
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.interrupt();
+            buffers.clear();
+        }
+
+        private boolean ensureData() throws IOException {
+            while (!finished && position >= current.length) {
+                byte[] next;
+                try {
+                    next = buffers.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while decompressing the dump", e);
+                }
+                if (next == null) {
+                    if (!done) continue;
+                    // all buffers were queued before the flag was set
+                    next = buffers.poll();
+                    if (next == null) next = END;
+                }
+                current = next;
+                position = 0;
+                if (current == END) {
+                    finished = true;
+                    if (error != null) throw error;
+                }
+            }
+            return !finished;
+        }
+
+    }
+
+}
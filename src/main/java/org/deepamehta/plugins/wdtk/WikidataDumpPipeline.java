@@ -0,0 +1,394 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
+
+/**
+ * A staged pipeline to process a wikidata (json) dump with all available cores.
+ *
+ * One reader thread splits the (decompressed) dump into batches of lines, a pool of parser threads
+ * deserializes these lines into entity documents and the calling thread hands the documents over
+ * to the entity processor. All stages are connected through bounded queues and share a fixed pool
+ * of recycled batches, so memory stays bounded no matter how fast the single stages are.
+ *
+ * Given an entity extractor, the parser threads do not deserialize complete entity documents but
+ * just extract the few fields the processor makes use of into the (recycled) entity records of a
+ * batch, which are then handed over through {@link WikidataImportProcessor#processEntityRecord}.
+ *
+ * Note: The entity processor is always called from the thread calling {@link #process} and gets
+ * the entities in dump order, so processors (and the DeepaMehta transactions they open) need not be
+ * thread-safe. Dumps split into shards (see {@link #processShards}) are read by one reader thread
+ * per shard, the entities of the different shards are then handed over interleaved.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataDumpPipeline {
+
+    private Logger log = Logger.getLogger(getClass().getName());
+
+    static final int BATCH_BYTES = 1 << 20;
+    static final int BATCH_LINES = 1024;
+    static final int READ_BUFFER = 1 << 16;
+
+    /** Notified on the processing thread whenever all entities of a batch were handed over. */
+    interface BatchListener {
+
+        /**
+         * @param   filePosition    The position in the dump file right after the batch (see
+         *                          {@link WikidataDumpFileStream.Positions}), null if unknown.
+         * @param   lines           The number of lines in the batch.
+         */
+        void batchProcessed(long[] filePosition, int lines);
+
+    }
+
+    private final int parserThreads;
+    private final WikidataLineFilter lineFilter;
+    private final WikidataEntityExtractor entityExtractor;
+    private WikidataDumpSlice slice = null;
+    private WikidataLineFilter sliceFilter = null;
+
+    private final BlockingQueue<WikidataLineBatch> freeBatches;
+    private final BlockingQueue<WikidataLineBatch> readBatches;
+    private final BlockingQueue<WikidataLineBatch> parsedBatches;
+
+    private final List<Thread> threads = new ArrayList<Thread>();
+    private final WikidataDocumentParser parser = new WikidataDocumentParser();
+
+    private volatile boolean aborted = false;
+    private volatile boolean cancelled = false;
+    private volatile Throwable readError = null;
+
+    private final AtomicLong sequences = new AtomicLong();
+    private final AtomicInteger runningReaders = new AtomicInteger();
+
+    private final AtomicLong linesRead = new AtomicLong();
+    private final AtomicLong parseErrors = new AtomicLong();
+    private final AtomicLong linesSkipped = new AtomicLong();
+
+    WikidataDumpPipeline(int parserThreads) {
+        this(parserThreads, null, null);
+    }
+
+    /**
+     * @param   lineFilter      Drops lines before they are parsed (on the parser threads), may be null.
+     * @param   entityExtractor Extracts entity records instead of parsing entity documents, null to
+     *                          parse complete entity documents.
+     */
+    WikidataDumpPipeline(int parserThreads, WikidataLineFilter lineFilter, WikidataEntityExtractor entityExtractor) {
+        this.parserThreads = Math.max(1, parserThreads);
+        this.lineFilter = lineFilter;
+        this.entityExtractor = entityExtractor;
+        int batches = this.parserThreads * 2 + 2;
+        this.freeBatches = new ArrayBlockingQueue<WikidataLineBatch>(batches);
+        this.readBatches = new ArrayBlockingQueue<WikidataLineBatch>(batches + this.parserThreads);
+        this.parsedBatches = new ArrayBlockingQueue<WikidataLineBatch>(batches + this.parserThreads);
+        for (int i = 0; i < batches; i++) {
+            freeBatches.add(new WikidataLineBatch(BATCH_BYTES, BATCH_LINES));
+        }
+    }
+
+    /**
+     * Writes all lines accepted by the given slice filter to the given slice (on the processing thread),
+     * in the order they are handed over to the entity processor. Which lines are parsed is still up to
+     * the line filter of the pipeline.
+     */
+    void setSlice(WikidataDumpSlice slice, WikidataLineFilter sliceFilter) {
+        this.slice = slice;
+        this.sliceFilter = sliceFilter;
+    }
+
+    /**
+     * Stops processing the dump once the batch currently handed over to the entity processor is
+     * done, {@link #process} then returns as if the dump ended there. May be called from any thread.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** @return The number of lines read so far. */
+    long getLinesRead() {
+        return linesRead.get();
+    }
+
+    /** @return The number of parser threads leaving one core to the reader and one to the processor. */
+    static int defaultParserThreads() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() - 2);
+    }
+
+    void process(InputStream dumpStream, WikidataImportProcessor entityProcessor) throws IOException {
+        process(dumpStream, null, entityProcessor, null);
+    }
+
+    /**
+     * Processes all entities of the given (decompressed) dump stream with the given entity processor.
+     * Exceptions thrown by the entity processor (e.g. a TimeoutException) stop the pipeline and are
+     * re-thrown to the caller.
+     *
+     * @param   positions   Resolves the file positions reported to the given listener, may be null.
+     * @param   listener    Notified about every batch processed, may be null.
+     */
+    void process(final InputStream dumpStream, final WikidataDumpFileStream.Positions positions,
+            WikidataImportProcessor entityProcessor, BatchListener listener) throws IOException {
+        log.info("Processing wikidata dump with " + parserThreads + " parser threads"
+            + ((entityExtractor != null) ? " extracting entity records" : ""));
+        runningReaders.set(1);
+        startThread(new Runnable() {
+            @Override
+            public void run() {
+                readLines(dumpStream, positions);
+            }
+        }, "wdtk-dump-reader");
+        runStages(entityProcessor, listener);
+    }
+
+    /**
+     * Processes all entities of the given shards of a dump (see {@link WikidataDumpFileStream#openShards}),
+     * reading each shard on a thread of its own. Positions in the file can not be told for the batches
+     * of sharded dumps, so the given listener is always notified with a file position of null.
+     *
+     * @param   shards  At most one shard more than parser threads, as every reader holds on to a batch.
+     */
+    void processShards(List<InputStream> shards, WikidataImportProcessor entityProcessor, BatchListener listener)
+            throws IOException {
+        if (shards.size() > parserThreads + 1) {
+            throw new IllegalArgumentException("At most " + (parserThreads + 1) + " shards can be read with "
+                + parserThreads + " parser threads");
+        }
+        log.info("Processing " + shards.size() + " shards of the wikidata dump with " + parserThreads
+            + " parser threads" + ((entityExtractor != null) ? " extracting entity records" : ""));
+        runningReaders.set(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            final InputStream shard = shards.get(i);
+            startThread(new Runnable() {
+                @Override
+                public void run() {
+                    readLines(shard, null);
+                }
+            }, "wdtk-dump-reader-" + i);
+        }
+        runStages(entityProcessor, listener);
+    }
+
+    private void runStages(WikidataImportProcessor entityProcessor, BatchListener listener) throws IOException {
+        for (int i = 0; i < parserThreads; i++) {
+            startThread(new Runnable() {
+                @Override
+                public void run() {
+                    parseLines();
+                }
+            }, "wdtk-dump-parser-" + i);
+        }
+        try {
+            consumeDocuments(entityProcessor, listener);
+        } catch (RuntimeException e) {
+            abort();
+            throw e;
+        } catch (IOException e) {
+            abort();
+            throw e;
+        } catch (InterruptedException e) {
+            abort();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while processing the wikidata dump", e);
+        } finally {
+            joinThreads();
+        }
+        log.info("Processed " + linesRead.get() + " lines of the wikidata dump (" + linesSkipped.get()
+            + " lines skipped by the line filter, " + parseErrors.get() + " lines could not be parsed)");
+        if (readError != null) {
+            throw new IOException("Reading the wikidata dump failed", readError);
+        }
+    }
+
+    // --- Stage 1: Reading lines
+
+    private void readLines(InputStream in, WikidataDumpFileStream.Positions positions) {
+        byte[] buffer = new byte[READ_BUFFER];
+        long offset = 0; // bytes read from the stream before the current buffer
+        try {
+            WikidataLineBatch batch = freeBatches.take();
+            int lineStart = 0;
+            int read;
+            while (!aborted && (read = in.read(buffer)) != -1) {
+                int pos = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        batch.append(buffer, pos, i - pos);
+                        batch.endLine(lineStart);
+                        lineStart = batch.length;
+                        pos = i + 1;
+                        if (batch.isFull(BATCH_BYTES, BATCH_LINES)) {
+                            closeBatch(batch, offset + i + 1, positions);
+                            batch = freeBatches.take();
+                            lineStart = 0;
+                        }
+                    }
+                }
+                if (pos < read) batch.append(buffer, pos, read - pos);
+                offset += read;
+            }
+            if (batch.length > lineStart) batch.endLine(lineStart); // last line without line break
+            closeBatch(batch, offset, positions);
+        } catch (InterruptedException e) {
+            log.fine("Reader thread interrupted");
+        } catch (Throwable e) {
+            if (!aborted) { // otherwise e.g. interrupted while reading from a (memory-mapped) file channel
+                readError = e;
+                log.log(Level.SEVERE, "Could not read the wikidata dump", e);
+            }
+        } finally {
+            if (runningReaders.decrementAndGet() == 0) { // the last reader ends the line stream
+                for (int i = 0; i < parserThreads; i++) {
+                    readBatches.offer(WikidataLineBatch.END);
+                }
+            }
+        }
+    }
+
+    private void closeBatch(WikidataLineBatch batch, long endOffset, WikidataDumpFileStream.Positions positions)
+            throws InterruptedException {
+        // numbered just before being queued, so no number is held back by a reader waiting for a batch
+        batch.sequence = sequences.getAndIncrement();
+        batch.endOffset = endOffset;
+        // resolved right here, as positions can just be resolved by the thread reading the stream
+        batch.filePosition = (positions != null) ? positions.filePosition(endOffset) : null;
+        linesRead.addAndGet(batch.lineCount);
+        readBatches.put(batch);
+    }
+
+    // --- Stage 2: Parsing lines into entity documents (or entity records)
+
+    private void parseLines() {
+        try {
+            while (true) {
+                WikidataLineBatch batch = readBatches.take();
+                if (batch == WikidataLineBatch.END) break;
+                int skipped = 0;
+                for (int i = 0; i < batch.lineCount && !aborted; i++) {
+                    if (slice != null) {
+                        batch.sliced[i] = sliceFilter.accept(batch.data, batch.lineStart[i], batch.lineEnd[i]);
+                    }
+                    if (lineFilter != null && !lineFilter.accept(batch.data, batch.lineStart[i], batch.lineEnd[i])) {
+                        skipped++;
+                        continue;
+                    }
+                    try {
+                        if (entityExtractor != null) {
+                            if (batch.records[i] == null) batch.records[i] = new WikidataEntityRecord();
+                            entityExtractor.extract(batch.data, batch.lineStart[i], batch.lineEnd[i], batch.records[i]);
+                        } else {
+                            batch.documents[i] = parser.parse(batch.data, batch.lineStart[i], batch.lineEnd[i]);
+                        }
+                    } catch (Exception e) {
+                        if (batch.records[i] != null) batch.records[i].reset();
+                        parseErrors.incrementAndGet();
+                        log.log(Level.WARNING, "Could not parse line of the wikidata dump", e);
+                    }
+                }
+                linesSkipped.addAndGet(skipped);
+                parsedBatches.put(batch);
+            }
+        } catch (InterruptedException e) {
+            log.fine("Parser thread interrupted");
+        } finally {
+            parsedBatches.offer(WikidataLineBatch.END);
+        }
+    }
+
+    // --- Stage 3: Handing over entity documents to the processor (on the calling thread)
+
+    private void consumeDocuments(WikidataImportProcessor entityProcessor, BatchListener listener)
+            throws InterruptedException, IOException {
+        // batches are parsed concurrently, the ones arriving ahead of their turn are held back here
+        Map<Long, WikidataLineBatch> pending = new HashMap<Long, WikidataLineBatch>();
+        long nextSequence = 0;
+        int finishedParsers = 0;
+        while (finishedParsers < parserThreads) {
+            WikidataLineBatch batch = parsedBatches.take();
+            if (batch == WikidataLineBatch.END) {
+                finishedParsers++;
+                continue;
+            }
+            pending.put(batch.sequence, batch);
+            while ((batch = pending.remove(nextSequence)) != null) {
+                for (int i = 0; i < batch.lineCount; i++) {
+                    if (slice != null && batch.sliced[i]) {
+                        slice.write(batch.data, batch.lineStart[i], batch.lineEnd[i]);
+                    }
+                    WikidataEntityRecord record = batch.records[i];
+                    if (record != null && record.entityId != null) {
+                        entityProcessor.processEntityRecord(record);
+                        continue;
+                    }
+                    EntityDocument document = batch.documents[i];
+                    if (document instanceof ItemDocument) {
+                        entityProcessor.processItemDocument((ItemDocument) document);
+                    } else if (document instanceof PropertyDocument) {
+                        entityProcessor.processPropertyDocument((PropertyDocument) document);
+                    }
+                }
+                if (listener != null) listener.batchProcessed(batch.filePosition, batch.lineCount);
+                nextSequence++;
+                batch.reset();
+                freeBatches.put(batch);
+                if (cancelled) {
+                    log.info("Processing of the wikidata dump cancelled after " + nextSequence + " batches");
+                    abort();
+                    return;
+                }
+            }
+        }
+        if (!pending.isEmpty() && !aborted) {
+            log.warning(pending.size() + " batches of the wikidata dump were not processed");
+        }
+    }
+
+    // --- Thread handling
+
+    private void startThread(Runnable stage, String name) {
+        Thread thread = new Thread(stage, name);
+        thread.setDaemon(true);
+        threads.add(thread);
+        thread.start();
+    }
+
+    private void abort() {
+        aborted = true;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    private void joinThreads() {
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+}
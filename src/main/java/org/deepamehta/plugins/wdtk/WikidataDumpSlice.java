@@ -0,0 +1,98 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.logging.Logger;
+
+/**
+ * A slice of a wikidata dump, holding just the entities any of our processors might make use of
+ * (under any import settings). A slice is written once while a complete dump is imported and can
+ * then be imported instead of the dump, as it is an (uncompressed) json dump of its own with one
+ * entity per line.
+ *
+ * Slices are stored in <code>dumpfiles/wikidatawiki/slices/</code>, where they are not taken for
+ * dumps. A slice is written to a temporary file first and put in place once the import is done. If
+ * the dump was not read completely (e.g. an import stopped at its time limit), the slice holds the
+ * entities of the portion read and is kept as a partial slice, which just time limited imports take
+ * instead of the dump, as these read the dump from its start, too.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataDumpSlice {
+
+    private static Logger log = Logger.getLogger(WikidataDumpSlice.class.getName());
+
+    static final String SLICE_DIRECTORY = WikidataDumpFileStream.DUMP_DIRECTORY + "/slices";
+    static final String SLICE_SUFFIX = ".slice.json";
+    static final String PARTIAL_SLICE_SUFFIX = ".partial.slice.json";
+
+    private final File sliceFile;
+    private final File partialSliceFile;
+    private final File partFile;
+    private final OutputStream out;
+    private long lines = 0;
+
+    WikidataDumpSlice(File sliceFile, File partialSliceFile) throws IOException {
+        this.sliceFile = sliceFile;
+        this.partialSliceFile = partialSliceFile;
+        this.partFile = new File(sliceFile.getPath() + ".part");
+        sliceFile.getParentFile().mkdirs();
+        this.out = new BufferedOutputStream(new FileOutputStream(partFile), 1 << 20);
+        log.info("Writing a slice of the dump to " + sliceFile.getPath());
+    }
+
+    /** @return The file the slice of the given dump is stored in (if there is one). */
+    static File sliceFile(String baseDirectory, String dumpName) {
+        return new File(new File(baseDirectory, SLICE_DIRECTORY), baseName(dumpName) + SLICE_SUFFIX);
+    }
+
+    /** @return The file the slice of the portion of the given dump read by an import is stored in. */
+    static File partialSliceFile(String baseDirectory, String dumpName) {
+        return new File(new File(baseDirectory, SLICE_DIRECTORY), baseName(dumpName) + PARTIAL_SLICE_SUFFIX);
+    }
+
+    private static String baseName(String dumpName) {
+        int extension = dumpName.indexOf(".json");
+        return (extension > 0) ? dumpName.substring(0, extension) : dumpName;
+    }
+
+    /** @return A filter accepting all lines any of the processors may use under any of their settings. */
+    static WikidataLineFilter lineFilter() {
+        return WikidataEntityProcessor.lineFilter(true, true, true, true)
+            .addFilter(WikidataGeodataProcessor.lineFilter(true, true, true, true, true));
+    }
+
+    /** Writes the given (json) line of the dump to the slice, without its trailing comma. */
+    void write(byte[] data, int start, int end) throws IOException {
+        while (end > start && (data[end - 1] == ',' || data[end - 1] == '\r')) {
+            end--;
+        }
+        if (end == start) return;
+        out.write(data, start, end - start);
+        out.write('\n');
+        lines++;
+    }
+
+    /**
+     * Closes the slice and puts it in place, as the slice of the dump if the complete dump was read,
+     * otherwise as the partial slice (replacing a former one).
+     */
+    void finish(boolean complete) throws IOException {
+        out.close();
+        File file = (complete) ? sliceFile : partialSliceFile;
+        if ((!file.exists() || file.delete()) && partFile.renameTo(file)) {
+            log.info("Wrote " + lines + " entities to the " + ((complete) ? "" : "partial ") + "slice " + file.getPath());
+            if (complete) partialSliceFile.delete();
+        } else {
+            log.warning("Could not put the slice " + partFile.getPath() + " in place, dropping it");
+            partFile.delete();
+        }
+    }
+
+}
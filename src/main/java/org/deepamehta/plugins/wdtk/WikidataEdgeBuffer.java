@@ -0,0 +1,323 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.logging.Logger;
+
+/**
+ * Relations (claims) between items to be created once the dump is processed, kept column by column
+ * in primitive arrays: the (encoded) item id of the source, the topic id of the target, the (encoded)
+ * property id and the offset of the statement's GUID in a {@link WikidataTextArena}. An edge takes
+ * 24 bytes plus its GUID.
+ *
+ * Edges are appended in the order they are found and read back ordered by their source through a
+ * {@link Cursor}, so all edges of an item are created in one go. If a buffer is allowed to spill
+ * (see {@link #spillTo}), each run of edges exceeding the limit is sorted and written to a run file,
+ * and the cursor merges all runs (and the edges still in memory) while reading them back.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataEdgeBuffer {
+
+    private static Logger log = Logger.getLogger(WikidataEdgeBuffer.class.getName());
+
+    private final WikidataTextArena arena;
+
+    private int[] sources = new int[256];
+    private long[] targets = new long[256];
+    private int[] properties = new int[256];
+    private long[] guids = new long[256];
+    private int size = 0;
+
+    // spilling
+    private File spillDirectory = null;
+    private String name = null;
+    private int runLimit = Integer.MAX_VALUE;
+    private final List<File> runs = new ArrayList<File>();
+    private long spilledEdges = 0;
+
+    WikidataEdgeBuffer(WikidataTextArena arena) {
+        this.arena = arena;
+    }
+
+    /**
+     * Lets the buffer write each run of the given number of edges to a file in the given directory.
+     * Run files are deleted on {@link #close}.
+     */
+    void spillTo(File spillDirectory, String name, int runLimit) {
+        this.spillDirectory = spillDirectory;
+        this.name = name;
+        this.runLimit = runLimit;
+    }
+
+    /**
+     * @param   sourceItem      the encoded id of the item stating the relation
+     * @param   targetTopicId   the id of the topic the relation points to
+     * @param   property        the encoded id of the property relating the two
+     * @param   guid            the GUID of the statement
+     */
+    void add(int sourceItem, long targetTopicId, int property, String guid) {
+        if (size == sources.length) {
+            int capacity = size * 2;
+            sources = Arrays.copyOf(sources, capacity);
+            targets = Arrays.copyOf(targets, capacity);
+            properties = Arrays.copyOf(properties, capacity);
+            guids = Arrays.copyOf(guids, capacity);
+        }
+        sources[size] = sourceItem;
+        targets[size] = targetTopicId;
+        properties[size] = property;
+        guids[size] = arena.add(guid);
+        size++;
+        if (size >= runLimit) writeRun();
+    }
+
+    /** @return The number of edges, in memory and spilled. */
+    long size() {
+        return spilledEdges + size;
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** @return The set of all source items. */
+    WikidataItemSet getSources() {
+        WikidataItemSet items = new WikidataItemSet();
+        Cursor cursor = cursor();
+        try {
+            while (cursor.next()) {
+                items.add(cursor.getSource());
+            }
+        } finally {
+            cursor.close();
+        }
+        return items;
+    }
+
+    /**
+     * @return  A cursor over all edges ordered by their source item, edges of the same source are
+     *          read in the order they were added.
+     */
+    Cursor cursor() {
+        sortBySource();
+        return new Cursor();
+    }
+
+    /** Drops all edges and deletes the run files. */
+    void close() {
+        size = 0;
+        spilledEdges = 0;
+        for (File run : runs) {
+            if (!run.delete()) log.warning("Could not delete the run file " + run.getPath());
+        }
+        runs.clear();
+    }
+
+    /** Sorts the edges in memory by their source item, edges of the same source keep their order. */
+    private void sortBySource() {
+        // sort (source, index) pairs packed into longs, then permute all columns accordingly
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = ((long) sources[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] sortedSources = new int[size];
+        long[] sortedTargets = new long[size];
+        int[] sortedProperties = new int[size];
+        long[] sortedGuids = new long[size];
+        for (int i = 0; i < size; i++) {
+            int index = (int) keys[i];
+            sortedSources[i] = sources[index];
+            sortedTargets[i] = targets[index];
+            sortedProperties[i] = properties[index];
+            sortedGuids[i] = guids[index];
+        }
+        sources = sortedSources;
+        targets = sortedTargets;
+        properties = sortedProperties;
+        guids = sortedGuids;
+    }
+
+    /** Writes the edges in memory, sorted by their source, to a new run file. */
+    private void writeRun() {
+        sortBySource();
+        spillDirectory.mkdirs();
+        File run = new File(spillDirectory, name + "-" + runs.size() + ".run");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16));
+            try {
+                for (int i = 0; i < size; i++) {
+                    out.writeInt(sources[i]);
+                    out.writeLong(targets[i]);
+                    out.writeInt(properties[i]);
+                    out.writeLong(guids[i]);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not write the run file " + run.getPath(), e);
+        }
+        runs.add(run);
+        spilledEdges += size;
+        log.info("Spilled " + size + " \"" + name + "\" edges to " + run.getPath());
+        size = 0;
+    }
+
+    // --- Reading edges back
+
+    /** Merges the runs of edges written to disk and the one kept in memory. */
+    class Cursor {
+
+        private final PriorityQueue<Run> heads = new PriorityQueue<Run>(runs.size() + 1, new Comparator<Run>() {
+            @Override
+            public int compare(Run a, Run b) {
+                // runs were written in the order the edges were added, the run in memory being the last one
+                if (a.source != b.source) return (a.source < b.source) ? -1 : 1;
+                return (a.index < b.index) ? -1 : ((a.index == b.index) ? 0 : 1);
+            }
+        });
+        private final List<Run> open = new ArrayList<Run>();
+        private Run current = null;
+
+        private Cursor() {
+            try {
+                for (int i = 0; i < runs.size(); i++) {
+                    open.add(new FileRun(i, runs.get(i)));
+                }
+            } catch (IOException e) {
+                close();
+                throw new RuntimeException("Could not open the run files of \"" + name + "\" edges", e);
+            }
+            open.add(new MemoryRun(runs.size()));
+            for (Run run : open) {
+                if (run.advance()) heads.add(run);
+            }
+        }
+
+        /** @return false if there is no edge left. */
+        boolean next() {
+            if (current != null && current.advance()) heads.add(current);
+            current = heads.poll();
+            return current != null;
+        }
+
+        int getSource() {
+            return current.source;
+        }
+
+        long getTarget() {
+            return current.target;
+        }
+
+        int getProperty() {
+            return current.property;
+        }
+
+        String getGuid() {
+            return arena.get(current.guid);
+        }
+
+        void close() {
+            for (Run run : open) {
+                run.close();
+            }
+        }
+
+    }
+
+    private static abstract class Run {
+
+        final int index;
+        int source;
+        long target;
+        int property;
+        long guid;
+
+        Run(int index) {
+            this.index = index;
+        }
+
+        /** @return false if the run is exhausted. */
+        abstract boolean advance();
+
+        void close() {
+        }
+
+    }
+
+    private class MemoryRun extends Run {
+
+        private int position = 0;
+
+        MemoryRun(int index) {
+            super(index);
+        }
+
+        @Override
+        boolean advance() {
+            if (position == size) return false;
+            source = sources[position];
+            target = targets[position];
+            property = properties[position];
+            guid = guids[position];
+            position++;
+            return true;
+        }
+
+    }
+
+    private static class FileRun extends Run {
+
+        private final File file;
+        private final DataInputStream in;
+
+        FileRun(int index, File file) throws IOException {
+            super(index);
+            this.file = file;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        }
+
+        @Override
+        boolean advance() {
+            try {
+                source = in.readInt();
+                target = in.readLong();
+                property = in.readInt();
+                guid = in.readLong();
+                return true;
+            } catch (EOFException e) {
+                return false;
+            } catch (IOException e) {
+                throw new RuntimeException("Could not read the run file " + file.getPath(), e);
+            }
+        }
+
+        @Override
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                log.warning("Could not close the run file " + file.getPath() + ": " + e.getMessage());
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,380 @@
+package org.deepamehta.plugins.wdtk;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.wikidata.wdtk.datamodel.interfaces.EntityIdValue;
+import org.wikidata.wdtk.datamodel.interfaces.GlobeCoordinatesValue;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.MonolingualTextValue;
+import org.wikidata.wdtk.datamodel.interfaces.Snak;
+import org.wikidata.wdtk.datamodel.interfaces.SnakGroup;
+import org.wikidata.wdtk.datamodel.interfaces.Statement;
+import org.wikidata.wdtk.datamodel.interfaces.StatementGroup;
+import org.wikidata.wdtk.datamodel.interfaces.StringValue;
+import org.wikidata.wdtk.datamodel.interfaces.TimeValue;
+import org.wikidata.wdtk.datamodel.interfaces.Value;
+import org.wikidata.wdtk.datamodel.interfaces.ValueSnak;
+
+/**
+ * Fills {@link WikidataEntityRecord}s with the label and description in one language and the
+ * statements of a given set of properties of an entity.
+ *
+ * Records are either filled from an item document deserialized by the WDTK or directly from the raw
+ * (json) line of a dump through a streaming parser. The latter skips over all other labels, aliases,
+ * sitelinks, statements and references without building any objects for these.
+ *
+ * Extractors are immutable and may be used by many threads at once.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataEntityExtractor {
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private final String isoLanguageCode;
+    // maps the ids of all properties to extract to the (same) constants of the WikidataEntityMap
+    private final Map<String, String> properties = new HashMap<String, String>();
+
+    /**
+     * @param   propertyIds     The properties (e.g. WikidataEntityMap.IS_INSTANCE_OF) to extract the
+     *                          statements of.
+     */
+    WikidataEntityExtractor(String isoLanguageCode, String... propertyIds) {
+        this.isoLanguageCode = isoLanguageCode;
+        for (String propertyId : propertyIds) {
+            properties.put(propertyId, propertyId);
+        }
+    }
+
+    /**
+     * @return  An extractor for the properties of this and the given extractor, labels and
+     *          descriptions are extracted in the language of this extractor.
+     */
+    WikidataEntityExtractor join(WikidataEntityExtractor other) {
+        WikidataEntityExtractor joined = new WikidataEntityExtractor(isoLanguageCode);
+        joined.properties.putAll(properties);
+        joined.properties.putAll(other.properties);
+        return joined;
+    }
+
+    // --- Extracting from item documents
+
+    void extract(ItemDocument itemDocument, WikidataEntityRecord record) {
+        record.reset();
+        record.entityId = itemDocument.getEntityId().getId();
+        record.isItem = true;
+        // as ever, label and description are just taken from items with more than one label
+        if (itemDocument.getLabels().size() > 1) {
+            record.label = getText(itemDocument.getLabels());
+            record.description = getText(itemDocument.getDescriptions());
+        }
+        for (StatementGroup sg : itemDocument.getStatementGroups()) {
+            String propertyId = properties.get(sg.getProperty().getId());
+            if (propertyId == null) continue;
+            for (Statement s : sg.getStatements()) {
+                int index = record.addStatement(propertyId, s.getStatementId());
+                if (s.getClaim().getMainSnak() instanceof ValueSnak) {
+                    extractValue(((ValueSnak) s.getClaim().getMainSnak()).getValue(), record, index);
+                }
+                for (SnakGroup qualifier : s.getClaim().getQualifiers()) {
+                    String qualifierId = qualifier.getProperty().getId();
+                    if (qualifierId.equals(WikidataEntityMap.STARTED_AT)) {
+                        setTime(qualifier.getSnaks(), record, index, false);
+                    } else if (qualifierId.equals(WikidataEntityMap.ENDED_AT)) {
+                        setTime(qualifier.getSnaks(), record, index, true);
+                    }
+                }
+            }
+        }
+    }
+
+    private String getText(Map<String, MonolingualTextValue> texts) {
+        MonolingualTextValue value = texts.get(isoLanguageCode);
+        if (value == null) { // if no text (in configured language) is available, we take first available
+            for (String key : texts.keySet()) {
+                value = texts.get(key);
+                break;
+            }
+        }
+        return (value != null) ? value.getText() : null;
+    }
+
+    private void extractValue(Value value, WikidataEntityRecord record, int index) {
+        if (value instanceof EntityIdValue) {
+            EntityIdValue entityIdValue = (EntityIdValue) value;
+            if (entityIdValue.getEntityType().equals(EntityIdValue.ET_ITEM)) {
+                record.setValue(index, WikidataEntityRecord.ITEM_VALUE, entityIdValue.getId());
+            }
+        } else if (value instanceof StringValue) {
+            record.setValue(index, WikidataEntityRecord.STRING_VALUE, ((StringValue) value).getString());
+        } else if (value instanceof GlobeCoordinatesValue) {
+            GlobeCoordinatesValue coordinates = (GlobeCoordinatesValue) value;
+            record.setCoordinates(index, coordinates.getLatitude(), coordinates.getLongitude());
+        } else if (value instanceof TimeValue) {
+            TimeValue time = (TimeValue) value;
+            record.setValue(index, WikidataEntityRecord.TIME_VALUE, time.getYear() + "-" + time.getMonth()
+                + "-" + time.getDay());
+        }
+    }
+
+    private void setTime(List<Snak> snaks, WikidataEntityRecord record, int index, boolean endTime) {
+        for (Snak snak : snaks) {
+            if (snak instanceof ValueSnak && ((ValueSnak) snak).getValue() instanceof TimeValue) {
+                TimeValue value = (TimeValue) ((ValueSnak) snak).getValue();
+                record.setTime(index, endTime, value.getYear(), value.getMonth(), value.getDay(),
+                    value.getHour(), value.getMinute(), value.getSecond());
+            }
+        }
+    }
+
+    // --- Extracting from raw (json) lines
+
+    /**
+     * @return  false if the line carries no entity (e.g. the opening or closing bracket of the dumps
+     *          json array).
+     */
+    boolean extract(byte[] data, int start, int end, WikidataEntityRecord record) throws IOException {
+        record.reset();
+        // strip the trailing comma (and whitespace) separating the entities of the dumps array
+        while (end > start && (data[end - 1] == ',' || data[end - 1] == '\r'
+                || data[end - 1] == ' ' || data[end - 1] == '\t')) {
+            end--;
+        }
+        if (end - start <= 1) return false; // empty line, "[" or "]"
+        JsonParser parser = jsonFactory.createParser(data, start, end - start);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) return false;
+            int labelCount = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if (field.equals("id")) {
+                    record.entityId = parser.getText();
+                } else if (field.equals("type")) {
+                    record.isItem = parser.getText().equals(WikidataEntityMap.WD_TYPE_ITEM);
+                } else if (field.equals("labels")) {
+                    labelCount = readTexts(parser, record, true);
+                } else if (field.equals("descriptions")) {
+                    readTexts(parser, record, false);
+                } else if (field.equals("claims")) {
+                    readClaims(parser, record);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            // as ever, label and description are just taken from items with more than one label
+            if (labelCount <= 1) {
+                record.label = null;
+                record.description = null;
+            }
+            return record.entityId != null;
+        } finally {
+            parser.close();
+        }
+    }
+
+    /** @return The number of languages the texts are given in. */
+    private int readTexts(JsonParser parser, WikidataEntityRecord record, boolean labels) throws IOException {
+        int count = 0;
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) { // empty terms are given as []
+            parser.skipChildren();
+            return count;
+        }
+        String first = null;
+        String text = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String language = parser.getCurrentName();
+            parser.nextToken();
+            count++;
+            if (text == null && (first == null || language.equals(isoLanguageCode))) {
+                String value = readTextValue(parser);
+                if (language.equals(isoLanguageCode)) text = value;
+                if (first == null) first = value;
+            } else {
+                parser.skipChildren();
+            }
+        }
+        String result = (text != null) ? text : first;
+        if (labels) {
+            record.label = result;
+        } else {
+            record.description = result;
+        }
+        return count;
+    }
+
+    private String readTextValue(JsonParser parser) throws IOException {
+        String value = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if (field.equals("value")) {
+                value = parser.getText();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return value;
+    }
+
+    private void readClaims(JsonParser parser, WikidataEntityRecord record) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String propertyId = properties.get(parser.getCurrentName());
+            parser.nextToken();
+            if (propertyId == null) {
+                parser.skipChildren();
+                continue;
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                readStatement(parser, record, propertyId);
+            }
+        }
+    }
+
+    private void readStatement(JsonParser parser, WikidataEntityRecord record, String propertyId)
+            throws IOException {
+        int index = record.addStatement(propertyId, null);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if (field.equals("id")) {
+                record.statementIds[index] = parser.getText();
+            } else if (field.equals("mainsnak")) {
+                readSnak(parser, record, index);
+            } else if (field.equals("qualifiers") && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String qualifierId = parser.getCurrentName();
+                    parser.nextToken();
+                    if (qualifierId.equals(WikidataEntityMap.STARTED_AT)) {
+                        readQualifierTime(parser, record, index, false);
+                    } else if (qualifierId.equals(WikidataEntityMap.ENDED_AT)) {
+                        readQualifierTime(parser, record, index, true);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /** Reads a snak into the given statement of the record, snaks without a value are ignored. */
+    private void readSnak(JsonParser parser, WikidataEntityRecord record, int index) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if (field.equals("datavalue") && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String valueField = parser.getCurrentName();
+                    parser.nextToken();
+                    if (valueField.equals("value")) {
+                        readValue(parser, record, index);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren(); // the snaktype is implied, there is no datavalue but for values
+            }
+        }
+    }
+
+    /** Tells the type of a value by its fields, as the values type may be given after the value. */
+    private void readValue(JsonParser parser, WikidataEntityRecord record, int index) throws IOException {
+        if (parser.getCurrentToken() == JsonToken.VALUE_STRING) {
+            record.setValue(index, WikidataEntityRecord.STRING_VALUE, parser.getText());
+            return;
+        } else if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        String entityType = null;
+        String entityId = null;
+        long numericId = -1;
+        String time = null;
+        double latitude = 0;
+        double longitude = 0;
+        boolean globe = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (field.equals("entity-type")) {
+                entityType = parser.getText();
+            } else if (field.equals("numeric-id")) {
+                numericId = parser.getLongValue();
+            } else if (field.equals("id") && token == JsonToken.VALUE_STRING) {
+                entityId = parser.getText();
+            } else if (field.equals("time")) {
+                time = parser.getText();
+            } else if (field.equals("latitude") && token.isNumeric()) {
+                latitude = parser.getDoubleValue();
+                globe = true;
+            } else if (field.equals("longitude") && token.isNumeric()) {
+                longitude = parser.getDoubleValue();
+                globe = true;
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (entityType != null) {
+            if (entityType.equals(WikidataEntityMap.WD_TYPE_ITEM)) {
+                if (entityId == null) entityId = "Q" + numericId;
+                record.setValue(index, WikidataEntityRecord.ITEM_VALUE, entityId);
+            }
+        } else if (time != null) {
+            record.setValue(index, WikidataEntityRecord.TIME_VALUE, time);
+        } else if (globe) {
+            record.setCoordinates(index, latitude, longitude);
+        }
+    }
+
+    private void readQualifierTime(JsonParser parser, WikidataEntityRecord record, int statementIndex,
+            boolean endTime) throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        WikidataEntityRecord snak = new WikidataEntityRecord();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            snak.reset();
+            int index = snak.addStatement(WikidataEntityMap.STARTED_AT, null);
+            readSnak(parser, snak, index);
+            if (snak.valueTypes[index] == WikidataEntityRecord.TIME_VALUE) {
+                parseTime(snak.values[index], record, statementIndex, endTime);
+            }
+        }
+    }
+
+    /**
+     * Parses a wikidata time value (e.g. "+1952-03-11T00:00:00Z") the way the WDTK does and sets it
+     * as qualifier of the given statement, unless malformed.
+     */
+    static void parseTime(String time, WikidataEntityRecord record, int index, boolean endTime) {
+        try {
+            int yearEnd = time.indexOf('-', 1);
+            long year = Long.parseLong(time.substring(time.charAt(0) == '+' ? 1 : 0, yearEnd));
+            int month = Integer.parseInt(time.substring(yearEnd + 1, yearEnd + 3));
+            int day = Integer.parseInt(time.substring(yearEnd + 4, yearEnd + 6));
+            int hour = Integer.parseInt(time.substring(yearEnd + 7, yearEnd + 9));
+            int minute = Integer.parseInt(time.substring(yearEnd + 10, yearEnd + 12));
+            int second = Integer.parseInt(time.substring(yearEnd + 13, yearEnd + 15));
+            record.setTime(index, endTime, year, month, day, hour, minute, second);
+        } catch (RuntimeException e) {
+            // not a time value we could make sense of, leave the qualifier out
+        }
+    }
+
+}
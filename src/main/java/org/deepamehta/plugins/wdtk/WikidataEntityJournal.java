@@ -0,0 +1,232 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.logging.Logger;
+
+/**
+ * The state a {@link WikidataEntityProcessor} collects in memory until it is stopped (the items of
+ * each class, their texts and coordinates and the pending relations), saved to a log file at each
+ * checkpoint so an import continuing at the checkpoint can replay it.
+ *
+ * The processor writes all it collected so far with the first checkpoint and just the records
+ * collected since the former checkpoint with each one following, so a checkpoint costs about as much
+ * as the entities processed since the last one. Each checkpoint appends one frame (its length and its
+ * records) to the log and syncs it to disk. A frame cut off by a crash is dropped when the log is
+ * replayed. Relations are written like the records of a {@link WikidataEdgeBuffer} run file, followed
+ * by the GUID of their statement.
+ *
+ * Records are replayed through the same calls which collected them, all of these are idempotent, so
+ * a frame written for a checkpoint which could not be stored afterwards does no harm.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataEntityJournal {
+
+    private static Logger log = Logger.getLogger(WikidataEntityJournal.class.getName());
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x7764656a; // "wdej"
+
+    // record types
+    private static final byte ITEM          = 1;
+    private static final byte TEXT          = 2;
+    private static final byte COORDINATES   = 3;
+    private static final byte EDGE          = 4;
+    private static final byte WANTED_ITEM   = 5;
+
+    /** Receives the records of a log being replayed. */
+    interface Replay {
+
+        /** @param set The set the item was added to, as given to {@link WikidataEntityJournal#item}. */
+        void item(byte set, int item);
+
+        void text(byte map, int item, String text);
+
+        void coordinates(String itemId, double[] coordinates);
+
+        void edge(byte buffer, int sourceItem, long targetTopicId, int property, String guid);
+
+        void wantedItem(int item);
+
+    }
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    // the length of the log up to its last complete frame, 0 if there is no log yet
+    private long logLength = 0;
+
+    void item(byte set, int item) {
+        try {
+            out.writeByte(ITEM);
+            out.writeByte(set);
+            out.writeInt(item);
+        } catch (IOException e) {
+            throw new RuntimeException(e); // written to memory
+        }
+    }
+
+    void text(byte map, int item, String text) {
+        try {
+            out.writeByte(TEXT);
+            out.writeByte(map);
+            out.writeInt(item);
+            writeText(out, text);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    void coordinates(String itemId, double[] coordinates) {
+        try {
+            out.writeByte(COORDINATES);
+            writeText(out, itemId);
+            out.writeDouble(coordinates[0]);
+            out.writeDouble(coordinates[1]);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    void edge(byte buffer, int sourceItem, long targetTopicId, int property, String guid) {
+        try {
+            out.writeByte(EDGE);
+            out.writeByte(buffer);
+            out.writeInt(sourceItem);
+            out.writeLong(targetTopicId);
+            out.writeInt(property);
+            writeText(out, guid);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    void wantedItem(int item) {
+        try {
+            out.writeByte(WANTED_ITEM);
+            out.writeInt(item);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** @return The number of bytes of the records written since the last frame. */
+    int size() {
+        return bytes.size();
+    }
+
+    /**
+     * Appends the records written since the last frame to the given log as a frame of its own and
+     * syncs the log to disk. The first frame starts a new log, replacing the file given. If appending
+     * fails, the records are kept for the next frame and whatever got appended is cut off again.
+     */
+    void appendFrame(File logFile) throws IOException {
+        logFile.getParentFile().mkdirs();
+        RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+        try {
+            file.setLength(logLength);
+            file.seek(logLength);
+            DataOutputStream frame = new DataOutputStream(new FileOutputStream(file.getFD()));
+            if (logLength == 0) frame.writeInt(MAGIC);
+            frame.writeInt(bytes.size());
+            bytes.writeTo(frame);
+            frame.flush();
+            file.getFD().sync();
+            logLength = file.getFilePointer();
+        } finally {
+            file.close();
+        }
+        bytes.reset();
+    }
+
+    /**
+     * Hands over all records of the complete frames of the given log, frames appended later on
+     * follow the last complete one (a frame left incomplete is cut off).
+     *
+     * @return  The number of frames replayed.
+     */
+    int replay(File logFile, Replay replay) throws IOException {
+        int frames = 0;
+        long complete = 4;
+        long length = logFile.length();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC) throw new IOException("Not a log of collected entities");
+            while (true) {
+                byte[] frame;
+                try {
+                    int frameLength = in.readInt();
+                    if (frameLength < 0 || frameLength > length - complete - 4) break;
+                    frame = new byte[frameLength];
+                    in.readFully(frame);
+                } catch (EOFException e) {
+                    break;
+                }
+                replayFrame(frame, replay);
+                complete += 4 + frame.length;
+                frames++;
+            }
+        } finally {
+            in.close();
+        }
+        if (complete < length) {
+            log.warning("Dropping the incomplete last frame of " + logFile.getPath());
+        }
+        logLength = complete;
+        return frames;
+    }
+
+    private static void replayFrame(byte[] frame, Replay replay) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+        int type;
+        while ((type = in.read()) != -1) {
+            switch (type) {
+                case ITEM:
+                    replay.item(in.readByte(), in.readInt());
+                    break;
+                case TEXT:
+                    replay.text(in.readByte(), in.readInt(), readText(in));
+                    break;
+                case COORDINATES:
+                    replay.coordinates(readText(in), new double[] {in.readDouble(), in.readDouble()});
+                    break;
+                case EDGE:
+                    replay.edge(in.readByte(), in.readInt(), in.readLong(), in.readInt(), readText(in));
+                    break;
+                case WANTED_ITEM:
+                    replay.wantedItem(in.readInt());
+                    break;
+                default:
+                    throw new IOException("Unknown record type " + type);
+            }
+        }
+    }
+
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        byte[] encoded = text.getBytes(UTF8);
+        out.writeInt(encoded.length);
+        out.write(encoded);
+    }
+
+    private static String readText(DataInputStream in) throws IOException {
+        byte[] encoded = new byte[in.readInt()];
+        in.readFully(encoded);
+        return new String(encoded, UTF8);
+    }
+
+}
@@ -9,24 +9,15 @@ import de.deepamehta.core.service.CoreService;
 import de.deepamehta.core.service.ModelFactory;
 import de.deepamehta.core.storage.spi.DeepaMehtaTransaction;
 import de.deepamehta.workspaces.WorkspacesService;
+import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessor;
-import org.wikidata.wdtk.datamodel.interfaces.EntityIdValue;
-import org.wikidata.wdtk.datamodel.interfaces.GlobeCoordinatesValue;
 import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
-import org.wikidata.wdtk.datamodel.interfaces.MonolingualTextValue;
 import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
-import org.wikidata.wdtk.datamodel.interfaces.PropertyIdValue;
-import org.wikidata.wdtk.datamodel.interfaces.Statement;
-import org.wikidata.wdtk.datamodel.interfaces.StatementGroup;
-import org.wikidata.wdtk.datamodel.interfaces.StringValue;
-import org.wikidata.wdtk.datamodel.interfaces.TimeValue;
-import org.wikidata.wdtk.datamodel.interfaces.Value;
-import org.wikidata.wdtk.datamodel.interfaces.ValueSnak;
-import org.wikidata.wdtk.util.Timer;
 
 /**
  * @author Malte Rei&szlig;ig <malte@mikromedia.de>
@@ -36,7 +27,7 @@ import org.wikidata.wdtk.util.Timer;
  * Thanks for sharing. Honorable mentions go to jri for telling me about the 
  * ImportPackage bundle notations which helped me to run the WDTK within our OSGi.
  */
-public class WikidataEntityProcessor implements EntityDocumentProcessor {
+public class WikidataEntityProcessor implements WikidataImportProcessor {
     
     private Logger log = Logger.getLogger(getClass().getName());
     
@@ -56,8 +47,13 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
 
     private final String WS_WIKIDATA_URI = "org.deepamehta.workspaces.wikidata";
 
-    // setting: overall seconds and timer to parse the dumpfile
-    final Timer timer = Timer.getNamedTimer("WikidataEntityProcessor");
+    // the types of the relations imported among items (parent and child)
+    static final String[] RELATION_TYPES = {"org.deepamehta.wikidata.employee_of",
+        "org.deepamehta.wikidata.citizen_of", "org.deepamehta.wikidata.affiliated_with",
+        "org.deepamehta.wikidata.student_of", "org.deepamehta.wikidata.mentor_of"};
+
+    // setting: overall seconds to parse the dumpfile, timed from the first entity on (per processor)
+    long timerStartedAt = 0;
     int lastSeconds = 0, entityCount = 0;
     int timeout;
 
@@ -79,6 +75,9 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
     ModelFactory mf;
     WorkspacesService workspaceService;
     Topic wikidataWorkspace = null;
+    WikidataWorkspaceAssigner workspaceAssigner = null;
+
+    WikidataEntityExtractor entityExtractor;
 
     public WikidataEntityProcessor (CoreService dm4, ModelFactory mf, WorkspacesService workspaceService, int timeout,
         boolean persons, boolean institutions, boolean cities, boolean countries, boolean descriptions, 
@@ -95,332 +94,214 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
         this.storeWebsiteAddresses = urls;
         this.storeDescription = descriptions;
         if (iso_lang != null) this.isoLanguageCode = iso_lang;
+        this.entityExtractor = new WikidataEntityExtractor(isoLanguageCode, WikidataEntityMap.IS_INSTANCE_OF,
+            WikidataEntityMap.IS_SUBCLASS_OF, WikidataEntityMap.GEO_COORDINATES, WikidataEntityMap.IS_GIVEN_NAME_OF,
+            WikidataEntityMap.IS_SURNAME_OF, WikidataEntityMap.WAS_BORN_ON, WikidataEntityMap.IS_DEAD_SINCE,
+            WikidataEntityMap.IS_OFFICIAL_WEBSITE_OF, WikidataEntityMap.IS_EMPLOYEE_OF, WikidataEntityMap.IS_MEMBER_OF,
+            WikidataEntityMap.IS_PARTY_MEMBER_OF, WikidataEntityMap.IS_AFFILIATED_WITH, WikidataEntityMap.IS_CITIZEN_OF,
+            WikidataEntityMap.IS_OFFICIALLY_RESIDING_AT, WikidataEntityMap.IS_STUDENT_OF_PERSON,
+            WikidataEntityMap.IS_DOCTORAL_STUDENT_OF, WikidataEntityMap.IS_DOCTORAL_ADVISOR_OF);
         wikidataWorkspace = workspaceService.getWorkspace(WS_WIKIDATA_URI);
+        workspaceAssigner = new WikidataWorkspaceAssigner(dm4, workspaceService, wikidataWorkspace.getId());
         log.info("Set up to import wikidata topics into workspace \"" + wikidataWorkspace.getSimpleValue() + "\"");
     }
 
+    // all texts collected are kept (UTF-8 encoded) in one arena, the maps are keyed by the
+    // encoded item ids (see WikidataIdCodec)
+    WikidataTextArena texts = new WikidataTextArena();
     // globally collect some label for every item processed.. (note: in memory!)
-    HashMap<String, String> itemsFirstLabel = new HashMap<String, String>();
+    WikidataTextMap itemsFirstLabel = new WikidataTextMap(texts);
     // collecting some more specific text values on each item (note: in memory!)
-    HashMap<String, String> itemsDeathDate = new HashMap<String, String>();
-    HashMap<String, String> itemsBirthDate = new HashMap<String, String>();
-    HashMap<String, String> itemsGivenname = new HashMap<String, String>();
-    HashMap<String, String> itemsSurname = new HashMap<String, String>();
-    HashMap<String, String> itemsFirstDescription = new HashMap<String, String>();
-    // 
-    HashMap<String, String> all_persons = new HashMap<String, String>();
-    HashMap<String, String> all_institutions = new HashMap<String, String>();
-    HashMap<String, String> all_cities = new HashMap<String, String>();
-    HashMap<String, String> all_countries = new HashMap<String, String>();
-    HashMap<String, String> all_websites = new HashMap<String, String>();
+    WikidataTextMap itemsDeathDate = new WikidataTextMap(texts);
+    WikidataTextMap itemsBirthDate = new WikidataTextMap(texts);
+    WikidataTextMap itemsGivenname = new WikidataTextMap(texts);
+    WikidataTextMap itemsSurname = new WikidataTextMap(texts);
+    WikidataTextMap itemsFirstDescription = new WikidataTextMap(texts);
+    // the items of each class, just the ids are kept as the labels are in itemsFirstLabel
+    WikidataItemSet all_persons = new WikidataItemSet();
+    WikidataItemSet all_institutions = new WikidataItemSet();
+    WikidataItemSet all_cities = new WikidataItemSet();
+    WikidataItemSet all_countries = new WikidataItemSet();
+    WikidataTextMap all_websites = new WikidataTextMap(texts);
     HashMap<String, double[]> all_coordinates = new HashMap<String, double[]>();
+    // the items found in the first pass of a two-pass import, texts are then just kept for these
+    WikidataItemSet wantedItems = null;
     /** ### HashMap<String, String> all_herbs = new HashMap<String, String>();
     HashMap<String, String> all_vegetables = new HashMap<String, String>();
     HashMap<String, String> all_edible_fruits = new HashMap<String, String>();
     HashMap<String, String> all_edible_fungis = new HashMap<String, String>(); **/
 
-    HashMap<String, HashMap<String, String>> employeeOf = new HashMap<String, HashMap<String, String>>();
-    HashMap<String, HashMap<String, String>> citizenOf = new HashMap<String, HashMap<String, String>>();
-    HashMap<String, HashMap<String, String>> affiliatedWith = new HashMap<String, HashMap<String, String>>();
-    HashMap<String, HashMap<String, String>> studentOf = new HashMap<String, HashMap<String, String>>();
-    HashMap<String, HashMap<String, String>> mentorOf = new HashMap<String, HashMap<String, String>>();
+    // pending relations to already imported items, the GUIDs of their statements go to the arena
+    WikidataEdgeBuffer employeeOf = new WikidataEdgeBuffer(texts);
+    WikidataEdgeBuffer citizenOf = new WikidataEdgeBuffer(texts);
+    WikidataEdgeBuffer affiliatedWith = new WikidataEdgeBuffer(texts);
+    WikidataEdgeBuffer studentOf = new WikidataEdgeBuffer(texts);
+    WikidataEdgeBuffer mentorOf = new WikidataEdgeBuffer(texts);
+
+    // the collections saved at checkpoints, records of the journal refer to them by their index
+    static final byte PERSONS = 0, INSTITUTIONS = 1, CITIES = 2, COUNTRIES = 3;
+    static final byte LABELS = 0, DESCRIPTIONS = 1, WEBSITES = 2;
+    static final byte EMPLOYEE_OF = 0, CITIZEN_OF = 1, AFFILIATED_WITH = 2, STUDENT_OF = 3, MENTOR_OF = 4;
+    final WikidataItemSet[] itemClasses = {all_persons, all_institutions, all_cities, all_countries};
+    final WikidataTextMap[] textMaps = {itemsFirstLabel, itemsFirstDescription, all_websites};
+    final WikidataEdgeBuffer[] relations = {employeeOf, citizenOf, affiliatedWith, studentOf, mentorOf};
+
+    // records all collected since the last checkpoint, once the first checkpoint saved all collected before
+    WikidataEntityJournal journal = null;
+
+    // knows the relations existing already, if set
+    WikidataClaimEdgeFilter claimEdges = null;
+
+    /** Lets the topics and associations created be assigned to the workspace in batches. */
+    void setBulkAssignment(boolean bulk) {
+        workspaceAssigner.setBulk(bulk);
+    }
+
+    void setClaimEdgeFilter(WikidataClaimEdgeFilter claimEdges) {
+        for (String relationType : RELATION_TYPES) {
+            claimEdges.addType(relationType, true);
+        }
+        this.claimEdges = claimEdges;
+    }
+
+    /**
+     * Lets the texts collected (labels, descriptions and websites) spill to a file in the given
+     * directory once these take more than the given number of bytes on the heap, and the pending
+     * relations once each of the relation buffers holds more than a tenth of it. To be called before
+     * the first entity is processed, {@link #stop} reads spilled texts and relations transparently.
+     */
+    void spillTo(File spillDirectory, long heapBudget) {
+        texts.spillTo(new File(spillDirectory, "texts.spill"), heapBudget);
+        int runLimit = (int) Math.max(1 << 16, Math.min(Integer.MAX_VALUE / 2, heapBudget / 10 / 24));
+        employeeOf.spillTo(spillDirectory, "employee_of", runLimit);
+        citizenOf.spillTo(spillDirectory, "citizen_of", runLimit);
+        affiliatedWith.spillTo(spillDirectory, "affiliated_with", runLimit);
+        studentOf.spillTo(spillDirectory, "student_of", runLimit);
+        mentorOf.spillTo(spillDirectory, "mentor_of", runLimit);
+    }
 
     @Override
     public void processItemDocument(ItemDocument itemDocument) {
+        WikidataEntityRecord record = new WikidataEntityRecord();
+        entityExtractor.extract(itemDocument, record);
+        processEntityRecord(record);
+    }
+
+    @Override
+    public void processEntityRecord(WikidataEntityRecord record) {
 
         countEntity();
-        
+        if (!record.isItem) return;
+
         // 0) Get label and description of current item
-        String itemId = itemDocument.getEntityId().getId();
-        String label = getItemLabel(itemDocument);
-        String description = getItemDescription(itemDocument);
-        if (label != null && !label.isEmpty()) itemsFirstLabel.put(itemId, label);
-        if (description != null && !description.isEmpty() && storeDescription) {
-            itemsFirstDescription.put(itemId, description);
-        }
-
-        // 1) Iterate over items statement groups
-
-        if (itemDocument.getStatementGroups().size() > 0) {
-            
-            for (StatementGroup sg : itemDocument.getStatementGroups()) {
-                                
-                // -- Inspect with which type of StatementGroup (resp. Property) we deal here 
-                
-                boolean isInstanceOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_INSTANCE_OF);
-                boolean isSubclassOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_SUBCLASS_OF);
-                boolean isCoordinateOf = sg.getProperty().getId().equals(WikidataEntityMap.GEO_COORDINATES);
-                boolean isGivenNameOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_GIVEN_NAME_OF);
-                boolean isSurnameOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_SURNAME_OF);
-                boolean isBirthDateOf = sg.getProperty().getId().equals(WikidataEntityMap.WAS_BORN_ON);
-                boolean isDeathDateOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_DEAD_SINCE);
-                boolean isWebsiteOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_OFFICIAL_WEBSITE_OF);
-                
-                // 
-                boolean isMemberOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_MEMBER_OF);
-                boolean isCitizenOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_CITIZEN_OF);
-                boolean isEmployeeOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_EMPLOYEE_OF);
-                boolean isPartyMemberOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_PARTY_MEMBER_OF);
-                boolean isOfficiallyResidingAt = sg.getProperty().getId().equals(WikidataEntityMap.IS_OFFICIALLY_RESIDING_AT);
-                // boolean isAlmaMaterOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_ALMA_MATER_OF);
-                boolean isStudentOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_STUDENT_OF_PERSON);
-                boolean isDoctoralAdvisorOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_DOCTORAL_ADVISOR_OF);
-                boolean isDoctoralStudentOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_DOCTORAL_STUDENT_OF);
-                boolean isAffiliatedWith = sg.getProperty().getId().equals(WikidataEntityMap.IS_AFFILIATED_WITH);
-
-                /** boolean isPseudonymOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_PSEUDONYM_OF);
-                boolean isOpenResearchIdOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_OPEN_RESEARCH_ID_OF);
-                boolean isNotableWorkOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_NOTABLE_WORK_OF); **/
-                /** if (isSubclassOf && classRecord == null) {
-                    // logger.info("Has SubclassOf Relationship.. and NO classRecord");
-                    classRecord = getClassRecord(itemDocument, itemDocument.getItemId());
-                } **/
-                
-                // 1.1) Record various "attributes" of the current item
-
-                // -- is instance | subclass of
-
-                if (isInstanceOf || isSubclassOf) {
-                    for (Statement s : sg.getStatements()) {
-                        // ### simply using the main snak value of this statement
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            String referencedItemId = "";
-                            
-                            // --- Statement involving other ITEMS
-                            if (mainSnakValue instanceof EntityIdValue) {
-                                
-                                EntityIdValue itemIdValue = (EntityIdValue) mainSnakValue;
-
-                                if (itemIdValue.getEntityType().equals(EntityIdValue.ET_ITEM)) {
-                                    
-                                    referencedItemId = itemIdValue.getId();
-
-                                    // 2.1 current wikidata item is direct instanceOf|subclassOf "human" or "person"
-                                    if (referencedItemId.equals(WikidataEntityMap.HUMAN_ITEM)
-                                        || referencedItemId.equals(WikidataEntityMap.PERSON_ITEM)) {
-                                        if (doPersons && !all_persons.containsKey(itemId)) all_persons.put(itemId, label);
-
-                                    // 2.2 current wikidata item is direct instanceOf|subclassOf "university", "company" or "organisation"
-                                    } else if (referencedItemId.equals(WikidataEntityMap.COMPANY_ITEM)
-                                        || referencedItemId.equals(WikidataEntityMap.UNIVERSITY_ITEM)
-                                        || referencedItemId.equals(WikidataEntityMap.ORGANISATION_ITEM)
-                                        || referencedItemId.equals(WikidataEntityMap.COLLEGIATE_UNIVERSITY_ITEM)) { // = often subclass of "university" items
-                                        if (doInstitutions && !all_institutions.containsKey(itemId)) all_institutions.put(itemId, label);
-
-                                    // 2.3 current wikidata item is direct instanceOf|subclassOf "city", "metro" or "capital"
-                                    } else if (referencedItemId.equals(WikidataEntityMap.CITY_ITEM)
-                                        || referencedItemId.equals(WikidataEntityMap.METROPOLIS_ITEM)
-                                        || referencedItemId.equals(WikidataEntityMap.CAPITAL_CITY_ITEM)) {
-                                        if (doCities && !all_cities.containsKey(itemId)) all_cities.put(itemId, label);
-
-                                    // 2.4 current wikidata item is direct instanceOf|subclassOf "country" or "sovereing state"
-                                    } else if (referencedItemId.equals(WikidataEntityMap.COUNTRY_ITEM)
-                                        || referencedItemId.equals(WikidataEntityMap.SOVEREIGN_STATE_ITEM)
-                                        || referencedItemId.equals(WikidataEntityMap.STATE_ITEM)) {
-                                        if (doCountries && !all_countries.containsKey(itemId)) all_countries.put(itemId, label);
-
-                                    // 2.5 current wikidata item is direct instanceOf|subclassOf "vegetable"
-                                    /*** } else if (referencedItemId.equals(WikidataEntityMap.VEGETABLE)) {
-                                        if (!all_vegetables.containsKey(itemId)) all_vegetables.put(itemId, label);
-
-                                    // 2.6 current wikidata item is direct instanceOf|subclassOf "herb"
-                                    } else if (referencedItemId.equals(WikidataEntityMap.HERB)) {
-                                        if (!all_herbs.containsKey(itemId)) all_herbs.put(itemId, label);
-
-                                    // 2.7 current wikidata item is direct instanceOf|subclassOf "herb"
-                                    } else if (referencedItemId.equals(WikidataEntityMap.FOOD_FRUIT)) {
-                                        if (!all_edible_fruits.containsKey(itemId)) all_edible_fruits.put(itemId, label);
-
-                                    // 2.8 current wikidata item is direct instanceOf|subclassOf "herb"
-                                    } else if (referencedItemId.equals(WikidataEntityMap.FUNGI)) {
-                                        if (!all_edible_fungis.containsKey(itemId)) all_edible_fungis.put(itemId, label); **/
-                                    }
-
-                                }
-                            }
-
-                        }
-                    }
+        String itemId = record.entityId;
+        int item = WikidataIdCodec.encodeItem(itemId);
+        if (item == WikidataIdCodec.NO_ID) return;
+        boolean keepTexts = wantedItems == null || wantedItems.contains(item);
+        String label = record.label;
+        String description = record.description;
+        if (label != null && !label.isEmpty() && keepTexts) putText(LABELS, item, label);
+        if (description != null && !description.isEmpty() && storeDescription && keepTexts) {
+            putText(DESCRIPTIONS, item, description);
+        }
 
-                } else if (isCoordinateOf && this.storeGeoCoordinates) {
-                    for (Statement s : sg.getStatements()) {
-                        // ### simply using the main snak value of this statement
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            if (mainSnakValue instanceof GlobeCoordinatesValue) {
-                                GlobeCoordinatesValue coordinateValues = (GlobeCoordinatesValue) mainSnakValue;
-                                double longitude = coordinateValues.getLatitude();
-                                double latitude = coordinateValues.getLongitude();
-                                // note: coordinateValues.getGlobe().contains("Q2) == Planet Earth
-                                log.fine("### NEW: Parsed geo-coordinates " + coordinateValues.getLatitude()
-                                        + ", " + coordinateValues.getLongitude());
-                                if (longitude != -1 && latitude != -1) {
-                                    double coordinates[] = {longitude, latitude};
-                                    if (!all_coordinates.containsKey(itemId)) {
-                                        all_coordinates.put(itemId, coordinates);
-                                    }
-                                }
-                            }
-                        }
-                    }
+        // 1) Iterate over the items statements, just the ones of the properties extracted are given
 
-                } else if (isBirthDateOf || isDeathDateOf) {
-                    for (Statement s : sg.getStatements()) {
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            if (mainSnakValue instanceof TimeValue) {
-                                TimeValue dateValue = (TimeValue) mainSnakValue; // ### respect calendermodel
-                                log.fine("### NEW: Parsed time value: " + dateValue.getDay() + "."
-                                        + dateValue.getMonth() + " " + dateValue.getYear());
-                            }
-                        }
-                    }
-                
-                } else if (isGivenNameOf || isSurnameOf) {
-                    for (Statement s : sg.getStatements()) {
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            if (mainSnakValue instanceof EntityIdValue) { // ### is item id!
-                                EntityIdValue nameId = (EntityIdValue) mainSnakValue;
-                                log.fine("### NEW: Parsed name is item with ID : " + nameId);
-                            }
-                        }
-                    }
-                
-                } else if (isWebsiteOf && this.storeWebsiteAddresses) {
-                    for (Statement s : sg.getStatements()) {
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            if (mainSnakValue instanceof StringValue) {
-                                StringValue urlValue = (StringValue) mainSnakValue;
-                                if ((urlValue.getString() != null && !urlValue.getString().isEmpty())) {
-                                    all_websites.put(itemId, urlValue.getString());
-                                }
-                            }
-                        }
-                    }
+        for (int i = 0; i < record.statementCount; i++) {
 
-                // 1.2) Record various relations of current item to other items
-
-                } else if (isEmployeeOf) {
-                    // some professional person to organisation relationship
-                    for (Statement s : sg.getStatements()) {
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            if (mainSnakValue instanceof EntityIdValue) {
-                                EntityIdValue nameId = (EntityIdValue) mainSnakValue;
-                                PropertyIdValue propertyId = s.getClaim().getMainSnak().getPropertyId();
-                                // check on all already imported wikidata items
-                                Topic entity = getWikidataItemByEntityId(nameId);
-                                if (entity != null) {
-                                    HashMap<String, String> claim = new HashMap<String, String>();
-                                    claim.put("T" + entity.getId(), s.getStatementId() + WikidataEntityMap.URI_SEPERATOR + propertyId.getId());
-                                    employeeOf.put(itemDocument.getItemId().getId(), claim);
-                                } /** else {
-                                    // check on all currently to be imported wikidata items (in memory)
-                                    String relatedLabel = getItemLabelByEntityId(nameId);
-                                    if (relatedLabel != null) worksAt.put(itemDocument.getItemId().getId(), relatedLabel);
-                                } **/
-                            }
-                        }
-                    }
+            // -- Inspect with which type of statement (resp. Property) we deal here, all property
+            // ids of a record are the (same) constants of the WikidataEntityMap
 
-                } else if (isMemberOf || isPartyMemberOf || isAffiliatedWith) {
-                    // some person to institution / person? relationship
-                    for (Statement s : sg.getStatements()) {
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            if (mainSnakValue instanceof EntityIdValue) {
-                                EntityIdValue nameId = (EntityIdValue) mainSnakValue;
-                                PropertyIdValue propertyId = s.getClaim().getMainSnak().getPropertyId();
-                                // check on all already imported wikidata items
-                                Topic entity = getWikidataItemByEntityId(nameId);
-                                if (entity != null) {
-                                    HashMap<String, String> claim = new HashMap<String, String>();
-                                    claim.put("T" + entity.getId(), s.getStatementId() + WikidataEntityMap.URI_SEPERATOR + propertyId.getId());
-                                    affiliatedWith.put(itemDocument.getItemId().getId(), claim);
-                                } /* else {
-                                    // check on all currently to be imported wikidata items (in memory)
-                                    String relatedLabel = getItemLabelByEntityId(nameId);
-                                    if (relatedLabel != null) affiliatedWith.put(itemDocument.getItemId().getId(), relatedLabel);
-                                } **/
-                            }
-                        }
-                    }
+            String property = record.propertyIds[i];
+            byte valueType = record.valueTypes[i];
+            String value = record.values[i];
 
-                } else if (isCitizenOf || isOfficiallyResidingAt) {
-                    // some person to city/country relationship
-                    for (Statement s : sg.getStatements()) {
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            if (mainSnakValue instanceof EntityIdValue) {
-                                EntityIdValue nameId = (EntityIdValue) mainSnakValue;
-                                PropertyIdValue propertyId = s.getClaim().getMainSnak().getPropertyId();
-                                // check on all already imported wikidata items
-                                Topic entity = getWikidataItemByEntityId(nameId);
-                                if (entity != null) {
-                                    HashMap<String, String> claim = new HashMap<String, String>();
-                                    if (doPersons) {
-                                        claim.put("T" + entity.getId(), s.getStatementId() + WikidataEntityMap.URI_SEPERATOR + propertyId.getId());
-                                        citizenOf.put(itemDocument.getItemId().getId(), claim);
-                                    }
-                                } /** else {
-                                    // check on all currently to be imported wikidata items (in memory)
-                                    String relatedLabel = getItemLabelByEntityId(nameId);
-                                    if (relatedLabel != null) livesAt.put(itemDocument.getItemId().getId(), relatedLabel);
-                                } */
-                            }
-                        }
-                    }
+            // 1.1) Record various "attributes" of the current item
 
-                } else if (isDoctoralStudentOf || isStudentOf) {
-                    // some personal relationship
-                    for (Statement s : sg.getStatements()) {
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            if (mainSnakValue instanceof EntityIdValue) {
-                                EntityIdValue nameId = (EntityIdValue) mainSnakValue;
-                                PropertyIdValue propertyId = s.getClaim().getMainSnak().getPropertyId();
-                                // check on all already imported wikidata items
-                                Topic entity = getWikidataItemByEntityId(nameId);
-                                if (entity != null) {
-                                    HashMap<String, String> claim = new HashMap<String, String>();
-                                    claim.put("T" + entity.getId(), s.getStatementId() + WikidataEntityMap.URI_SEPERATOR + propertyId.getId());
-                                    studentOf.put(itemDocument.getItemId().getId(), claim);
-                                } /** else {
-                                    // check on all currently to be imported wikidata items (in memory)
-                                    String relatedLabel = getItemLabelByEntityId(nameId);
-                                    if (relatedLabel != null) studentOf.put(itemDocument.getItemId().getId(), relatedLabel);
-                                } */
-                            }
-                        }
-                    }
+            // -- is instance | subclass of
 
-                } else if (isDoctoralAdvisorOf) {
-                    // some personal relationship
-                    for (Statement s : sg.getStatements()) {
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            if (mainSnakValue instanceof EntityIdValue) {
-                                EntityIdValue nameId = (EntityIdValue) mainSnakValue;
-                                PropertyIdValue propertyId = s.getClaim().getMainSnak().getPropertyId();
-                                // check on all already imported wikidata items
-                                Topic entity = getWikidataItemByEntityId(nameId);
-                                if (entity != null) {
-                                    HashMap<String, String> claim = new HashMap<String, String>();
-                                    claim.put("T" + entity.getId(), s.getStatementId() + WikidataEntityMap.URI_SEPERATOR + propertyId.getId());
-                                    mentorOf.put(itemDocument.getItemId().getId(), claim);
-                                }/**  else {
-                                    // check on all currently to be imported wikidata items (in memory)
-                                    String relatedLabel = getItemLabelByEntityId(nameId);
-                                    if (relatedLabel != null) mentorOf.put(itemDocument.getItemId().getId(), relatedLabel);
-                                } **/
-                            }
-                        }
+            if (property == WikidataEntityMap.IS_INSTANCE_OF || property == WikidataEntityMap.IS_SUBCLASS_OF) {
+                // ### simply using the main snak value of this statement
+                if (valueType != WikidataEntityRecord.ITEM_VALUE) continue;
+                String referencedItemId = value;
+
+                // 2.1 current wikidata item is direct instanceOf|subclassOf "human" or "person"
+                if (referencedItemId.equals(WikidataEntityMap.HUMAN_ITEM)
+                    || referencedItemId.equals(WikidataEntityMap.PERSON_ITEM)) {
+                    if (doPersons) addItem(PERSONS, item);
+
+                // 2.2 current wikidata item is direct instanceOf|subclassOf "university", "company" or "organisation"
+                } else if (referencedItemId.equals(WikidataEntityMap.COMPANY_ITEM)
+                    || referencedItemId.equals(WikidataEntityMap.UNIVERSITY_ITEM)
+                    || referencedItemId.equals(WikidataEntityMap.ORGANISATION_ITEM)
+                    || referencedItemId.equals(WikidataEntityMap.COLLEGIATE_UNIVERSITY_ITEM)) { // = often subclass of "university" items
+                    if (doInstitutions) addItem(INSTITUTIONS, item);
+
+                // 2.3 current wikidata item is direct instanceOf|subclassOf "city", "metro" or "capital"
+                } else if (referencedItemId.equals(WikidataEntityMap.CITY_ITEM)
+                    || referencedItemId.equals(WikidataEntityMap.METROPOLIS_ITEM)
+                    || referencedItemId.equals(WikidataEntityMap.CAPITAL_CITY_ITEM)) {
+                    if (doCities) addItem(CITIES, item);
+
+                // 2.4 current wikidata item is direct instanceOf|subclassOf "country" or "sovereing state"
+                } else if (referencedItemId.equals(WikidataEntityMap.COUNTRY_ITEM)
+                    || referencedItemId.equals(WikidataEntityMap.SOVEREIGN_STATE_ITEM)
+                    || referencedItemId.equals(WikidataEntityMap.STATE_ITEM)) {
+                    if (doCountries) addItem(COUNTRIES, item);
+                }
+
+            } else if (property == WikidataEntityMap.GEO_COORDINATES && this.storeGeoCoordinates) {
+                if (valueType != WikidataEntityRecord.GLOBE_VALUE) continue;
+                double longitude = record.latitudes[i];
+                double latitude = record.longitudes[i];
+                log.fine("### NEW: Parsed geo-coordinates " + record.latitudes[i] + ", " + record.longitudes[i]);
+                if (longitude != -1 && latitude != -1) {
+                    double coordinates[] = {longitude, latitude};
+                    if (!all_coordinates.containsKey(itemId)) {
+                        all_coordinates.put(itemId, coordinates);
+                        if (journal != null) journal.coordinates(itemId, coordinates);
                     }
                 }
 
+            } else if (property == WikidataEntityMap.WAS_BORN_ON || property == WikidataEntityMap.IS_DEAD_SINCE) {
+                if (valueType == WikidataEntityRecord.TIME_VALUE) { // ### respect calendermodel
+                    log.fine("### NEW: Parsed time value: " + value);
+                }
+
+            } else if (property == WikidataEntityMap.IS_GIVEN_NAME_OF || property == WikidataEntityMap.IS_SURNAME_OF) {
+                if (valueType == WikidataEntityRecord.ITEM_VALUE) { // ### is item id!
+                    log.fine("### NEW: Parsed name is item with ID : " + value);
+                }
+
+            } else if (property == WikidataEntityMap.IS_OFFICIAL_WEBSITE_OF && this.storeWebsiteAddresses) {
+                if (valueType == WikidataEntityRecord.STRING_VALUE && !value.isEmpty() && keepTexts) {
+                    putText(WEBSITES, item, value);
+                }
+
+            // 1.2) Record various relations of current item to other items
+
+            } else if (property == WikidataEntityMap.IS_EMPLOYEE_OF) {
+                // some professional person to organisation relationship
+                recordRelation(EMPLOYEE_OF, item, record, i);
+
+            } else if (property == WikidataEntityMap.IS_MEMBER_OF || property == WikidataEntityMap.IS_PARTY_MEMBER_OF
+                    || property == WikidataEntityMap.IS_AFFILIATED_WITH) {
+                // some person to institution / person? relationship
+                recordRelation(AFFILIATED_WITH, item, record, i);
+
+            } else if (property == WikidataEntityMap.IS_CITIZEN_OF
+                    || property == WikidataEntityMap.IS_OFFICIALLY_RESIDING_AT) {
+                // some person to city/country relationship
+                if (doPersons) recordRelation(CITIZEN_OF, item, record, i);
+
+            } else if (property == WikidataEntityMap.IS_DOCTORAL_STUDENT_OF
+                    || property == WikidataEntityMap.IS_STUDENT_OF_PERSON) {
+                // some personal relationship
+                recordRelation(STUDENT_OF, item, record, i);
+
+            } else if (property == WikidataEntityMap.IS_DOCTORAL_ADVISOR_OF) {
+                // some personal relationship
+                recordRelation(MENTOR_OF, item, record, i);
             }
         }
 
@@ -429,9 +310,79 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
             printProcessingStatus();
         }
     }
-    
-    private Topic getWikidataItemByEntityId (EntityIdValue id) {
-        return dm4.getTopicByUri(WikidataEntityMap.WD_ENTITY_BASE_URI + id.getId());
+
+    /**
+     * @return  A processor for the first pass of a two-pass import, which just finds the items of the
+     *          classes imported and the targets of all relations. Once the first pass is stopped, this
+     *          processor keeps labels, descriptions and websites for these items only. The first pass
+     *          throws a {@link TimeoutException} once it took longer than the time limit, too.
+     */
+    WikidataImportProcessor getWantedItemsPass() {
+        return new WantedItemsPass();
+    }
+
+    /** Marks the item of the given record if it is of a class imported, and the targets of its relations. */
+    private void markWantedItems(WikidataEntityRecord record, WikidataItemSet wanted) {
+        int item = WikidataIdCodec.encodeItem(record.entityId);
+        if (item == WikidataIdCodec.NO_ID) return;
+        for (int i = 0; i < record.statementCount; i++) {
+            if (record.valueTypes[i] != WikidataEntityRecord.ITEM_VALUE) continue;
+            String property = record.propertyIds[i];
+            if (property == WikidataEntityMap.IS_INSTANCE_OF || property == WikidataEntityMap.IS_SUBCLASS_OF) {
+                if (isImportedClass(record.values[i])) wanted.add(item);
+            } else if (property == WikidataEntityMap.IS_EMPLOYEE_OF || property == WikidataEntityMap.IS_MEMBER_OF
+                    || property == WikidataEntityMap.IS_PARTY_MEMBER_OF || property == WikidataEntityMap.IS_AFFILIATED_WITH
+                    || property == WikidataEntityMap.IS_DOCTORAL_STUDENT_OF
+                    || property == WikidataEntityMap.IS_STUDENT_OF_PERSON
+                    || property == WikidataEntityMap.IS_DOCTORAL_ADVISOR_OF
+                    || (doPersons && (property == WikidataEntityMap.IS_CITIZEN_OF
+                        || property == WikidataEntityMap.IS_OFFICIALLY_RESIDING_AT))) {
+                int target = WikidataIdCodec.encodeItem(record.values[i]);
+                if (target != WikidataIdCodec.NO_ID) wanted.add(target);
+            }
+        }
+    }
+
+    /** @return true if items being instance or subclass of the given item are imported. */
+    private boolean isImportedClass(String classItemId) {
+        if (classItemId.equals(WikidataEntityMap.HUMAN_ITEM) || classItemId.equals(WikidataEntityMap.PERSON_ITEM)) {
+            return doPersons;
+        } else if (classItemId.equals(WikidataEntityMap.COMPANY_ITEM)
+            || classItemId.equals(WikidataEntityMap.UNIVERSITY_ITEM)
+            || classItemId.equals(WikidataEntityMap.ORGANISATION_ITEM)
+            || classItemId.equals(WikidataEntityMap.COLLEGIATE_UNIVERSITY_ITEM)) {
+            return doInstitutions;
+        } else if (classItemId.equals(WikidataEntityMap.CITY_ITEM)
+            || classItemId.equals(WikidataEntityMap.METROPOLIS_ITEM)
+            || classItemId.equals(WikidataEntityMap.CAPITAL_CITY_ITEM)) {
+            return doCities;
+        } else if (classItemId.equals(WikidataEntityMap.COUNTRY_ITEM)
+            || classItemId.equals(WikidataEntityMap.SOVEREIGN_STATE_ITEM)
+            || classItemId.equals(WikidataEntityMap.STATE_ITEM)) {
+            return doCountries;
+        }
+        return false;
+    }
+
+    private void addItem(byte itemClass, int item) {
+        if (itemClasses[itemClass].add(item) && journal != null) journal.item(itemClass, item);
+    }
+
+    private void putText(byte textMap, int item, String text) {
+        textMaps[textMap].put(item, text);
+        if (journal != null) journal.text(textMap, item, text);
+    }
+
+    /** Records the relation stated by the given statement if its item is already imported. */
+    private void recordRelation(byte relation, int item, WikidataEntityRecord record, int index) {
+        if (record.valueTypes[index] != WikidataEntityRecord.ITEM_VALUE) return;
+        // check on all already imported wikidata items
+        Topic entity = getWikidataItemByEntityId(record.values[index]);
+        if (entity != null) {
+            int property = WikidataIdCodec.encodeProperty(record.propertyIds[index]);
+            relations[relation].add(item, entity.getId(), property, record.statementIds[index]);
+            if (journal != null) journal.edge(relation, item, entity.getId(), property, record.statementIds[index]);
+        }
     }
 
     private Topic getWikidataItemByEntityId (String id) {
@@ -454,46 +405,6 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
         return null;
     } **/
 
-    private String getItemLabel(ItemDocument itemDocument) {
-        MonolingualTextValue value = null;
-        if (itemDocument.getLabels().size() > 1) {
-            if (itemDocument.getLabels().containsKey(this.isoLanguageCode)) {
-                value = itemDocument.getLabels().get(this.isoLanguageCode);
-            } else { // if no label (in configured language) is available, we take first available
-                for (String key : itemDocument.getLabels().keySet()) {
-                    value = itemDocument.getLabels().get(key);
-                    break;
-                }
-            }
-        }
-        if (value == null) {
-            log.fine("Could not find ANY label for item (" 
-                + itemDocument.getEntityId().getId() + ", label=NULL)!");
-            return null;
-        }
-        return value.getText();
-    }
-    
-    private String getItemDescription(ItemDocument itemDocument) {
-        MonolingualTextValue value = null;
-        if (itemDocument.getLabels().size() > 1) {
-            if (itemDocument.getDescriptions().containsKey(this.isoLanguageCode)) {
-                value = itemDocument.getDescriptions().get(this.isoLanguageCode);
-            } else { // if no descr (in configured language) is available, we take first available
-                for (String key : itemDocument.getDescriptions().keySet()) {
-                    value = itemDocument.getDescriptions().get(key);
-                    break;
-                }
-            }
-        }
-        if (value == null) {
-            log.fine("Could not find ANY description for item (" 
-               + itemDocument.getEntityId().getId() + ", label=NULL)! --- Skippin Description");
-            return null;
-        }
-        return value.getText();
-    }
-    
     private Topic createPersonTopic(String firstName, String lastName, String itemId) {
         Topic person = null;
         if (!alreadyExists(itemId)) {
@@ -505,14 +416,14 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
                 // add "official website" to person if available
                 addWebbrowserURLAsChildTopic(personComposite, itemId);
                 // add item description to person
-                String description = itemsFirstDescription.get(itemId);
+                String description = itemsFirstDescription.get(WikidataIdCodec.encodeItem(itemId));
                 description = (description != null) ? "<p>"+description+"</p>" : "";
                 addWikidataItemDescription(itemId, description, personComposite);
                 // build up model
                 TopicModel personModel = mf.newTopicModel(
                     WikidataEntityMap.WD_ENTITY_BASE_URI + itemId, DM_PERSON, personComposite);
                 person = dm4.createTopic(personModel);
-                workspaceService.assignToWorkspace(person, wikidataWorkspace.getId());
+                workspaceAssigner.assign(person);
                 tx.success();
             } catch (Exception e) {
                 log.log(Level.SEVERE, e.getMessage(), e);
@@ -521,6 +432,7 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
                 tx.finish();
             }
         }
+        assignCollectedObjects();
         return person;
     }
     
@@ -534,7 +446,7 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
                 // add "official website" to institution if available
                 addWebbrowserURLAsChildTopic(institutionComposite, itemId);
                 // add item description to institution
-                String description = itemsFirstDescription.get(itemId);
+                String description = itemsFirstDescription.get(WikidataIdCodec.encodeItem(itemId));
                 description = (description != null) ? "<p>"+description+"</p>" : "";
                 addWikidataItemDescription(itemId, description, institutionComposite);
                 // build up model
@@ -542,7 +454,7 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
                     WikidataEntityMap.WD_ENTITY_BASE_URI + itemId, DM_INSTITUTION, institutionComposite);
                 // ### set GeoCoordinate Facet via values in all_coordinates
                 institution = dm4.createTopic(institutionModel);
-                workspaceService.assignToWorkspace(institution, wikidataWorkspace.getId());
+                workspaceAssigner.assign(institution);
                 tx.success();
             } catch (Exception e) {
                 log.log(Level.SEVERE, e.getMessage(), e);
@@ -551,13 +463,14 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
                 tx.finish();
             }
         }
+        assignCollectedObjects();
         return institution;
     }
     
     private void addWebbrowserURLAsChildTopic(ChildTopicsModel composite, String itemId) {
-        if (all_websites.containsKey(itemId)) {
-            composite.add(DM_WEBBROWSER_URL,
-                mf.newTopicModel(DM_WEBBROWSER_URL, new SimpleValue(all_websites.get(itemId))));
+        String website = all_websites.get(WikidataIdCodec.encodeItem(itemId));
+        if (website != null) {
+            composite.add(DM_WEBBROWSER_URL, mf.newTopicModel(DM_WEBBROWSER_URL, new SimpleValue(website)));
         }
     }
 
@@ -570,7 +483,7 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
                 WikidataEntityMap.WD_ENTITY_BASE_URI + itemId, DM_CITY, new SimpleValue(name));
                 // ### set GeoCoordinate Facet via values in all_coordinates
                 city = dm4.createTopic(cityModel);
-                workspaceService.assignToWorkspace(city, wikidataWorkspace.getId());
+                workspaceAssigner.assign(city);
                 tx.success();
             } catch (Exception re) {
                 tx.failure();
@@ -579,6 +492,7 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
                 tx.finish();
             }
         }
+        assignCollectedObjects();
         return city;
     }
     
@@ -591,7 +505,7 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
                 WikidataEntityMap.WD_ENTITY_BASE_URI + itemId, DM_COUNTRY, new SimpleValue(name));
                 // ### set GeoCoordinate Facet via values in all_coordinates
                 country = dm4.createTopic(countryModel);
-                workspaceService.assignToWorkspace(country, wikidataWorkspace.getId());
+                workspaceAssigner.assign(country);
                 tx.success();
             } catch (Exception re) {
                 tx.failure();
@@ -600,6 +514,7 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
                 tx.finish();
             }
         }
+        assignCollectedObjects();
         return country;
     }
     
@@ -621,7 +536,7 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
                 dm4.createAssociation(mf.newAssociationModel("dm4.core.association",
                     mf.newTopicRoleModel(topic.getId(), "dm4.core.parent"),
                     mf.newTopicRoleModel(website.getId(), "dm4.core.child")));
-                workspaceService.assignToWorkspace(website, wikidataWorkspace.getId());
+                workspaceAssigner.assign(website);
             }
             tx.success();
         } catch (Exception e) {
@@ -630,58 +545,76 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
         } finally {
             tx.finish();
         }
+        assignCollectedObjects();
+    }
+
+    /** In bulk mode, assigns the objects created so far to the workspace once enough are collected. */
+    private void assignCollectedObjects() {
+        if (workspaceAssigner.isFull()) workspaceAssigner.flushInTransaction();
     }
 
-    private void createItemRelations (HashMap<String, HashMap<String, String>> relations, String relationName, String relationType) {
+    private void createItemRelations (WikidataEdgeBuffer relations, String relationName, String relationType) {
         log.info(" ... " + relations.size() + " " +relationName+ " associations");
-        // Key: Wikidata Entity/Item ID, Value: Set<TopicId, StatementUID>
-        for (String itemId : relations.keySet()) {
-            HashMap<String, String> referenceMap = relations.get(itemId);
+        // all edges of an item are created one after the other, so its topic is fetched just once
+        WikidataEdgeBuffer.Cursor edges = relations.cursor();
+        try {
+            createItemRelations(edges, relationType);
+        } finally {
+            edges.close();
+        }
+    }
+
+    private void createItemRelations (WikidataEdgeBuffer.Cursor edges, String relationType) {
+        int fromItem = WikidataIdCodec.NO_ID;
+        Topic fromPlayer = null;
+        while (edges.next()) {
+            if (edges.getSource() != fromItem) {
+                fromItem = edges.getSource();
+                fromPlayer = getWikidataItemByEntityId(WikidataIdCodec.decodeItem(fromItem));
+            }
+            if (fromPlayer == null) continue;
+            String itemId = WikidataIdCodec.decodeItem(fromItem);
+            Topic toPlayer = dm4.getTopic(edges.getTarget());
+            String statementGUID = edges.getGuid();
+            String propertyEntityId = WikidataIdCodec.decodeProperty(edges.getProperty());
             Association relation = null;
-            Topic toPlayer = null, fromPlayer = null;
-            // Key: Topic ID, Value: Statemend-UID
-            for (String relatedEntityId : referenceMap.keySet()) {
-                String statementValueCode = referenceMap.get(relatedEntityId);
-                String statementGUID = statementValueCode.split(WikidataEntityMap.URI_SEPERATOR)[0];
-                String propertyEntityId = statementValueCode.split(WikidataEntityMap.URI_SEPERATOR)[1];
-                if (relatedEntityId.startsWith("T")) {
-                    toPlayer = dm4.getTopic(Long.parseLong(relatedEntityId.substring(1)));
-                    fromPlayer = dm4.getTopicByUri(WikidataEntityMap.WD_ENTITY_BASE_URI + itemId);
+            if (toPlayer != null && !associationAlreadyExists(fromPlayer.getId(), toPlayer.getId(), relationType)) {
+                Topic propertyEntity = getWikidataItemByEntityId(propertyEntityId);
+                ChildTopicsModel assocModel = null;
+                if (propertyEntity == null) { // do create new property entity topic
+                    assocModel = mf.newChildTopicsModel()
+                        .add("org.deepamehta.wikidata.property", mf.newTopicModel(
+                                WikidataEntityMap.WD_ENTITY_BASE_URI + propertyEntityId,
+                                "org.deepamehta.wikidata.property"));
+                } else {
+                    assocModel = mf.newChildTopicsModel()
+                        .addRef("org.deepamehta.wikidata.property", propertyEntity.getId());
                 }
-                if (fromPlayer != null && toPlayer != null &&
-                    !associationAlreadyExists(fromPlayer.getId(), toPlayer.getId(), relationType)) {
-                    Topic propertyEntity = getWikidataItemByEntityId(propertyEntityId);
-                    ChildTopicsModel assocModel = null;
-                    if (propertyEntity == null) { // do create new property entity topic
-                        assocModel = mf.newChildTopicsModel()
-                            .add("org.deepamehta.wikidata.property", mf.newTopicModel(
-                                    WikidataEntityMap.WD_ENTITY_BASE_URI + propertyEntityId,
-                                    "org.deepamehta.wikidata.property"));
-                    } else {
-                        assocModel = mf.newChildTopicsModel()
-                            .addRef("org.deepamehta.wikidata.property", propertyEntity.getId());
-                    }
-                    DeepaMehtaTransaction tx = dm4.beginTx();
-                    try {
-                        relation = dm4.createAssociation(mf.newAssociationModel(relationType,
-                                mf.newTopicRoleModel(fromPlayer.getId(), "dm4.core.parent"),
-                                mf.newTopicRoleModel(toPlayer.getId(), "dm4.core.child"), assocModel));
-                        relation.setUri(statementGUID);
-                        if (relation != null) {
-                            log.info("Created new \""+relationType+"\" relationship for " + itemId +
-                                    " to " + toPlayer.getId() + " (" + toPlayer.getSimpleValue() + ") with GUID: \""
-                                    + relation.getUri() + "\" and propertyEntityID: \"" + propertyEntityId +"\"");
-                            workspaceService.assignToWorkspace(relation, wikidataWorkspace.getId());
-                        }
-                        // ### relation.setSimpleValue(relationName);
-                        tx.success();
-                    } catch (Exception e) {
-                        log.log(Level.SEVERE, e.getMessage(), e);
-                        tx.failure();
-                    } finally {
-                        tx.finish();
+                DeepaMehtaTransaction tx = dm4.beginTx();
+                boolean created = false;
+                try {
+                    relation = dm4.createAssociation(mf.newAssociationModel(relationType,
+                            mf.newTopicRoleModel(fromPlayer.getId(), "dm4.core.parent"),
+                            mf.newTopicRoleModel(toPlayer.getId(), "dm4.core.child"), assocModel));
+                    relation.setUri(statementGUID);
+                    if (relation != null) {
+                        log.info("Created new \""+relationType+"\" relationship for " + itemId +
+                                " to " + toPlayer.getId() + " (" + toPlayer.getSimpleValue() + ") with GUID: \""
+                                + relation.getUri() + "\" and propertyEntityID: \"" + propertyEntityId +"\"");
+                        workspaceAssigner.assign(relation);
                     }
+                    // ### relation.setSimpleValue(relationName);
+                    tx.success();
+                    created = true;
+                } catch (Exception e) {
+                    log.log(Level.SEVERE, e.getMessage(), e);
+                    tx.failure();
+                } finally {
+                    tx.finish();
                 }
+                // the filter learns about the edge once it is committed
+                if (created && claimEdges != null) claimEdges.add(fromPlayer.getId(), toPlayer.getId(), relationType);
+                assignCollectedObjects();
             }
         }
     }
@@ -693,9 +626,14 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
         return true;
     }
 
-    private boolean associationAlreadyExists (long playerOne, long playerTwo, String assocTypeUri) {
-        Association assoc = dm4.getAssociation(assocTypeUri, playerOne, playerTwo, "dm4.core.default", "dm4.core.default");
+    private boolean associationAlreadyExists (long parentId, long childId, String assocTypeUri) {
+        if (claimEdges != null) {
+            Boolean exists = claimEdges.exists(parentId, childId, assocTypeUri);
+            if (exists != null) return exists;
+        }
+        Association assoc = dm4.getAssociation(assocTypeUri, parentId, childId, "dm4.core.parent", "dm4.core.child");
         if (assoc == null) return false;
+        if (claimEdges != null) claimEdges.add(parentId, childId, assocTypeUri);
         return true;
     }
 
@@ -710,10 +648,13 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
      */
     private void printProcessingStatus() {
         log.info("Processed " + this.entityCount + " items from the wikidata json-dump.");
-        log.info("Identified " + this.all_persons.size() + " human beings"
-            + ", " + this.all_institutions.size() + " institutions, "
-            + this.all_cities.size() + " cities and " 
-            + this.all_countries.size() + " countries.");
+        log.info("Identified " + this.all_persons.cardinality() + " human beings"
+            + ", " + this.all_institutions.cardinality() + " institutions, "
+            + this.all_cities.cardinality() + " cities and " 
+            + this.all_countries.cardinality() + " countries.");
+        log.info("Holding " + this.itemsFirstLabel.size() + " labels and " + this.itemsFirstDescription.size()
+            + " descriptions (" + (this.texts.getBytes() >> 20) + " MB of text, "
+            + (this.texts.getSpilledBytes() >> 20) + " MB of these spilled to disk).");
     }
 
     /**
@@ -721,13 +662,12 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
      * as to print an intermediate report roughly every ten seconds.
      */
     private void countEntity() {
-       if (!this.timer.isRunning()) {
+       if (this.timerStartedAt == 0) {
            startTimer();
        }
        this.entityCount++;
        if (this.entityCount % 100 == 0) {
-           timer.stop();
-           int seconds = (int) (timer.getTotalWallTime() / 1000000000);
+           int seconds = getSeconds();
            if (seconds >= this.lastSeconds + 10) {
                this.lastSeconds = seconds;
                printProcessingStatus();
@@ -736,13 +676,146 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
                    throw new TimeoutException();
                }
            }
-           timer.start();
        }
     }
 
+    /** @return The seconds passed since this processor got its first entity. */
+    private int getSeconds() {
+        return (timerStartedAt == 0) ? 0 : (int) ((System.nanoTime() - timerStartedAt) / 1000000000L);
+    }
+
+    /**
+     * Topics and associations are just created in {@link #stop}, all entities processed are kept in
+     * memory until then and saved to the given file, see {@link WikidataEntityJournal}.
+     */
+    @Override
+    public boolean commit(File stateFile) {
+        if (journal == null) {
+            journal = new WikidataEntityJournal();
+            journalCollected(journal);
+        }
+        try {
+            int bytes = journal.size();
+            journal.appendFrame(stateFile);
+            log.info("Saved " + (bytes >> 10) + " KB of items and relations collected to " + stateFile.getPath());
+            return true;
+        } catch (IOException e) {
+            log.warning("Could not save the items and relations collected to " + stateFile.getPath() + ": "
+                + e.getMessage());
+            return false;
+        }
+    }
+
+    /** Collects the items and relations saved at the checkpoint to continue at. */
+    @Override
+    public boolean resume(File stateFile) {
+        WikidataEntityJournal resumed = new WikidataEntityJournal();
+        try {
+            int frames = resumed.replay(stateFile, new WikidataEntityJournal.Replay() {
+                @Override
+                public void item(byte itemClass, int item) {
+                    itemClasses[itemClass].add(item);
+                }
+                @Override
+                public void text(byte textMap, int item, String text) {
+                    textMaps[textMap].put(item, text);
+                }
+                @Override
+                public void coordinates(String itemId, double[] coordinates) {
+                    if (!all_coordinates.containsKey(itemId)) all_coordinates.put(itemId, coordinates);
+                }
+                @Override
+                public void edge(byte relation, int sourceItem, long targetTopicId, int property, String guid) {
+                    relations[relation].add(sourceItem, targetTopicId, property, guid);
+                }
+                @Override
+                public void wantedItem(int item) {
+                    if (wantedItems == null) wantedItems = new WikidataItemSet();
+                    wantedItems.add(item);
+                }
+            });
+            journal = resumed;
+            log.info("Continuing with the items and relations of " + frames + " checkpoints saved at "
+                + stateFile.getPath());
+            return true;
+        } catch (IOException e) {
+            log.warning("Could not read the items and relations saved at " + stateFile.getPath() + ": "
+                + e.getMessage());
+            return false;
+        }
+    }
+
+    /** Writes all items and relations collected so far to the given journal. */
+    private void journalCollected(WikidataEntityJournal journal) {
+        if (wantedItems != null) {
+            for (int item : wantedItems.toArray()) journal.wantedItem(item);
+        }
+        for (byte itemClass = 0; itemClass < itemClasses.length; itemClass++) {
+            for (int item : itemClasses[itemClass].toArray()) journal.item(itemClass, item);
+        }
+        for (byte textMap = 0; textMap < textMaps.length; textMap++) {
+            for (int item : textMaps[textMap].keys()) {
+                String text = textMaps[textMap].get(item);
+                if (text != null) journal.text(textMap, item, text);
+            }
+        }
+        for (Map.Entry<String, double[]> coordinates : all_coordinates.entrySet()) {
+            journal.coordinates(coordinates.getKey(), coordinates.getValue());
+        }
+        for (byte relation = 0; relation < relations.length; relation++) {
+            WikidataEdgeBuffer.Cursor cursor = relations[relation].cursor();
+            try {
+                while (cursor.next()) {
+                    journal.edge(relation, cursor.getSource(), cursor.getTarget(), cursor.getProperty(),
+                        cursor.getGuid());
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    @Override
+    public int getEntityCount() {
+        return this.entityCount;
+    }
+
+    @Override
+    public WikidataEntityExtractor getEntityExtractor() {
+        return entityExtractor;
+    }
+
+    /**
+     * Labels, descriptions, websites and coordinates are just used for items of one of the classes
+     * imported, so only these items and the ones stating relations are of interest.
+     */
+    @Override
+    public WikidataLineFilter getLineFilter() {
+        return lineFilter(doPersons, doInstitutions, doCities, doCountries);
+    }
+
+    static WikidataLineFilter lineFilter(boolean doPersons, boolean doInstitutions, boolean doCities,
+            boolean doCountries) {
+        WikidataLineFilter filter = new WikidataLineFilter();
+        if (doPersons) filter.addClasses(WikidataEntityMap.HUMAN_ITEM, WikidataEntityMap.PERSON_ITEM);
+        if (doInstitutions) filter.addClasses(WikidataEntityMap.COMPANY_ITEM, WikidataEntityMap.UNIVERSITY_ITEM,
+            WikidataEntityMap.ORGANISATION_ITEM, WikidataEntityMap.COLLEGIATE_UNIVERSITY_ITEM);
+        if (doCities) filter.addClasses(WikidataEntityMap.CITY_ITEM, WikidataEntityMap.METROPOLIS_ITEM,
+            WikidataEntityMap.CAPITAL_CITY_ITEM);
+        if (doCountries) filter.addClasses(WikidataEntityMap.COUNTRY_ITEM, WikidataEntityMap.SOVEREIGN_STATE_ITEM,
+            WikidataEntityMap.STATE_ITEM);
+        filter.addProperties(WikidataEntityMap.IS_EMPLOYEE_OF, WikidataEntityMap.IS_MEMBER_OF,
+            WikidataEntityMap.IS_PARTY_MEMBER_OF, WikidataEntityMap.IS_AFFILIATED_WITH,
+            WikidataEntityMap.IS_CITIZEN_OF, WikidataEntityMap.IS_OFFICIALLY_RESIDING_AT,
+            WikidataEntityMap.IS_STUDENT_OF_PERSON, WikidataEntityMap.IS_DOCTORAL_STUDENT_OF,
+            WikidataEntityMap.IS_DOCTORAL_ADVISOR_OF);
+        return filter;
+    }
+
     /**
      * Stops the processing and prints the final time.
      */
+    @Override
     public void stop() {
         
         printProcessingStatus();
@@ -751,41 +824,51 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
         
         // Matching the entities to the types of dm4-standard distro ..
 
-        log.info(" ... " + all_cities.size() + " cities");
-        for (String itemId : all_cities.keySet()) {
-            String cityName = itemsFirstLabel.get(itemId);
+        // items of several classes are just created as the first of these (cities, countries,
+        // institutions, persons), so these are taken out of the classes following in bulk
+        WikidataItemSet onlyCountries = all_countries.andNot(all_cities);
+        WikidataItemSet onlyInstitutions = all_institutions.andNot(all_cities.or(all_countries));
+        WikidataItemSet onlyPersons = all_persons.andNot(all_cities.or(all_countries).or(all_institutions));
+
+        log.info(" ... " + all_cities.cardinality() + " cities");
+        for (int item : all_cities.toArray()) {
+            String itemId = WikidataIdCodec.decodeItem(item);
+            String cityName = itemsFirstLabel.get(item);
             Topic city = null;
             if (cityName != null) {
                 city = createCityTopic(cityName, itemId);
-                if (all_websites.containsKey(itemId)) {
-                    createRelatedURLTopic(city, all_websites.get(itemId));
+                if (all_websites.containsKey(item)) {
+                    createRelatedURLTopic(city, all_websites.get(item));
                 }
             }
         }
 
-        log.info(" ... " + all_countries.size() + " countries");
-        for (String itemId : all_countries.keySet()) {
-            String countryName = itemsFirstLabel.get(itemId);
+        log.info(" ... " + onlyCountries.cardinality() + " countries");
+        for (int item : onlyCountries.toArray()) {
+            String itemId = WikidataIdCodec.decodeItem(item);
+            String countryName = itemsFirstLabel.get(item);
             Topic country;
             if (countryName != null) {
                 country = createCountryTopic(countryName, itemId);
-                if (all_websites.containsKey(itemId)) {
-                    createRelatedURLTopic(country, all_websites.get(itemId));
+                if (all_websites.containsKey(item)) {
+                    createRelatedURLTopic(country, all_websites.get(item));
                 }
             }
         }
         
-        log.info(" ... " + all_institutions.size() + " institutions");
-        for (String itemId : all_institutions.keySet()) {
-            String instName = itemsFirstLabel.get(itemId);
+        log.info(" ... " + onlyInstitutions.cardinality() + " institutions");
+        for (int item : onlyInstitutions.toArray()) {
+            String itemId = WikidataIdCodec.decodeItem(item);
+            String instName = itemsFirstLabel.get(item);
             if (instName != null) {
                 createInstitutionTopic(instName, itemId);
             }
         }
         
-        log.info(" ... " + all_persons.size() + " persons");
-        for (String itemId : all_persons.keySet()) { // this might work but only after having read in the complete dump
-            String fullName = itemsFirstLabel.get(itemId); // ### use all_institutions
+        log.info(" ... " + onlyPersons.cardinality() + " persons");
+        for (int item : onlyPersons.toArray()) { // this might work but only after having read in the complete dump
+            String itemId = WikidataIdCodec.decodeItem(item);
+            String fullName = itemsFirstLabel.get(item); // ### use all_institutions
             if (fullName != null) {
                 String firstName = fullName.split(" ")[0]; // ### import full name
                 String lastName = fullName.split(" ")[fullName.split(" ").length-1];
@@ -807,28 +890,109 @@ public class WikidataEntityProcessor implements EntityDocumentProcessor {
             createItemRelations(affiliatedWith, "affiliated with", "org.deepamehta.wikidata.affiliated_with");
             createItemRelations(studentOf, "student of", "org.deepamehta.wikidata.student_of");
             createItemRelations(mentorOf, "mentor of", "org.deepamehta.wikidata.mentor_of");
+            if (claimEdges != null) log.info(claimEdges.toString());
         }
+        workspaceAssigner.flushInTransaction();
+        log.info(workspaceAssigner.toString());
 
         List<Topic> personas = dm4.getTopicsByType("dm4.contacts.person");
         List<Topic> institutions = dm4.getTopicsByType("dm4.contacts.institution");
         List<Topic> cities = dm4.getTopicsByType("dm4.contacts.city");
         List<Topic> countries = dm4.getTopicsByType("dm4.contacts.country");
-        int numberOfAssocs = employeeOf.size() + citizenOf.size() + affiliatedWith.size() + studentOf.size() + mentorOf.size();
+        long numberOfAssocs = employeeOf.size() + citizenOf.size() + affiliatedWith.size() + studentOf.size() + mentorOf.size();
         if (personas != null && institutions != null && cities != null && countries != null) {
-            log.info("DeepaMehta now recognizes " + this.all_persons.size() + " human beings"
-                + ", " + this.all_institutions.size() + " institutions, "
-                + this.all_cities.size() + " cities, " 
-                + this.all_countries.size() + " countries by name.\n"
+            log.info("DeepaMehta now recognizes " + this.all_persons.cardinality() + " human beings"
+                + ", " + this.all_institutions.cardinality() + " institutions, "
+                + this.all_cities.cardinality() + " cities, " 
+                + this.all_countries.cardinality() + " countries by name, "
+                + this.all_persons.and(citizenOf.getSources()).cardinality() + " of the human beings are "
+                + "citizens of (or residing at) imported items.\n"
                 + "Additionally DeepaMehta recorded " + numberOfAssocs + " associations among these items.");
         }
+        employeeOf.close();
+        citizenOf.close();
+        affiliatedWith.close();
+        studentOf.close();
+        mentorOf.close();
+        texts.close();
         log.info("Finished importing.");
-        this.timer.stop();
-        this.lastSeconds = (int) (timer.getTotalWallTime() / 1000000000);
+        this.lastSeconds = getSeconds();
     }
 
     private void startTimer() {
         log.info("Starting processing ("+timeout+" sec) wikidata JSON dump.");
-        this.timer.start();
+        this.timerStartedAt = System.nanoTime();
+    }
+
+    /**
+     * The first pass of a two-pass import, see {@link #getWantedItemsPass}. Nothing is stored, so
+     * there is nothing to commit either.
+     */
+    private class WantedItemsPass implements WikidataImportProcessor {
+
+        final WikidataItemSet wanted = new WikidataItemSet();
+        int count = 0;
+        long timerStartedAt = 0;
+
+        @Override
+        public void processItemDocument(ItemDocument itemDocument) {
+            WikidataEntityRecord record = new WikidataEntityRecord();
+            entityExtractor.extract(itemDocument, record);
+            processEntityRecord(record);
+        }
+
+        @Override
+        public void processPropertyDocument(PropertyDocument propertyDocument) {
+            countEntity();
+        }
+
+        @Override
+        public void processEntityRecord(WikidataEntityRecord record) {
+            countEntity();
+            if (record.isItem) markWantedItems(record, wanted);
+        }
+
+        /** Counts one entity, the first pass is bound by the same time limit as the import. */
+        private void countEntity() {
+            if (timerStartedAt == 0) timerStartedAt = System.nanoTime();
+            count++;
+            if (count % 1000 == 0 && timeout > 0 && (System.nanoTime() - timerStartedAt) / 1000000000L > timeout) {
+                log.info("First pass: Timeout after " + count + " entities. Aborting the first pass.");
+                throw new TimeoutException();
+            }
+        }
+
+        @Override
+        public boolean commit(File stateFile) {
+            return false;
+        }
+
+        @Override
+        public boolean resume(File stateFile) {
+            return false;
+        }
+
+        @Override
+        public void stop() {
+            log.info("First pass: Keeping texts of " + wanted.cardinality() + " items out of " + count + " entities");
+            wantedItems = wanted;
+        }
+
+        @Override
+        public int getEntityCount() {
+            return count;
+        }
+
+        @Override
+        public WikidataEntityExtractor getEntityExtractor() {
+            return entityExtractor;
+        }
+
+        @Override
+        public WikidataLineFilter getLineFilter() {
+            return WikidataEntityProcessor.this.getLineFilter();
+        }
+
     }
 
     public class TimeoutException extends RuntimeException {
@@ -0,0 +1,149 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * The few fields of a wikidata entity our processors make use of: the label and description (in the
+ * configured language) and the main values of all statements of the properties asked for.
+ *
+ * Records are filled by a {@link WikidataEntityExtractor} and meant to be reused for entity after
+ * entity, so statements are kept in parallel arrays which just grow if an entity has more
+ * statements than any entity before.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataEntityRecord {
+
+    // types of statement values
+    static final byte NO_VALUE      = 0; // no value, some value or a value of a type not extracted
+    static final byte ITEM_VALUE    = 1;
+    static final byte STRING_VALUE  = 2;
+    static final byte GLOBE_VALUE   = 3;
+    static final byte TIME_VALUE    = 4;
+
+    /** Marks a statement without the time qualifier in question. */
+    static final long NO_TIME = Long.MIN_VALUE;
+
+    String entityId = null;
+    boolean isItem = false;
+    String label = null;
+    String description = null;
+
+    int statementCount = 0;
+    String[] propertyIds = new String[16];  // the constants of WikidataEntityMap
+    String[] statementIds = new String[16];
+    byte[] valueTypes = new byte[16];
+    String[] values = new String[16];       // the item id, the string or the time value
+    double[] latitudes = new double[16];
+    double[] longitudes = new double[16];
+    long[] startTimes = new long[16];       // qualifier "started at" (P580)
+    long[] endTimes = new long[16];         // qualifier "ended at" (P582)
+    long[] startTimeKeys = new long[16];    // the raw values of these qualifiers, see timeKey()
+    long[] endTimeKeys = new long[16];
+
+    void reset() {
+        entityId = null;
+        isItem = false;
+        label = null;
+        description = null;
+        Arrays.fill(statementIds, 0, statementCount, null);
+        Arrays.fill(values, 0, statementCount, null);
+        statementCount = 0;
+    }
+
+    /** @return The index of the statement added, its value is to be set through this index. */
+    int addStatement(String propertyId, String statementId) {
+        if (statementCount == propertyIds.length) {
+            int size = statementCount * 2;
+            propertyIds = Arrays.copyOf(propertyIds, size);
+            statementIds = Arrays.copyOf(statementIds, size);
+            valueTypes = Arrays.copyOf(valueTypes, size);
+            values = Arrays.copyOf(values, size);
+            latitudes = Arrays.copyOf(latitudes, size);
+            longitudes = Arrays.copyOf(longitudes, size);
+            startTimes = Arrays.copyOf(startTimes, size);
+            endTimes = Arrays.copyOf(endTimes, size);
+            startTimeKeys = Arrays.copyOf(startTimeKeys, size);
+            endTimeKeys = Arrays.copyOf(endTimeKeys, size);
+        }
+        int index = statementCount++;
+        propertyIds[index] = propertyId;
+        statementIds[index] = statementId;
+        valueTypes[index] = NO_VALUE;
+        values[index] = null;
+        startTimes[index] = NO_TIME;
+        endTimes[index] = NO_TIME;
+        startTimeKeys[index] = NO_TIME;
+        endTimeKeys[index] = NO_TIME;
+        return index;
+    }
+
+    /** Makes this record a copy of the given one. */
+    void copyFrom(WikidataEntityRecord other) {
+        reset();
+        entityId = other.entityId;
+        isItem = other.isItem;
+        label = other.label;
+        description = other.description;
+        for (int i = 0; i < other.statementCount; i++) {
+            int index = addStatement(other.propertyIds[i], other.statementIds[i]);
+            valueTypes[index] = other.valueTypes[i];
+            values[index] = other.values[i];
+            latitudes[index] = other.latitudes[i];
+            longitudes[index] = other.longitudes[i];
+            startTimes[index] = other.startTimes[i];
+            endTimes[index] = other.endTimes[i];
+            startTimeKeys[index] = other.startTimeKeys[i];
+            endTimeKeys[index] = other.endTimeKeys[i];
+        }
+    }
+
+    void setValue(int index, byte valueType, String value) {
+        valueTypes[index] = valueType;
+        values[index] = value;
+    }
+
+    void setCoordinates(int index, double latitude, double longitude) {
+        valueTypes[index] = GLOBE_VALUE;
+        latitudes[index] = latitude;
+        longitudes[index] = longitude;
+    }
+
+    /** Sets the "started at" or "ended at" qualifier of a statement. */
+    void setTime(int index, boolean endTime, long year, int month, int day, int hour, int minute, int second) {
+        long time = toMillis(year, month, day, hour, minute, second);
+        long key = timeKey(year, month, day, hour, minute, second);
+        if (endTime) {
+            endTimes[index] = time;
+            endTimeKeys[index] = key;
+        } else {
+            startTimes[index] = time;
+            startTimeKeys[index] = key;
+        }
+    }
+
+    /**
+     * @return  The point in time (in ms) the given date and time refer to, computed just like the
+     *          geodata processor always did (but without the milliseconds of the current time).
+     */
+    static long toMillis(long year, int month, int day, int hour, int minute, int second) {
+        Calendar calendar = new GregorianCalendar();
+        calendar.clear();
+        calendar.set((int) year, month, day, hour, minute, second);
+        return calendar.getTime().getTime();
+    }
+
+    /**
+     * @return  The given date and time packed into one number, the same on every run and in every
+     *          time zone (other than {@link #toMillis}), e.g. to take fingerprints of.
+     */
+    static long timeKey(long year, int month, int day, int hour, int minute, int second) {
+        return ((((year * 13 + month) * 32 + day) * 24 + hour) * 60 + minute) * 60 + second;
+    }
+
+}
@@ -0,0 +1,199 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * The fingerprints of the items imported, kept in a local file next to the dumps, so a re-import
+ * can tell the items which did not change since the last import without asking the storage. A
+ * fingerprint is a 64 bit hash of everything imported for an item (see {@link #hash}).
+ *
+ * Fingerprints are kept in two plain arrays (open addressing with linear probing) keyed by the
+ * (encoded) item id, 12 bytes per item. The file is a plain sequence of (id, fingerprint) pairs
+ * behind a header, written to a temporary file first and then renamed, so a failed import never
+ * leaves a half written index behind. If the file is missing or unreadable, the index starts empty
+ * and the import writes all items.
+ *
+ * An index is read by the thread processing the dump and written by the thread writing the items,
+ * once these are committed, its methods are synchronized.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataFingerprintIndex {
+
+    private static Logger log = Logger.getLogger(WikidataFingerprintIndex.class.getName());
+
+    /** Returned for items without a fingerprint, no hash is ever 0. */
+    static final long NO_FINGERPRINT = 0;
+
+    private static final int MAGIC = 0x77646670; // "wdfp"
+    private static final int FREE = 0; // ids are positive
+
+    private final File file;
+
+    private int[] ids;
+    private long[] fingerprints;
+    private int size = 0;
+    private int resizeAt;
+    private int shift; // 32 - log2(capacity)
+
+    private WikidataFingerprintIndex(File file, int capacity) {
+        this.file = file;
+        int slots = 1 << 10;
+        while (slots * 3 / 4 < capacity) slots <<= 1;
+        allocate(slots);
+    }
+
+    /** @return The index stored in the given file, or an empty one if there is none (yet). */
+    static WikidataFingerprintIndex load(File file) {
+        if (!file.exists()) {
+            log.info("No fingerprints of former imports at " + file.getPath() + ", all items will be written");
+            return new WikidataFingerprintIndex(file, 0);
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            try {
+                if (in.readInt() != MAGIC) throw new IOException("Not a fingerprint index");
+                int count = in.readInt();
+                WikidataFingerprintIndex index = new WikidataFingerprintIndex(file, count);
+                for (int i = 0; i < count; i++) {
+                    index.put(in.readInt(), in.readLong());
+                }
+                log.info("Loaded the fingerprints of " + count + " items imported before from " + file.getPath());
+                return index;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            log.warning("Could not read the fingerprints at " + file.getPath() + " (" + e.getMessage()
+                + "), all items will be written");
+            return new WikidataFingerprintIndex(file, 0);
+        }
+    }
+
+    /** @return The fingerprint of the given item, or NO_FINGERPRINT. */
+    synchronized long get(int id) {
+        int slot = slot(id);
+        return (ids[slot] == FREE) ? NO_FINGERPRINT : fingerprints[slot];
+    }
+
+    synchronized void put(int id, long fingerprint) {
+        if (id <= 0) throw new IllegalArgumentException("Invalid entity id " + id);
+        int slot = slot(id);
+        if (ids[slot] == FREE) {
+            ids[slot] = id;
+            size++;
+        }
+        fingerprints[slot] = fingerprint;
+        if (size > resizeAt) grow();
+    }
+
+    /** Forgets the fingerprint of the given item, so it gets written with the next import. */
+    synchronized void clear(int id) {
+        int slot = slot(id);
+        if (ids[slot] != FREE) fingerprints[slot] = NO_FINGERPRINT;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    /** Writes the index to its file, replacing the former one. */
+    synchronized void save() {
+        File temp = new File(file.getPath() + ".tmp");
+        int count = 0;
+        for (int slot = 0; slot < ids.length; slot++) {
+            if (ids[slot] != FREE && fingerprints[slot] != NO_FINGERPRINT) count++;
+        }
+        try {
+            file.getParentFile().mkdirs();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(count);
+                for (int slot = 0; slot < ids.length; slot++) {
+                    if (ids[slot] == FREE || fingerprints[slot] == NO_FINGERPRINT) continue;
+                    out.writeInt(ids[slot]);
+                    out.writeLong(fingerprints[slot]);
+                }
+            } finally {
+                out.close();
+            }
+            if (file.exists() && !file.delete()) throw new IOException("Could not replace " + file.getPath());
+            if (!temp.renameTo(file)) throw new IOException("Could not rename " + temp.getPath());
+            log.info("Stored the fingerprints of " + count + " items at " + file.getPath());
+        } catch (IOException e) {
+            log.warning("Could not store the fingerprints at " + file.getPath() + ": " + e.getMessage());
+            temp.delete();
+        }
+    }
+
+    // --- Hashing (FNV-1a over the values imported, finished with a 64 bit mix)
+
+    static final long SEED = 0xcbf29ce484222325L;
+
+    static long hash(long hash, String value) {
+        if (value == null) return hash(hash, -1L);
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return hash(hash, value.length());
+    }
+
+    static long hash(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash = (hash ^ (value & 0xff)) * 0x100000001b3L;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
+    /** @return The final fingerprint of a hash, never NO_FINGERPRINT. */
+    static long finish(long hash) {
+        hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return (hash == NO_FINGERPRINT) ? 1 : hash;
+    }
+
+    // --- Table
+
+    private int slot(int id) {
+        int mask = ids.length - 1;
+        int slot = (id * 0x9E3779B9) >>> shift;
+        while (ids[slot] != FREE && ids[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void allocate(int capacity) {
+        ids = new int[capacity];
+        fingerprints = new long[capacity];
+        resizeAt = capacity * 3 / 4;
+        shift = 32 - Integer.numberOfTrailingZeros(capacity);
+    }
+
+    private void grow() {
+        int[] oldIds = ids;
+        long[] oldFingerprints = fingerprints;
+        allocate(oldIds.length * 2);
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] == FREE) continue;
+            int slot = slot(oldIds[i]);
+            ids[slot] = oldIds[i];
+            fingerprints[slot] = oldFingerprints[i];
+        }
+    }
+
+}
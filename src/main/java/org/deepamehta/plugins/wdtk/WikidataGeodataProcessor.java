@@ -1,22 +1,26 @@
 package org.deepamehta.plugins.wdtk;
 
 import de.deepamehta.core.Association;
+import de.deepamehta.core.DeepaMehtaObject;
 import de.deepamehta.core.RelatedTopic;
 import de.deepamehta.core.Topic;
 import de.deepamehta.core.model.*;
 import de.deepamehta.core.service.CoreService;
 import de.deepamehta.core.service.ModelFactory;
-import de.deepamehta.core.storage.spi.DeepaMehtaTransaction;
 import de.deepamehta.workspaces.WorkspacesService;
-import org.wikidata.wdtk.datamodel.interfaces.*;
-import org.wikidata.wdtk.datamodel.json.jackson.datavalues.JacksonValueTime;
-import org.wikidata.wdtk.util.Timer;
+import org.wikidata.wdtk.datamodel.interfaces.ItemDocument;
+import org.wikidata.wdtk.datamodel.interfaces.PropertyDocument;
 
 import javax.ws.rs.WebApplicationException;
-import java.util.Calendar;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,7 +32,7 @@ import java.util.logging.Logger;
  * Thanks for sharing. Honorable mentions go to jri for telling me about the 
  * ImportPackage bundle notations which helped me to run the WDTK within our OSGi.
  */
-public class WikidataGeodataProcessor implements EntityDocumentProcessor {
+public class WikidataGeodataProcessor implements WikidataImportProcessor {
     
     private Logger log = Logger.getLogger(getClass().getName());
     
@@ -52,9 +56,16 @@ public class WikidataGeodataProcessor implements EntityDocumentProcessor {
 
     private final String WIKIDATA_START_TIME_PROP   = "org.deepamehta.start_time";
     private final String WIKIDATA_END_TIME_PROP     = "org.deepamehta.end_time";
+    private final String WIKIDATA_FINGERPRINT_PROP  = "org.deepamehta.wikidata.fingerprint";
 
-    // setting: overall seconds and timer to parse the dumpfile
-    final Timer timer = Timer.getNamedTimer("WikidataEntityProcessor");
+    static final String CLAIM_EDGE_TYPE = "org.deepamehta.wikidata.claim_edge";
+
+    // the types of the claims made of an item's statements, told by the statement's GUID
+    private final String[] CLAIM_TYPES = {CLAIM_EDGE_TYPE, ASSOCTYPE_ISO_COUNTRY_CODE, ASSOCTYPE_NUTS_CODE,
+        ASSOCTYPE_OSM_RELATION_ID};
+
+    // setting: overall seconds to parse the dumpfile, timed from the first entity on (per processor)
+    long timerStartedAt = 0;
     int lastSeconds = 0, entityCount = 0;
     int timeout;
 
@@ -75,10 +86,48 @@ public class WikidataGeodataProcessor implements EntityDocumentProcessor {
     ModelFactory mf;
     WorkspacesService workspaceService;
     Topic wikidataWorkspace = null;
-
-    DeepaMehtaTransaction tx = null;
+    WikidataWorkspaceAssigner workspaceAssigner = null;
+
+    WikidataEntityExtractor entityExtractor;
+
+    // applies all writes (and does all lookups) of the processor, started with the first entity
+    WikidataBatchWriter writer = null;
+
+    // the topic ids of the items looked up or created lately
+    static final int TOPIC_ID_CACHE_SIZE = 1 << 20;
+    final WikidataTopicIdCache itemTopicIds = new WikidataTopicIdCache(TOPIC_ID_CACHE_SIZE);
+
+    // topics answering the same few lookups over and over again
+    final WikidataLookupCache languageCodes = new WikidataLookupCache("language codes", 256);
+    final WikidataLookupCache properties = new WikidataLookupCache("properties", 4096);
+    final WikidataLookupCache texts = new WikidataLookupCache("text values", 65536);
+
+    // knows the claim edges existing already, if set, told about the edges created once these are committed
+    WikidataClaimEdgeFilter claimEdges = null;
+    final List<long[]> batchEdges = new ArrayList<long[]>();
+    final Set<String> batchEdgeKeys = new HashSet<String>();
+
+    // the fingerprints of the items imported before, if set
+    WikidataFingerprintIndex fingerprints = null;
+    long fingerprintSeed = WikidataFingerprintIndex.SEED;
+    int unchangedItems = 0;
+    // the items written in the current batch and their fingerprints, recorded once these are committed
+    final List<long[]> batchFingerprints = new ArrayList<long[]>();
+    // the parts of item writes failing (e.g. a claim not created), counted by the writer
+    long writeErrors = 0;
+
+    // claim edges referring to items not imported yet, resolved at the end
+    final WikidataPendingEdges pendingEdges = new WikidataPendingEdges();
+    static final int PENDING_EDGES_PER_WRITE = 1000;
+    long resolvedEdges = 0;
+    final WikidataItemSet danglingItems = new WikidataItemSet();
+    long danglingEdges = 0;
     Date importStartedAt = null;
 
+    // flag: the entities given are the latest revisions of changed items, see setIncremental()
+    boolean incremental = false;
+    long removedClaims = 0;
+
     public WikidataGeodataProcessor (CoreService dm4, ModelFactory mf, WorkspacesService workspaceService, int timeout,
         boolean persons, boolean institutions, boolean cities, boolean countries, boolean descriptions,
         boolean urls, boolean coordinates, String iso_lang) {
@@ -94,376 +143,212 @@ public class WikidataGeodataProcessor implements EntityDocumentProcessor {
         // this.storeWebsiteAddresses = urls;
         this.storeDescription = descriptions;
         if (iso_lang != null) this.isoLanguageCode = iso_lang;
+        this.entityExtractor = new WikidataEntityExtractor(isoLanguageCode, WikidataEntityMap.IS_INSTANCE_OF,
+            WikidataEntityMap.IS_SUBCLASS_OF, WikidataEntityMap.GEO_COORDINATES, WikidataEntityMap.IS_ISO_THREE_LETTER_CODE,
+            WikidataEntityMap.IS_NUTS_CODE, WikidataEntityMap.OSM_RELATION_ID, WikidataEntityMap.IS_COUNTRY,
+            WikidataEntityMap.IS_CAPITAL, WikidataEntityMap.IS_LOCATED_IN_ADMIN_T, WikidataEntityMap.CONTAINS_ADMIN_T_ENTITY);
         wikidataWorkspace = workspaceService.getWorkspace(WS_WIKIDATA_URI);
+        workspaceAssigner = new WikidataWorkspaceAssigner(dm4, workspaceService, wikidataWorkspace.getId());
         log.info("Set up to import wikidata topics into workspace \"" + wikidataWorkspace.getSimpleValue()
                 + "\" with language Code " + this.isoLanguageCode );
         importStartedAt = new Date();
     }
 
+    /** Lets the topics and associations created be assigned to the workspace in batches. */
+    void setBulkAssignment(boolean bulk) {
+        workspaceAssigner.setBulk(bulk);
+    }
+
+    /**
+     * Lets the processor skip the items which did not change since the last import with the same
+     * settings, as told by the fingerprints stored in the given file. The file is updated once the
+     * import is done.
+     */
+    void setFingerprintIndex(File fingerprintFile) {
+        this.fingerprints = WikidataFingerprintIndex.load(fingerprintFile);
+        // items imported with other settings differ
+        long seed = WikidataFingerprintIndex.hash(WikidataFingerprintIndex.SEED, isoLanguageCode);
+        boolean[] settings = {doCountries, doCities, doInstitutions, doPersons, storeDescription, storeGeoCoordinates};
+        for (boolean setting : settings) {
+            seed = WikidataFingerprintIndex.hash(seed, (setting) ? 1 : 0);
+        }
+        this.fingerprintSeed = seed;
+    }
+
+    /**
+     * Lets the processor apply the latest revisions of items changed since they were imported (see
+     * {@link WikidataChangeFiles}): the claims of an item whose statements are gone are removed, those
+     * of changed statements are updated and items which have none of the statements imported anymore
+     * lose all their claims.
+     */
+    void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    void setClaimEdgeFilter(WikidataClaimEdgeFilter claimEdges) {
+        claimEdges.addType(CLAIM_EDGE_TYPE, false);
+        this.claimEdges = claimEdges;
+    }
+
     @Override
     public void processItemDocument(ItemDocument itemDocument) {
+        WikidataEntityRecord record = new WikidataEntityRecord();
+        entityExtractor.extract(itemDocument, record);
+        processEntityRecord(record);
+    }
 
-        countEntity();
+    @Override
+    public void processEntityRecord(WikidataEntityRecord record) {
 
-        // Finish and create a new transaction for every 1000 items
-        if (tx == null) tx = dm4.beginTx();
-        if (this.entityCount % 1000 == 0) {
-            tx.success();
-            tx.finish();
-            tx = dm4.beginTx();
-        }
+        countEntity();
+        if (!record.isItem) return;
+
+        // writes are applied (and committed in batches) by the writer, values are taken from the
+        // record right away as the record gets reused
+        if (writer == null) writer = new WikidataBatchWriter(dm4, "geodata", new WikidataBatchWriter.BatchListener() {
+            @Override
+            public void committed() {
+                batchCommitted();
+            }
+            @Override
+            public void rolledBack() {
+                batchRolledBack();
+            }
+        });
         // 0) Get label and description of current item
-        String itemId = itemDocument.getEntityId().getId();
-        String label = getItemLabel(itemDocument);
-        String description = getItemDescription(itemDocument);
-
-        /** ### Optimization: pass on current wikidata item topic instead of fetching it all the time */
-        Topic wikidataItem = null;
-
-        // 1) Iterate over items statement groups
-        if (itemDocument.getStatementGroups().size() > 0) {
-            
-            for (StatementGroup sg : itemDocument.getStatementGroups()) {
-                                
-                // -- Inspect with which type of StatementGroup (resp. Property) we deal here 
-                
-                boolean isInstanceOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_INSTANCE_OF);
-                boolean isSubclassOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_SUBCLASS_OF);
-                // ?principiality?
-                boolean isCoordinateOf = sg.getProperty().getId().equals(WikidataEntityMap.GEO_COORDINATES);
-                boolean isISOThreeLetterCode = sg.getProperty().getId().equals(WikidataEntityMap.IS_ISO_THREE_LETTER_CODE);
-                // boolean isISOSubregionCode = sg.getProperty().getId().equals(WikidataEntityMap.IS_ISO_SUB_REGION_CODE);
-                boolean isNUTSCode = sg.getProperty().getId().equals(WikidataEntityMap.IS_NUTS_CODE);
-                boolean isOSMRelationIdentifier = sg.getProperty().getId().equals(WikidataEntityMap.OSM_RELATION_ID);
-                //
-                boolean isCapital = sg.getProperty().getId().equals(WikidataEntityMap.IS_CAPITAL);
-                boolean isCountry = sg.getProperty().getId().equals(WikidataEntityMap.IS_COUNTRY);
-                //
-                /** boolean isLocatedHQ = sg.getProperty().getId().equals(WikidataEntityMap.LOCATION_OF_HEADQUARTER);
-                boolean isLocatedFO = sg.getProperty().getId().equals(WikidataEntityMap.LOCATION_OF_FORMATION); **/
-                //
-                boolean isCitizenOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_CITIZEN_OF);
-                boolean isResidenceOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_RESIDENCE_OF);
-                //
-                boolean containsAdministrativeEntity = sg.getProperty().getId().equals(WikidataEntityMap.CONTAINS_ADMIN_T_ENTITY); // down the hierarchy
-                boolean locatedInAdministrativeEntity = sg.getProperty().getId().equals(WikidataEntityMap.IS_LOCATED_IN_ADMIN_T);  // up the hierarchy
-                //
-                /** boolean isGivenNameOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_GIVEN_NAME_OF);
-                boolean isSurnameOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_SURNAME_OF);
-                boolean isBirthDateOf = sg.getProperty().getId().equals(WikidataEntityMap.WAS_BORN_ON);
-                boolean isDeathDateOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_DEAD_SINCE); **/
-                //
-                /** boolean isEmployeeOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_EMPLOYEE_OF);
-                boolean isPartyMemberOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_PARTY_MEMBER_OF);
-                boolean isOfficiallyResidingAt = sg.getProperty().getId().equals(WikidataEntityMap.IS_OFFICIALLY_RESIDING_AT);
-                boolean isMemberOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_MEMBER_OF);
-                // boolean isAlmaMaterOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_ALMA_MATER_OF);
-                boolean isStudentOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_STUDENT_OF_PERSON);
-                boolean isDoctoralAdvisorOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_DOCTORAL_ADVISOR_OF);
-                boolean isDoctoralStudentOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_DOCTORAL_STUDENT_OF);
-                boolean isAffiliatedWith = sg.getProperty().getId().equals(WikidataEntityMap.IS_AFFILIATED_WITH); **/
-                /** boolean isPseudonymOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_PSEUDONYM_OF);
-                boolean isOpenResearchIdOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_OPEN_RESEARCH_ID_OF);
-                boolean isNotableWorkOf = sg.getProperty().getId().equals(WikidataEntityMap.IS_NOTABLE_WORK_OF); **/
-                /** if (isSubclassOf && classRecord == null) {
-                    // logger.info("Has SubclassOf Relationship.. and NO classRecord");
-                    classRecord = getClassRecord(itemDocument, itemDocument.getItemId());
-                } **/
-                
-                // 1.1) Record various "attributes" of the current item
-
-                // -- StatementGroup of propertyType is instance | subclass of - the four basic items we **directly** create ###
-
-                if (isInstanceOf || isSubclassOf) {
-                    for (Statement s : sg.getStatements()) {
-                        // ### simply using the main snak value of this statement
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            String referencedItemId = "";
-                            
-                            // --- Statement involving other ITEMS
-                            if (mainSnakValue instanceof EntityIdValue) {
-                                
-                                EntityIdValue itemIdValue = (EntityIdValue) mainSnakValue;
-
-                                if (itemIdValue.getEntityType().equals(EntityIdValue.ET_ITEM)) {
-                                    
-                                    referencedItemId = itemIdValue.getId();
-
-                                    // 2.1 current wikidata item is direct instanceOf|subclassOf "human" or "person"
-                                    if (referencedItemId.equals(WikidataEntityMap.HUMAN_ITEM)
-                                        || referencedItemId.equals(WikidataEntityMap.PERSON_ITEM)) {
-                                        if (doPersons) {
-                                            updateOrCreateWikidataItem(itemId, label, null, description, this.isoLanguageCode);
-                                        }
-
-                                    // 2.2 current wikidata item is direct instanceOf|subclassOf "university", "company" or "organisation"
-                                    } else if (referencedItemId.equals(WikidataEntityMap.COMPANY_ITEM)
-                                        || referencedItemId.equals(WikidataEntityMap.UNIVERSITY_ITEM)
-                                        || referencedItemId.equals(WikidataEntityMap.ORGANISATION_ITEM)
-                                        || referencedItemId.equals(WikidataEntityMap.COLLEGIATE_UNIVERSITY_ITEM)) { // = often subclass of "university" items
-                                        if (doInstitutions) {
-                                            updateOrCreateWikidataItem(itemId, label, null, description, this.isoLanguageCode);
-                                        }
-
-                                    // 2.3 current wikidata item is direct instanceOf|subclassOf "city", "metro" or "capital"
-                                    } else if (referencedItemId.equals(WikidataEntityMap.CITY_ITEM)
-                                        || referencedItemId.equals(WikidataEntityMap.METROPOLIS_ITEM)
-                                        || referencedItemId.equals(WikidataEntityMap.CAPITAL_CITY_ITEM)) {
-                                        if (doCities) {
-                                            updateOrCreateWikidataItem(itemId, label, null, description, this.isoLanguageCode);
-                                        }
-
-                                    // 2.4 current wikidata item is direct instanceOf|subclassOf "country" or "sovereing state"
-                                    } else if (referencedItemId.equals(WikidataEntityMap.COUNTRY_ITEM)
-                                        || referencedItemId.equals(WikidataEntityMap.SOVEREIGN_STATE_ITEM)
-                                        || referencedItemId.equals(WikidataEntityMap.STATE_ITEM)) {
-                                        if (doCountries) { // && !all_countries.containsKey(itemId)) all_countries.put(itemId, label);
-                                            updateOrCreateWikidataItem(itemId, label, null, description, this.isoLanguageCode);
-                                        }
-
-                                    }
-
-                                }
-                            }
-                        }
-                    }
+        String itemId = record.entityId;
+        String label = record.label;
+        String description = record.description;
 
-                // 1.2) introducing everything which has a geo-coordinate, too
-                } else if (isCoordinateOf && this.storeGeoCoordinates) {
-                    for (Statement s : sg.getStatements()) {
-                        // ### simply using the main snak value of this statement
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            if (mainSnakValue instanceof GlobeCoordinatesValue) {
-                                GlobeCoordinatesValue coordinateValues = (GlobeCoordinatesValue) mainSnakValue;
-                                double longitude = coordinateValues.getLatitude();
-                                double latitude = coordinateValues.getLongitude();
-                                // note: coordinateValues.getGlobe().contains("Q2) == Planet Earth
-                                // every item with a coordinate gets a label and description UPDATE
-                                updateOrCreateWikidataItem(itemId, label, null, description, this.isoLanguageCode);
-                                if (longitude != -1 && latitude != -1) {
-                                    double coordinates[] = {latitude, longitude};
-                                    // do Coordinates
-                                    attachGeoCoordinates(coordinates, itemId);
-                                }
-                            }
-                        }
-                    }
+        // all changes to (and around) the item are collected and written at once
+        ItemChanges changes = new ItemChanges(itemId, label, description);
 
-                // 1.3) Storing simple, but related text values from the geo-domain/vocabulary
-                // ### isRegion (Administrative Subregion) via hasCode?
-
-                } else if (isISOThreeLetterCode) {
-                    for (Statement s : sg.getStatements()) {
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            if (mainSnakValue instanceof StringValue) {
-                                StringValue codeValue = (StringValue) mainSnakValue;
-                                updateOrCreateWikidataItem(itemId, label, null, description, this.isoLanguageCode);
-                                createWikidataTextClaim(codeValue.toString(), ASSOCTYPE_ISO_COUNTRY_CODE, itemId, s.getStatementId());
-                            }
-                        }
-                    }
+        // 1) Iterate over the items statements, just the ones of the properties extracted are given
+        for (int i = 0; i < record.statementCount; i++) {
 
-                } else if (isNUTSCode) {
-                    for (Statement s : sg.getStatements()) {
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            if (mainSnakValue instanceof StringValue) {
-                                StringValue codeValue = (StringValue) mainSnakValue;
-                                updateOrCreateWikidataItem(itemId, label, null, description, this.isoLanguageCode);
-                                createWikidataTextClaim(codeValue.toString(), ASSOCTYPE_NUTS_CODE, itemId, s.getStatementId());
-                            }
-                        }
-                    }
+            // -- Inspect with which type of statement (resp. Property) we deal here, all property
+            // ids of a record are the (same) constants of the WikidataEntityMap
 
-                } else if (isOSMRelationIdentifier) {
-                    for (Statement s : sg.getStatements()) {
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            if (mainSnakValue instanceof StringValue) {
-                                StringValue codeValue = (StringValue) mainSnakValue;
-                                // log.info("### NEW: OSM Relation ID: " + codeValue);
-                                // every item with a osm relation id gets a label and description UPDATE
-                                updateOrCreateWikidataItem(itemId, label, null, description, this.isoLanguageCode);
-                                createWikidataTextClaim(codeValue.toString(), ASSOCTYPE_OSM_RELATION_ID, itemId, s.getStatementId());
-                            }
-                        }
-                    }
+            String property = record.propertyIds[i];
+            byte valueType = record.valueTypes[i];
+            String value = record.values[i];
 
-                // .. Starting to qualify claims.. but ### store References too!
-
-                } else if (isCountry) {
-                    for (Statement s : sg.getStatements()) {
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            // --- Statement involving other ITEMS
-                            Association claimEdge = null;
-                            if (mainSnakValue instanceof EntityIdValue) {
-                                EntityIdValue itemIdValue = (EntityIdValue) mainSnakValue;
-                                if (itemIdValue.getEntityType().equals(EntityIdValue.ET_ITEM)) {
-                                    String referencedItemId = itemIdValue.getId();
-                                    updateOrCreateWikidataItem(itemId, label, null, description, this.isoLanguageCode);
-                                    // ### Needs issue #805 solved (for hierarchical/directed claim edges).
-                                    claimEdge = createWikidataClaimEdge(referencedItemId, itemId, s.getStatementId(), sg.getProperty());
-                                }
-                            }
-                            if (claimEdge != null) storeQualifyingTimeProperties(claimEdge, s);
-                        }
-                    }
+            // 1.1) Record various "attributes" of the current item
 
-                } else if (isCapital) {
-                    for (Statement s : sg.getStatements()) {
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            // value
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            // --- Statement involving other ITEMS (country or subregion at the "other" side of this statement)
-                            Association claimEdge = null;
-                            if (mainSnakValue instanceof EntityIdValue) {
-                                EntityIdValue itemIdValue = (EntityIdValue) mainSnakValue;
-                                if (itemIdValue.getEntityType().equals(EntityIdValue.ET_ITEM)) {
-                                    String referencedItemId = itemIdValue.getId();
-                                    // ### Needs issue #805 solved (for hierarchical/directed claim edges).
-                                    claimEdge = createWikidataClaimEdge(itemId, referencedItemId, s.getStatementId(), sg.getProperty());
-                                }
-                            }
-                            // qualifiers
-                            if (claimEdge != null) storeQualifyingTimeProperties(claimEdge, s);
-                        }
-                    }
+            // -- Statement of propertyType is instance | subclass of - the four basic items we **directly** create ###
 
-                } else if (locatedInAdministrativeEntity) { // institutions in cities or cities in regions and regions in countries
-                    for (Statement s : sg.getStatements()) {
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            // --- Statement involving other ITEMS (country or subregion at the "other" side of this statement)
-                            Association claimEdge = null;
-                            if (mainSnakValue instanceof EntityIdValue) {
-                                EntityIdValue itemIdValue = (EntityIdValue) mainSnakValue;
-                                if (itemIdValue.getEntityType().equals(EntityIdValue.ET_ITEM)) {
-                                    String referencedItemId = itemIdValue.getId();
-                                    log.fine("### NEW: item is located in Administrative unit: " + referencedItemId); // ### add this item // upward relation
-                                    updateOrCreateWikidataItem(itemId, label, null, description, this.isoLanguageCode);
-                                    // ### Needs issue #805 solved (for hierarchical/directed claim edges).
-                                    claimEdge = createWikidataClaimEdge(referencedItemId, itemId, s.getStatementId(), sg.getProperty());
-                                }
-                            }
-                            if (claimEdge != null) storeQualifyingTimeProperties(claimEdge, s);
-                        }
-                    }
+            if (property == WikidataEntityMap.IS_INSTANCE_OF || property == WikidataEntityMap.IS_SUBCLASS_OF) {
+                // ### simply using the main snak value of this statement
+                if (valueType != WikidataEntityRecord.ITEM_VALUE) continue;
+                String referencedItemId = value;
 
-                } else if (containsAdministrativeEntity) { // regions in countries
-                    for (Statement s : sg.getStatements()) {
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            // --- Statement involving other ITEMS
-                            Association claimEdge = null;
-                            if (mainSnakValue instanceof EntityIdValue) {
-                                EntityIdValue itemIdValue = (EntityIdValue) mainSnakValue;
-                                if (itemIdValue.getEntityType().equals(EntityIdValue.ET_ITEM)) {
-                                    String referencedItemId = itemIdValue.getId();
-                                    // ## need label
-                                    updateOrCreateWikidataItem(referencedItemId, null, null, null, this.isoLanguageCode);
-                                    // ### Needs issue #805 solved (for hierarchical/directed claim edges).
-                                    claimEdge = createWikidataClaimEdge(itemId, referencedItemId, s.getStatementId(), sg.getProperty());
-                                }
-                            }
-                            if (claimEdge != null) storeQualifyingTimeProperties(claimEdge, s);
-                        }
+                // 2.1 current wikidata item is direct instanceOf|subclassOf "human" or "person"
+                if (referencedItemId.equals(WikidataEntityMap.HUMAN_ITEM)
+                    || referencedItemId.equals(WikidataEntityMap.PERSON_ITEM)) {
+                    if (doPersons) {
+                        changes.updateItem = true;
                     }
 
-                } /** else if (isCitizenOf) { // persons in countries
-                    for (Statement s : sg.getStatements()) {
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            // --- Statement involving other ITEMS
-                            Association claimEdge = null;
-                            if (mainSnakValue instanceof EntityIdValue) {
-                                EntityIdValue itemIdValue = (EntityIdValue) mainSnakValue;
-                                if (itemIdValue.getEntityType().equals(EntityIdValue.ET_ITEM)) {
-                                    String referencedItemId = itemIdValue.getId();
-                                    log.fine("### NEW: person/human is citizen of : " + referencedItemId);
-                                    // ### updateOrCreateWikidataItem(itemId, label, label, description, label);
-                                    claimEdge = createWikidataClaimEdge(itemId, referencedItemId, s.getStatementId(), sg.getProperty());
-                                }
-                            }
-                            if (claimEdge != null) storeQualifyingTimeProperties(claimEdge, s);
-                        }
+                // 2.2 current wikidata item is direct instanceOf|subclassOf "university", "company" or "organisation"
+                } else if (referencedItemId.equals(WikidataEntityMap.COMPANY_ITEM)
+                    || referencedItemId.equals(WikidataEntityMap.UNIVERSITY_ITEM)
+                    || referencedItemId.equals(WikidataEntityMap.ORGANISATION_ITEM)
+                    || referencedItemId.equals(WikidataEntityMap.COLLEGIATE_UNIVERSITY_ITEM)) { // = often subclass of "university" items
+                    if (doInstitutions) {
+                        changes.updateItem = true;
                     }
 
-                } else if (isResidenceOf) { // persons in cities
-                    for (Statement s : sg.getStatements()) {
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            // --- Statement involving other ITEMS
-                            Association claimEdge = null;
-                            if (mainSnakValue instanceof EntityIdValue) {
-                                EntityIdValue itemIdValue = (EntityIdValue) mainSnakValue;
-                                if (itemIdValue.getEntityType().equals(EntityIdValue.ET_ITEM)) {
-                                    String referencedItemId = itemIdValue.getId();
-                                    log.fine("### NEW: person/human has residence in : " + referencedItemId);
-                                    claimEdge = createWikidataClaimEdge(itemId, referencedItemId, s.getStatementId(), sg.getProperty());
-                                }
-                            }
-                            if (claimEdge != null) storeQualifyingTimeProperties(claimEdge, s);
-                        }
+                // 2.3 current wikidata item is direct instanceOf|subclassOf "city", "metro" or "capital"
+                } else if (referencedItemId.equals(WikidataEntityMap.CITY_ITEM)
+                    || referencedItemId.equals(WikidataEntityMap.METROPOLIS_ITEM)
+                    || referencedItemId.equals(WikidataEntityMap.CAPITAL_CITY_ITEM)) {
+                    if (doCities) {
+                        changes.updateItem = true;
                     }
 
-                // #### IS_PLACE_OF_BIRTH // person at city
-                // #### IS_PLACE_OF_DEATH // person at city
-
-                /** } else if (isBirthDateOf || isDeathDateOf) {
-                    for (Statement s : sg.getStatements()) {
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            if (mainSnakValue instanceof TimeValue) {
-                                TimeValue dateValue = (TimeValue) mainSnakValue; // ### respect calendermodel
-                                log.fine("### NEW: Parsed time value: " + dateValue.getDay() + "."
-                                        + dateValue.getMonth() + " " + dateValue.getYear());
-                            }
-                        }
+                // 2.4 current wikidata item is direct instanceOf|subclassOf "country" or "sovereing state"
+                } else if (referencedItemId.equals(WikidataEntityMap.COUNTRY_ITEM)
+                    || referencedItemId.equals(WikidataEntityMap.SOVEREIGN_STATE_ITEM)
+                    || referencedItemId.equals(WikidataEntityMap.STATE_ITEM)) {
+                    if (doCountries) {
+                        changes.updateItem = true;
                     }
+                }
 
-                } else if (isGivenNameOf || isSurnameOf) {
-                    for (Statement s : sg.getStatements()) {
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            if (mainSnakValue instanceof EntityIdValue) { // ### is item id!
-                                EntityIdValue nameId = (EntityIdValue) mainSnakValue;
-                                log.fine("### NEW: Parsed name is item with ID : " + nameId);
-                            }
-                        }
-                    } **/
-                
-                // 1.2) Record various relations of current item to other items
-
-                /** } else if (isEmployeeOf) {
-                    // #### wasEducatedAt // person at institution
-                    // some professional person to organisation relationship
-                    /*** for (Statement s : sg.getStatements()) {
-                        if (s.getClaim().getMainSnak() instanceof ValueSnak) {
-                            Value mainSnakValue = ((ValueSnak) s.getClaim().getMainSnak()).getValue();
-                            if (mainSnakValue instanceof EntityIdValue) {
-                                EntityIdValue nameId = (EntityIdValue) mainSnakValue;
-                                PropertyIdValue propertyId = s.getClaim().getMainSnak().getPropertyId();
-                                // check on all already imported wikidata items
-                                Topic entity = getWikidataItemByEntityId(nameId);
-                                if (entity != null) {
-                                    HashMap<String, String> claim = new HashMap<String, String>();
-                                    claim.put("T" + entity.getId(), s.getStatementId() + WikidataEntityMap.URI_SEPERATOR + propertyId.getId());
-                                    // employeeOf.put(itemDocument.getItemId().getId(), claim);
-                                } else {
-                                    // check on all currently to be imported wikidata items (in memory)
-                                    String relatedLabel = getItemLabelByEntityId(nameId);
-                                    if (relatedLabel != null) worksAt.put(itemDocument.getItemId().getId(), relatedLabel);
-                                }
-                            }
-                        }
-                    }
-                } **/
+            // 1.2) introducing everything which has a geo-coordinate, too
+            } else if (property == WikidataEntityMap.GEO_COORDINATES && this.storeGeoCoordinates) {
+                if (valueType != WikidataEntityRecord.GLOBE_VALUE) continue;
+                double longitude = record.latitudes[i];
+                double latitude = record.longitudes[i];
+                // every item with a coordinate gets a label and description UPDATE
+                changes.updateItem = true;
+                if (longitude != -1 && latitude != -1) {
+                    double coordinates[] = {latitude, longitude};
+                    // do Coordinates
+                    changes.coordinates = coordinates;
+                }
 
+            // 1.3) Storing simple, but related text values from the geo-domain/vocabulary
+            // ### isRegion (Administrative Subregion) via hasCode?
+
+            } else if (property == WikidataEntityMap.IS_ISO_THREE_LETTER_CODE) {
+                if (valueType != WikidataEntityRecord.STRING_VALUE) continue;
+                changes.updateItem = true;
+                changes.addTextClaim(textClaimValue(value), ASSOCTYPE_ISO_COUNTRY_CODE, record.statementIds[i]);
+
+            } else if (property == WikidataEntityMap.IS_NUTS_CODE) {
+                if (valueType != WikidataEntityRecord.STRING_VALUE) continue;
+                changes.updateItem = true;
+                changes.addTextClaim(textClaimValue(value), ASSOCTYPE_NUTS_CODE, record.statementIds[i]);
+
+            } else if (property == WikidataEntityMap.OSM_RELATION_ID) {
+                if (valueType != WikidataEntityRecord.STRING_VALUE) continue;
+                // every item with a osm relation id gets a label and description UPDATE
+                changes.updateItem = true;
+                changes.addTextClaim(textClaimValue(value), ASSOCTYPE_OSM_RELATION_ID, record.statementIds[i]);
+
+            // .. Starting to qualify claims.. but ### store References too!
+
+            } else if (property == WikidataEntityMap.IS_COUNTRY) {
+                // --- Statement involving other ITEMS
+                if (valueType != WikidataEntityRecord.ITEM_VALUE) continue;
+                changes.updateItem = true;
+                // ### Needs issue #805 solved (for hierarchical/directed claim edges).
+                changes.addClaimEdge(value, itemId, record.statementIds[i], property, record, i);
+
+            } else if (property == WikidataEntityMap.IS_CAPITAL) {
+                // --- Statement involving other ITEMS (country or subregion at the "other" side of this statement)
+                if (valueType != WikidataEntityRecord.ITEM_VALUE) continue;
+                changes.updateItem = true;
+                // ### Needs issue #805 solved (for hierarchical/directed claim edges).
+                // qualifiers
+                changes.addClaimEdge(itemId, value, record.statementIds[i], property, record, i);
+
+            } else if (property == WikidataEntityMap.IS_LOCATED_IN_ADMIN_T) { // institutions in cities or cities in regions and regions in countries
+                // --- Statement involving other ITEMS (country or subregion at the "other" side of this statement)
+                if (valueType != WikidataEntityRecord.ITEM_VALUE) continue;
+                log.fine("### NEW: item is located in Administrative unit: " + value); // ### add this item // upward relation
+                changes.updateItem = true;
+                // ### Needs issue #805 solved (for hierarchical/directed claim edges).
+                changes.addClaimEdge(value, itemId, record.statementIds[i], property, record, i);
+
+            } else if (property == WikidataEntityMap.CONTAINS_ADMIN_T_ENTITY) { // regions in countries
+                // --- Statement involving other ITEMS
+                if (valueType != WikidataEntityRecord.ITEM_VALUE) continue;
+                changes.updateItem = true;
+                // ### Needs issue #805 solved (for hierarchical/directed claim edges).
+                changes.addClaimEdge(itemId, value, record.statementIds[i], property, record, i);
             }
+
+            // ### IS_CITIZEN_OF, IS_RESIDENCE_OF // persons in countries and cities
+            // #### IS_PLACE_OF_BIRTH // person at city
+            // #### IS_PLACE_OF_DEATH // person at city
+            // #### wasEducatedAt // person at institution
+        }
+        // a changed item without any of the statements imported may have lost these, the writer looks
+        // up whether it was imported (the fingerprints do not know about items imported without them)
+        if (!changes.isEmpty() || incremental) {
+            if (!isUnchanged(changes)) writeItemChanges(changes);
         }
 
         // Print a report every 10000 items:
@@ -471,76 +356,313 @@ public class WikidataGeodataProcessor implements EntityDocumentProcessor {
             printProcessingStatus();
         }
     }
-   
-    private Topic getWikidataItemByPropertyId (String propertyUri) {
-        return dm4.getTopicByUri(propertyUri);
+
+    // --- Writes handed over to the writer
+
+    /** Called by the writer once the writes of a batch are committed. */
+    private void batchCommitted() {
+        if (claimEdges != null) {
+            for (long[] edge : batchEdges) claimEdges.add(edge[0], edge[1], CLAIM_EDGE_TYPE);
+        }
+        batchEdges.clear();
+        batchEdgeKeys.clear();
+        for (long[] fingerprint : batchFingerprints) fingerprints.put((int) fingerprint[0], fingerprint[1]);
+        batchFingerprints.clear();
+        workspaceAssigner.committed();
     }
-    
-    private Topic getWikidataItemByEntityId (String id) {
-        return dm4.getTopicByUri(WikidataEntityMap.WD_ENTITY_BASE_URI + id);
-    }
-
-    private String getItemLabel(ItemDocument itemDocument) {
-        MonolingualTextValue value = null;
-        if (itemDocument.getLabels().size() > 1) {
-            if (itemDocument.getLabels().containsKey(this.isoLanguageCode)) {
-                value = itemDocument.getLabels().get(this.isoLanguageCode);
-            } else { // if no label (in configured language) is available, we take first available
-                for (String key : itemDocument.getLabels().keySet()) {
-                    value = itemDocument.getLabels().get(key);
-                    break;
-                }
+
+    /** Called by the writer once the writes of a batch are rolled back, what they created is gone. */
+    private void batchRolledBack() {
+        batchEdges.clear();
+        batchEdgeKeys.clear();
+        batchFingerprints.clear();
+        workspaceAssigner.rolledBack();
+        // the caches may hold topics created by the batch
+        itemTopicIds.clear();
+        languageCodes.clear();
+        properties.clear();
+        texts.clear();
+    }
+
+    /**
+     * The changes found in the statements of one item: its labels, coordinates, text claims and claim
+     * edges, written to the storage by one write, which creates or updates the item just once.
+     */
+    private static class ItemChanges {
+
+        final String itemId;
+        final String label;
+        final String description;
+
+        boolean updateItem = false;
+        double[] coordinates = null;
+        // text claims: value, type and GUID
+        final List<String[]> textClaims = new ArrayList<String[]>(1);
+        // claim edges: from item, to item, GUID and property, their qualifiers kept aside
+        final List<String[]> claimEdges = new ArrayList<String[]>(2);
+        final List<long[]> claimEdgeTimes = new ArrayList<long[]>(2);
+        // the raw qualifier values, fingerprinted instead of the times (which depend on the time zone)
+        final List<long[]> claimEdgeTimeKeys = new ArrayList<long[]>(2);
+
+        // the fingerprint to store with the item, if any
+        long fingerprint = WikidataFingerprintIndex.NO_FINGERPRINT;
+
+        ItemChanges(String itemId, String label, String description) {
+            this.itemId = itemId;
+            this.label = label;
+            this.description = description;
+        }
+
+        void addTextClaim(String value, String relationType, String statementGUID) {
+            textClaims.add(new String[] {value, relationType, statementGUID});
+        }
+
+        void addClaimEdge(String fromItemId, String toItemId, String statementGUID, String propertyId,
+                WikidataEntityRecord record, int index) {
+            claimEdges.add(new String[] {fromItemId, toItemId, statementGUID, propertyId});
+            claimEdgeTimes.add(new long[] {record.startTimes[index], record.endTimes[index]});
+            claimEdgeTimeKeys.add(new long[] {record.startTimeKeys[index], record.endTimeKeys[index]});
+        }
+
+        boolean isEmpty() {
+            return !updateItem && coordinates == null && textClaims.isEmpty() && claimEdges.isEmpty();
+        }
+
+        /** @return A hash of all changes, see {@link WikidataFingerprintIndex}. */
+        long fingerprint(long seed) {
+            long hash = WikidataFingerprintIndex.hash(seed, itemId);
+            hash = WikidataFingerprintIndex.hash(hash, (updateItem) ? label : null);
+            hash = WikidataFingerprintIndex.hash(hash, (updateItem) ? description : null);
+            if (coordinates != null) {
+                hash = WikidataFingerprintIndex.hash(hash, Double.doubleToLongBits(coordinates[0]));
+                hash = WikidataFingerprintIndex.hash(hash, Double.doubleToLongBits(coordinates[1]));
+            }
+            for (String[] claim : textClaims) {
+                for (String value : claim) hash = WikidataFingerprintIndex.hash(hash, value);
+            }
+            for (int i = 0; i < claimEdges.size(); i++) {
+                for (String value : claimEdges.get(i)) hash = WikidataFingerprintIndex.hash(hash, value);
+                for (long time : claimEdgeTimeKeys.get(i)) hash = WikidataFingerprintIndex.hash(hash, time);
             }
+            return WikidataFingerprintIndex.finish(hash);
         }
-        if (value == null) {
-            log.fine("Could not find ANY label for item (" 
-                + itemDocument.getEntityId().getId() + ", label=NULL)!");
-            return null;
+
+    }
+
+    /**
+     * @return  true if the changes of the item are the same as when it was imported before, otherwise
+     *          the new fingerprint of the item is kept with the changes, to be recorded once these are
+     *          written without errors and committed.
+     */
+    private boolean isUnchanged(ItemChanges changes) {
+        if (fingerprints == null) return false;
+        int item = WikidataIdCodec.encodeItem(changes.itemId);
+        if (item == WikidataIdCodec.NO_ID) return false;
+        long fingerprint = changes.fingerprint(fingerprintSeed);
+        if (fingerprints.get(item) == fingerprint) {
+            unchangedItems++;
+            return true;
         }
-        return value.getText();
+        changes.fingerprint = fingerprint;
+        return false;
     }
-    
-    private String getItemDescription(ItemDocument itemDocument) {
-        MonolingualTextValue value = null;
-        if (itemDocument.getLabels().size() > 1) {
-            if (itemDocument.getDescriptions().containsKey(this.isoLanguageCode)) {
-                value = itemDocument.getDescriptions().get(this.isoLanguageCode);
-            } else { // if no descr (in configured language) is available, we take first available
-                for (String key : itemDocument.getDescriptions().keySet()) {
-                    value = itemDocument.getDescriptions().get(key);
-                    break;
+
+    private void writeItemChanges(final ItemChanges changes) {
+        writer.submit(new WikidataBatchWriter.Write() {
+            @Override
+            public void apply() {
+                // an item without changes is of interest just if it was imported before
+                if (changes.isEmpty() && getWikidataItemByEntityId(changes.itemId) == null) return;
+                long errors = writeErrors;
+                // claims are removed first, so an edge between the same items may be created anew
+                if (incremental) updateClaims(changes);
+                if (changes.updateItem) {
+                    updateOrCreateWikidataItem(changes.itemId, changes.label, null, changes.description, isoLanguageCode);
+                }
+                if (changes.coordinates != null) attachGeoCoordinates(changes.coordinates, changes.itemId);
+                for (String[] claim : changes.textClaims) {
+                    createWikidataTextClaim(claim[0], claim[1], changes.itemId, claim[2]);
                 }
+                for (int i = 0; i < changes.claimEdges.size(); i++) {
+                    String[] edge = changes.claimEdges.get(i);
+                    long[] times = changes.claimEdgeTimes.get(i);
+                    createWikidataClaimEdge(edge[0], edge[1], edge[2], edge[3], times[0], times[1]);
+                }
+                // an item written in part is written again with the next import
+                if (changes.fingerprint != WikidataFingerprintIndex.NO_FINGERPRINT && writeErrors == errors) {
+                    if (changes.updateItem) {
+                        Topic item = getWikidataItemByEntityId(changes.itemId);
+                        if (item != null) item.setProperty(WIKIDATA_FINGERPRINT_PROP, changes.fingerprint, false);
+                    }
+                    batchFingerprints.add(new long[] {WikidataIdCodec.encodeItem(changes.itemId), changes.fingerprint});
+                }
+                if (workspaceAssigner.isFull()) workspaceAssigner.flush();
             }
+        });
+    }
+
+    /**
+     * Removes the claims made of statements the item does not have anymore and updates the claims of
+     * statements which changed, claims are told by the GUID of their statement ("Q42$..."). Text claims
+     * whose value changed are removed, so they are created anew with the other changes of the item.
+     */
+    private void updateClaims(ItemChanges changes) {
+        Topic item = getWikidataItemByEntityId(changes.itemId);
+        if (item == null) return;
+        Map<String, String> textClaims = new HashMap<String, String>();
+        for (String[] claim : changes.textClaims) {
+            textClaims.put(claim[2], claim[0]);
+        }
+        Map<String, Integer> claimEdgeIndices = new HashMap<String, Integer>();
+        for (int i = 0; i < changes.claimEdges.size(); i++) {
+            claimEdgeIndices.put(changes.claimEdges.get(i)[2], i);
         }
-        if (value == null) {
-            log.fine("Could not find ANY description for item (" 
-               + itemDocument.getEntityId().getId() + ", label=NULL)! --- Skippin Description");
-            return null;
+        String statementPrefix = changes.itemId + "$";
+        for (Association claim : item.getAssociations()) {
+            String statementGUID = claim.getUri();
+            if (statementGUID == null || !isClaimType(claim.getTypeUri())) continue;
+            // claims of statements made by other items are left to these items
+            if (!statementGUID.regionMatches(true, 0, statementPrefix, 0, statementPrefix.length())) continue;
+            if (claim.getTypeUri().equals(CLAIM_EDGE_TYPE)) {
+                Integer index = claimEdgeIndices.get(statementGUID);
+                if (index != null && refersTo(claim, item, changes.itemId, changes.claimEdges.get(index))) {
+                    long[] times = changes.claimEdgeTimes.get(index);
+                    updateQualifyingTimeProperties(claim, times[0], times[1]);
+                    continue;
+                }
+            } else {
+                String value = textClaims.get(statementGUID);
+                Topic text = claim.getTopic("dm4.core.child");
+                if (value != null && text != null && value.equals(text.getSimpleValue().toString())) continue;
+            }
+            log.fine("Removing claim " + statementGUID + " (" + claim.getTypeUri() + ") of " + changes.itemId
+                + " as its statement is gone");
+            claim.delete();
+            removedClaims++;
         }
-        return value.getText();
     }
-    
+
+    /** @return true if the given claim edge of an item still relates the item to the one the statement names. */
+    private boolean refersTo(Association claim, Topic item, String itemId, String[] claimEdge) {
+        String otherItemId = (claimEdge[0].equals(itemId)) ? claimEdge[1] : claimEdge[0];
+        DeepaMehtaObject other = (claim.getRole1().getPlayerId() == item.getId()) ? claim.getPlayer2() : claim.getPlayer1();
+        return other.getUri().equals(WikidataEntityMap.WD_ENTITY_BASE_URI + otherItemId);
+    }
+
+    private boolean isClaimType(String assocTypeUri) {
+        for (String claimType : CLAIM_TYPES) {
+            if (claimType.equals(assocTypeUri)) return true;
+        }
+        return false;
+    }
+
     /**
-     * Creates a wikidata item placeholder topic through just setting the uri, which is 
-     * needed to relate claims too this item before it occured in the dump.
+     * Hands over the claim edges kept pending to the writer, ordered by the item they start at. Edges
+     * referring to an item still not imported are left out and just counted, no placeholder topics
+     * are created for such items. To be called once the writer applied all other writes.
      */
-    private Topic createMinimalWikidataItem(String itemId) {
-        // Topic item = getWikidataItemByEntityId(itemId); // should be just called if no item exists
-        Topic item = null;
-        try {
-            TopicModel wikidataItemTopicModel = null;
-            wikidataItemTopicModel = mf.newTopicModel(WikidataEntityMap.WD_ENTITY_BASE_URI + itemId,
-                "org.deepamehta.wikidata.item");
-            item = dm4.createTopic(wikidataItemTopicModel);
-            if (item != null) {
-                // OK
-                workspaceService.assignToWorkspace(item, wikidataWorkspace.getId());
-                // log.info("CREATED minimal Wikidata Topic for item " + itemId + ":" + item.getSimpleValue());
+    private void resolvePendingEdges() {
+        if (pendingEdges.size() == 0) return;
+        log.info("Resolving " + pendingEdges.size() + " claim edges referring to items imported later on");
+        pendingEdges.sortByFrom();
+        for (int start = 0; start < pendingEdges.size(); start += PENDING_EDGES_PER_WRITE) {
+            final int from = start;
+            final int to = Math.min(start + PENDING_EDGES_PER_WRITE, pendingEdges.size());
+            writer.submit(new WikidataBatchWriter.Write() {
+                @Override
+                public void apply() {
+                    resolvePendingEdges(from, to);
+                    if (workspaceAssigner.isFull()) workspaceAssigner.flush();
+                }
+            });
+        }
+    }
+
+    private void resolvePendingEdges(int from, int to) {
+        for (int i = from; i < to; i++) {
+            String fromItemId = WikidataIdCodec.decodeItem(pendingEdges.getFrom(i));
+            String toItemId = WikidataIdCodec.decodeItem(pendingEdges.getTo(i));
+            Topic fromPlayer = getWikidataItemByEntityId(fromItemId);
+            Topic toPlayer = getWikidataItemByEntityId(toItemId);
+            if (fromPlayer == null || toPlayer == null) {
+                if (fromPlayer == null) danglingItems.add(pendingEdges.getFrom(i));
+                if (toPlayer == null) danglingItems.add(pendingEdges.getTo(i));
+                danglingEdges++;
+                if (fingerprints != null) forgetFingerprint(pendingEdges.getGuid(i), i);
+                log.fine("Leaving out claim edge " + pendingEdges.getGuid(i) + " from " + fromItemId + " to "
+                    + toItemId + ", " + ((fromPlayer == null) ? fromItemId : toItemId) + " is not imported");
+                continue;
+            }
+            long errors = writeErrors;
+            Association claimEdge = createWikidataClaimEdge(fromPlayer, toPlayer, pendingEdges.getGuid(i),
+                WikidataIdCodec.decodeProperty(pendingEdges.getProperty(i)));
+            if (writeErrors != errors && fingerprints != null) forgetFingerprint(pendingEdges.getGuid(i), i);
+            if (claimEdge != null) {
+                storeQualifyingTimeProperties(claimEdge, pendingEdges.getStartTime(i), pendingEdges.getEndTime(i));
+            }
+            resolvedEdges++;
+        }
+    }
+
+    /**
+     * Forgets the fingerprint of the item making the statement of a claim edge left out, so the item
+     * is written again (and the edge created) with the next import. The item is told by the GUID of
+     * the statement ("Q42$..."), if it can't be told, both items of the edge are written again.
+     */
+    private void forgetFingerprint(String statementGUID, int edge) {
+        int separator = (statementGUID != null) ? statementGUID.indexOf('$') : -1;
+        int item = (separator > 0) ? WikidataIdCodec.encodeItem(statementGUID.substring(0, separator).toUpperCase())
+            : WikidataIdCodec.NO_ID;
+        if (item != WikidataIdCodec.NO_ID) {
+            fingerprints.clear(item);
+        } else {
+            fingerprints.clear(pendingEdges.getFrom(edge));
+            fingerprints.clear(pendingEdges.getTo(edge));
+        }
+    }
+
+    /** Hands over the assignment of the objects collected (in bulk mode) to the writer. */
+    private void writeWorkspaceAssignments() {
+        writer.submit(new WikidataBatchWriter.Write() {
+            @Override
+            public void apply() {
+                workspaceAssigner.flush();
+            }
+        });
+    }
+
+    private Topic getWikidataItemByPropertyId (String propertyUri) {
+        Topic property = properties.get(propertyUri);
+        if (property == null) {
+            property = dm4.getTopicByUri(propertyUri);
+            properties.put(propertyUri, property);
+        }
+        return property;
+    }
+    
+    private Topic getWikidataItemByEntityId (String id) {
+        String uri = WikidataEntityMap.WD_ENTITY_BASE_URI + id;
+        int item = WikidataIdCodec.encodeItem(id);
+        if (item != WikidataIdCodec.NO_ID) {
+            long topicId = itemTopicIds.get(item);
+            if (topicId != WikidataTopicIdCache.NOT_CACHED) {
+                try {
+                    Topic topic = dm4.getTopic(topicId);
+                    if (uri.equals(topic.getUri())) return topic;
+                } catch (RuntimeException e) { // e.g. created in a transaction rolled back since
+                    log.fine("Cached topic " + topicId + " of item " + id + " is gone");
+                }
+                itemTopicIds.remove(item);
             }
-        } catch (Exception re) {
-            log.log(Level.SEVERE, "ERROR: Could not create wikidata item topic", re);
         }
-        return item;
+        Topic topic = dm4.getTopicByUri(uri);
+        if (topic != null) cacheItemTopic(id, topic);
+        return topic;
+    }
+
+    private void cacheItemTopic(String itemId, Topic topic) {
+        int item = WikidataIdCodec.encodeItem(itemId);
+        if (item != WikidataIdCodec.NO_ID) itemTopicIds.put(item, topic.getId());
     }
 
     private void updateOrCreateWikidataItem(String itemId, String name, String alias, String description, String language) {
@@ -601,9 +723,11 @@ public class WikidataGeodataProcessor implements EntityDocumentProcessor {
             Topic wikidataTopic = dm4.createTopic(wikidataItemTopicModel);
             if (wikidataTopic != null) {
                 // OK
-                workspaceService.assignToWorkspace(wikidataTopic, wikidataWorkspace.getId());
+                cacheItemTopic(itemId, wikidataTopic);
+                workspaceAssigner.assign(wikidataTopic);
             } else {
                 log.warning(" Could not create Wikidata Topic for item " + itemId);
+                writeErrors++;
             }
         } catch (Exception re) {
             throw new RuntimeException("ERROR: Could not create wikidata item topic", re);
@@ -701,10 +825,12 @@ public class WikidataGeodataProcessor implements EntityDocumentProcessor {
                         dm4.updateTopic(updatedItem);
                     } catch (Exception error) {
                         log.log(Level.SEVERE, "could not attach coordinates to item " + itemId, error);
+                        writeErrors++;
                     }
                 }
         } else { // no wikidata item found
             log.warning("No wikidata item " + itemId + " found for assigning geo-coordinates");
+            writeErrors++;
         }
     }
 
@@ -728,59 +854,33 @@ public class WikidataGeodataProcessor implements EntityDocumentProcessor {
     /**
      * Store timestamps for an edge qualifying it's lifetime in our DB.
      */
-    private void storeQualifyingTimeProperties(Association claim, Statement s) {
+    private void storeQualifyingTimeProperties(Association claim, long startTime, long endTime) {
         // 0) fetch claim edge via uri (yet not possible with dm4-core)
-        /** String statementGUID = s.getStatementId();
-        log.info("Try to fetch assoc by statementUID " + statementGUID + " .... " );
-        Topic actuallyAssoc = dm4.getTopic("uri", new Simp  leValue(statementGUID)); */
         // 1) store properties to claim edge
-        List<SnakGroup> qualifierGroups = s.getClaim().getQualifiers();
-        if (qualifierGroups.size() > 0) log.info("> Claim to qualify is " + claim.getUri() + " id: " + claim.getId());
-        for (SnakGroup statement : qualifierGroups) {
-            if (statement.getProperty().getId().contains(WikidataEntityMap.STARTED_AT)) {
-                for (Snak snak : statement.getSnaks()) {
-                    try {
-                        Value snakValue = ((ValueSnak) snak).getValue(); // JacksonNoValueSnack or NoValueSnack will throw an exception
-                        if (snakValue instanceof TimeValue || snakValue instanceof JacksonValueTime) {
-                                TimeValue value = (TimeValue) snakValue;
-                                Calendar calendar = new GregorianCalendar();
-                                int year = (int) value.getYear();
-                                int month = value.getMonth();
-                                calendar.set(year, month, value.getDay(), value.getHour(), value.getMinute(), value.getSecond());
-                                Date date = calendar.getTime();
-                                if (date != null) {
-                                    log.info(">> Statement ("+statement.getProperty().getId()+") has a qualified START_DATE: " + date.getTime() + " (Year: " + value.getYear() + ")");
-                                    claim.setProperty(WIKIDATA_START_TIME_PROP, date.getTime(), true);
-                                }
-                        }
-                    } catch (Exception e) {
-                        log.log(Level.WARNING, "Could not parse and convert TimeValue into a Date, due to a ", e);
-                    }
-                }
-            } else if (statement.getProperty().getId().contains(WikidataEntityMap.ENDED_AT)) {
-                for (Snak snak : statement.getSnaks()) {
-                    try {
-                        Value snakValue = ((ValueSnak) snak).getValue(); // JacksonNoValueSnack or NoValueSnack will throw an exception
-                        if (snakValue instanceof TimeValue || snakValue instanceof JacksonValueTime) {
-                            TimeValue value = (TimeValue) snakValue;
-                            Calendar calendar = new GregorianCalendar();
-                            int year = (int) value.getYear();
-                            int month = value.getMonth();
-                            calendar.set(year, month, value.getDay(), value.getHour(), value.getMinute(), value.getSecond());
-                            Date date = calendar.getTime();
-                            if (date != null) {
-                                log.info(">> Statement ("+statement.getProperty().getId()+") has a qualified END_DATE: " + date.getTime() + " (Year: " + value.getYear() + ")");
-                                claim.setProperty(WIKIDATA_END_TIME_PROP, date.getTime(), true);
-                            }
-                        }
-                    } catch (Exception e) {
-                        log.log(Level.WARNING, "Could not parse and convert TimeValue into a Date, due to a ", e);
-                    }
-                }
-            }
+        if (startTime != WikidataEntityRecord.NO_TIME || endTime != WikidataEntityRecord.NO_TIME) {
+            log.info("> Claim to qualify is " + claim.getUri() + " id: " + claim.getId());
+        }
+        if (startTime != WikidataEntityRecord.NO_TIME) {
+            log.info(">> Statement (" + WikidataEntityMap.STARTED_AT + ") has a qualified START_DATE: " + startTime);
+            claim.setProperty(WIKIDATA_START_TIME_PROP, startTime, true);
+        }
+        if (endTime != WikidataEntityRecord.NO_TIME) {
+            log.info(">> Statement (" + WikidataEntityMap.ENDED_AT + ") has a qualified END_DATE: " + endTime);
+            claim.setProperty(WIKIDATA_END_TIME_PROP, endTime, true);
         }
     }
 
+    /** Stores the timestamps of an edge, removing those its statement is not qualified with anymore. */
+    private void updateQualifyingTimeProperties(Association claim, long startTime, long endTime) {
+        if (startTime == WikidataEntityRecord.NO_TIME && claim.hasProperty(WIKIDATA_START_TIME_PROP)) {
+            claim.removeProperty(WIKIDATA_START_TIME_PROP);
+        }
+        if (endTime == WikidataEntityRecord.NO_TIME && claim.hasProperty(WIKIDATA_END_TIME_PROP)) {
+            claim.removeProperty(WIKIDATA_END_TIME_PROP);
+        }
+        storeQualifyingTimeProperties(claim, startTime, endTime);
+    }
+
     /** ### see Ticket 804 private Topic getLatitudeTopicByValue(double value) {
         return dm4.getTopic("dm4.geomaps.latitude", new SimpleValue(value));
     }
@@ -791,17 +891,37 @@ public class WikidataGeodataProcessor implements EntityDocumentProcessor {
 
     private Topic getLanguageIsoCodeTopicByValue(String iso_code) {
         // ### TODO: These language value topics are only present when the dm4-wikidata module is also installed.
-        return dm4.getTopicByValue("org.deepamehta.wikidata.language_code", new SimpleValue(iso_code));
+        Topic languageCode = languageCodes.get(iso_code);
+        if (languageCode == null) {
+            languageCode = dm4.getTopicByValue("org.deepamehta.wikidata.language_code", new SimpleValue(iso_code));
+            languageCodes.put(iso_code, languageCode);
+        }
+        return languageCode;
+    }
+
+    /**
+     * @return  The given string value as stored in text topics by former imports, which took the WDTK
+     *          representation of the value (<code>StringValue.toString()</code>: in quotes, quotes within
+     *          escaped) and removed all quotes, so a quote within the value is stored as a backslash.
+     */
+    private static String textClaimValue(String value) {
+        return value.replace('"', '\\');
     }
 
     private Topic getWikidataTextTopic(String text_value) {
         if (text_value.contains("\"")) text_value = text_value.replaceAll("\"", "");
-        return dm4.getTopicByValue("org.deepamehta.wikidata.text", new SimpleValue(text_value));
+        Topic text = texts.get(text_value);
+        if (text == null) {
+            text = dm4.getTopicByValue("org.deepamehta.wikidata.text", new SimpleValue(text_value));
+            texts.put(text_value, text);
+        }
+        return text;
     }
 
     private Topic createWikidataTextTopic(String text_value) {
         if (text_value.contains("\"")) text_value = text_value.replaceAll("\"", "");
         Topic countryCode = dm4.createTopic(mf.newTopicModel("org.deepamehta.wikidata.text", new SimpleValue(text_value)));
+        texts.put(text_value, countryCode);
         return countryCode;
     }
 
@@ -833,26 +953,43 @@ public class WikidataGeodataProcessor implements EntityDocumentProcessor {
     } */
     
     /** Creates a (non-hierarchical) wikidata claim edge (default), due to timestamps bubbling up **parents**. */
-    private Association createWikidataClaimEdge (String fromItemId, String toItemId, String statementGUID, PropertyIdValue propertyEntityId) {
-        Association relation = null;
+    /**
+     * Creates a claim edge between two items, or keeps it among the pending edges if one of the items
+     * is not imported (yet), see {@link #resolvePendingEdges}.
+     */
+    private void createWikidataClaimEdge (String fromItemId, String toItemId, String statementGUID, String propertyId,
+            long startTime, long endTime) {
         Topic fromPlayer = getWikidataItemByEntityId(fromItemId);
-        String relationType = "org.deepamehta.wikidata.claim_edge";
-        if (fromPlayer == null) {
-            log.fine("Could not find Wikidata Item topic to related country code too! - creating minimal wikidata item");
-            fromPlayer = createMinimalWikidataItem(fromItemId);
+        Topic toPlayer = getWikidataItemByEntityId(toItemId);
+        if (fromPlayer != null && toPlayer != null) {
+            Association claimEdge = createWikidataClaimEdge(fromPlayer, toPlayer, statementGUID, propertyId);
+            if (claimEdge != null) storeQualifyingTimeProperties(claimEdge, startTime, endTime);
+            return;
         }
-        // get or do create (minimal) wikidata item topic
-        Topic wikidataItemTopic = getWikidataItemByEntityId(toItemId);
-        if (wikidataItemTopic == null) {
-            wikidataItemTopic = createMinimalWikidataItem(toItemId);
+        int fromItem = WikidataIdCodec.encodeItem(fromItemId);
+        int toItem = WikidataIdCodec.encodeItem(toItemId);
+        int property = WikidataIdCodec.encodeProperty(propertyId);
+        if (fromItem == WikidataIdCodec.NO_ID || toItem == WikidataIdCodec.NO_ID || property == WikidataIdCodec.NO_ID) {
+            log.warning("Skipping claim edge " + statementGUID + " from " + fromItemId + " to " + toItemId
+                + " (" + propertyId + "), the ids are not understood");
+            return;
         }
+        log.fine("Claim edge " + statementGUID + " refers to an item not imported yet, resolving it at the end");
+        pendingEdges.add(fromItem, toItem, property, statementGUID, startTime, endTime);
+    }
+
+    private Association createWikidataClaimEdge (Topic fromPlayer, Topic wikidataItemTopic, String statementGUID,
+            String propertyId) {
+        Association relation = null;
+        String propertyEntityUri = WikidataEntityMap.WD_ENTITY_BASE_URI + propertyId;
+        String relationType = CLAIM_EDGE_TYPE;
         if (!associationAlreadyExists(fromPlayer.getId(), wikidataItemTopic.getId(), relationType)) {
-            Topic propertyEntityTopic = getWikidataItemByPropertyId(propertyEntityId.getIri());
+            Topic propertyEntityTopic = getWikidataItemByPropertyId(propertyEntityUri);
             ChildTopicsModel assocModel = null;
             if (propertyEntityTopic == null) { // do create new property entity topic
                 assocModel = mf.newChildTopicsModel()
                     .put("org.deepamehta.wikidata.property", mf.newTopicModel(
-                            propertyEntityId.getIri(), "org.deepamehta.wikidata.property"));
+                            propertyEntityUri, "org.deepamehta.wikidata.property"));
             } else {
                 assocModel = mf.newChildTopicsModel()
                     .putRef("org.deepamehta.wikidata.property", propertyEntityTopic.getId());
@@ -863,14 +1000,16 @@ public class WikidataGeodataProcessor implements EntityDocumentProcessor {
                         mf.newTopicRoleModel(wikidataItemTopic.getId(), "dm4.core.default"), assocModel));
                 if (relation != null) {
                     relation.setUri(statementGUID);
+                    if (claimEdges != null) addBatchEdge(fromPlayer.getId(), wikidataItemTopic.getId());
                     log.fine("Created new \""+relationType+"\" relationship for " + fromPlayer.getUri()+
-                            " to " + wikidataItemTopic.getUri()+ " (" + wikidataItemTopic.getSimpleValue() + ") with Prop: "+propertyEntityId+" GUID: \""
+                            " to " + wikidataItemTopic.getUri()+ " (" + wikidataItemTopic.getSimpleValue() + ") with Prop: "+propertyId+" GUID: \""
                             + relation.getUri() + "\"");
-                    workspaceService.assignToWorkspace(relation, wikidataWorkspace.getId());
+                    workspaceAssigner.assign(relation);
                     // relation.setSimpleValue(relationName);
                 }
             } catch (Exception e) {
                 log.log(Level.SEVERE, e.getMessage(), e);
+                writeErrors++;
             }
         } // wikidata claim edge relation (with default, default) ### already exists
         return relation;
@@ -880,8 +1019,10 @@ public class WikidataGeodataProcessor implements EntityDocumentProcessor {
         Association relation = null;
         Topic fromPlayer = getWikidataItemByEntityId(forItemId);
         if (fromPlayer == null) {
-            log.warning("Could not find Wikidata Item topic to related country code too! - creating minimal wikidata item");
-            fromPlayer = createMinimalWikidataItem(forItemId);
+            log.warning("Could not find Wikidata Item topic " + forItemId + " to relate the text \"" + textValue
+                + "\" to, skipping the claim " + statementGUID);
+            writeErrors++;
+            return;
         }
         // 
         Topic textTopic = getWikidataTextTopic(textValue);
@@ -898,21 +1039,38 @@ public class WikidataGeodataProcessor implements EntityDocumentProcessor {
                     log.fine("Created new \""+relationType+"\" relationship for " + fromPlayer.getUri()+
                             " to " + textTopic.getSimpleValue() + ") with \"" + relationType + "\" - GUID: \""
                             + relation.getUri() + "\"");
-                    workspaceService.assignToWorkspace(relation, wikidataWorkspace.getId());
+                    workspaceAssigner.assign(relation);
                     // relation.setSimpleValue(relationName);
                 }
 
             } catch (Exception e) {
                 log.log(Level.SEVERE, e.getMessage(), e);
+                writeErrors++;
             }
         } // wikidata text claim (with text as child forItemId arleady exists)
     }
 
     private boolean associationAlreadyExists (long playerOne, long playerTwo, String assocTypeUri) {
+        if (claimEdges != null) {
+            // edges created by the current batch are not known to the filter before the commit
+            if (batchEdgeKeys.contains(batchEdgeKey(playerOne, playerTwo))) return true;
+            Boolean exists = claimEdges.exists(playerOne, playerTwo, assocTypeUri);
+            if (exists != null) return exists;
+        }
         Association assoc = dm4.getAssociation(assocTypeUri, playerOne, playerTwo, "dm4.core.default", "dm4.core.default");
         if (assoc == null) return false;
+        if (claimEdges != null) claimEdges.add(playerOne, playerTwo, assocTypeUri);
         return true;
     }
+
+    private void addBatchEdge(long playerOne, long playerTwo) {
+        if (batchEdgeKeys.add(batchEdgeKey(playerOne, playerTwo))) batchEdges.add(new long[] {playerOne, playerTwo});
+    }
+
+    /** Claim edges are undirected, the same key is made whichever way round the players are given. */
+    private static String batchEdgeKey(long playerOne, long playerTwo) {
+        return (playerOne < playerTwo) ? playerOne + " " + playerTwo : playerTwo + " " + playerOne;
+    }
     
     private boolean hierarchicalAssociationAlreadyExists (long parentId, long childId, String assocTypeUri) {
         Association assoc = dm4.getAssociation(assocTypeUri, parentId, childId, "dm4.core.parent", "dm4.core.child");
@@ -930,7 +1088,10 @@ public class WikidataGeodataProcessor implements EntityDocumentProcessor {
      * Prints a report about the statistics gathered so far.
      */
     private void printProcessingStatus() {
-        log.info("Processed " + this.entityCount + " items from the wikidata json-dump.");
+        log.info("Processed " + this.entityCount + " items from the wikidata json-dump, " + itemTopicIds
+            + ", " + languageCodes + ", " + properties + ", " + texts
+            + ((claimEdges != null) ? ", " + claimEdges : "") + ((writer != null) ? ", " + writer : "")
+            + ", " + workspaceAssigner);
     }
 
     /**
@@ -938,13 +1099,12 @@ public class WikidataGeodataProcessor implements EntityDocumentProcessor {
      * as to print an intermediate report roughly every ten seconds.
      */
     private void countEntity() {
-       if (!this.timer.isRunning()) {
+       if (this.timerStartedAt == 0) {
            startTimer();
        }
        this.entityCount++;
        if (this.entityCount % 100 == 0) {
-           timer.stop();
-           int seconds = (int) (timer.getTotalWallTime() / 1000000000);
+           int seconds = getSeconds();
            if (seconds >= this.lastSeconds + 10) {
                this.lastSeconds = seconds;
                printProcessingStatus();
@@ -953,28 +1113,131 @@ public class WikidataGeodataProcessor implements EntityDocumentProcessor {
                    throw new TimeoutException();
                }
            }
-           timer.start();
        }
     }
 
+    /** @return The seconds passed since this processor got its first entity. */
+    private int getSeconds() {
+        return (timerStartedAt == 0) ? 0 : (int) ((System.nanoTime() - timerStartedAt) / 1000000000L);
+    }
+
+    /**
+     * Waits for the writer to apply and commit all writes handed over so far. Claim edges kept pending
+     * are just created at the end, these are saved to the given file.
+     */
+    @Override
+    public boolean commit(File stateFile) {
+        if (writer != null) {
+            writeWorkspaceAssignments();
+            writer.flush();
+        }
+        try {
+            pendingEdges.save(stateFile);
+            return true;
+        } catch (IOException e) {
+            log.warning("Could not save " + pendingEdges.size() + " pending claim edges to " + stateFile.getPath()
+                + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /** Adds the claim edges kept pending when the checkpoint to continue at was stored. */
+    @Override
+    public boolean resume(File stateFile) {
+        try {
+            int count = pendingEdges.load(stateFile);
+            log.info("Continuing with " + count + " pending claim edges saved at " + stateFile.getPath());
+            return true;
+        } catch (IOException e) {
+            log.warning("Could not read the pending claim edges saved at " + stateFile.getPath() + ": "
+                + e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public int getEntityCount() {
+        return this.entityCount;
+    }
+
+    @Override
+    public WikidataEntityExtractor getEntityExtractor() {
+        return entityExtractor;
+    }
+
+    @Override
+    public WikidataLineFilter getLineFilter() {
+        return lineFilter(doPersons, doInstitutions, doCities, doCountries, storeGeoCoordinates);
+    }
+
+    static WikidataLineFilter lineFilter(boolean doPersons, boolean doInstitutions, boolean doCities,
+            boolean doCountries, boolean storeGeoCoordinates) {
+        WikidataLineFilter filter = new WikidataLineFilter();
+        if (doPersons) filter.addClasses(WikidataEntityMap.HUMAN_ITEM, WikidataEntityMap.PERSON_ITEM);
+        if (doInstitutions) filter.addClasses(WikidataEntityMap.COMPANY_ITEM, WikidataEntityMap.UNIVERSITY_ITEM,
+            WikidataEntityMap.ORGANISATION_ITEM, WikidataEntityMap.COLLEGIATE_UNIVERSITY_ITEM);
+        if (doCities) filter.addClasses(WikidataEntityMap.CITY_ITEM, WikidataEntityMap.METROPOLIS_ITEM,
+            WikidataEntityMap.CAPITAL_CITY_ITEM);
+        if (doCountries) filter.addClasses(WikidataEntityMap.COUNTRY_ITEM, WikidataEntityMap.SOVEREIGN_STATE_ITEM,
+            WikidataEntityMap.STATE_ITEM);
+        if (storeGeoCoordinates) filter.addProperties(WikidataEntityMap.GEO_COORDINATES);
+        filter.addProperties(WikidataEntityMap.IS_ISO_THREE_LETTER_CODE, WikidataEntityMap.IS_NUTS_CODE,
+            WikidataEntityMap.OSM_RELATION_ID, WikidataEntityMap.IS_COUNTRY, WikidataEntityMap.IS_CAPITAL,
+            WikidataEntityMap.IS_LOCATED_IN_ADMIN_T, WikidataEntityMap.CONTAINS_ADMIN_T_ENTITY);
+        return filter;
+    }
+
     /**
-     * Stops the processing and prints the final time.
+     * Stops the processing and prints the final time. The writer is stopped, the fingerprints of the
+     * items committed are saved and the pending edges are dropped even if a write failed, the failure
+     * is rethrown then.
      */
+    @Override
     public void stop() {
-        if (tx != null) {
-            tx.success();
-            tx.finish();
+        RuntimeException failure = null;
+        if (writer != null) {
+            try {
+                writer.flush();
+                resolvePendingEdges();
+                writeWorkspaceAssignments();
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+            try {
+                writer.close();
+            } catch (RuntimeException e) {
+                if (failure == null) failure = e;
+            }
+            writer = null;
+            log.info("Resolved " + resolvedEdges + " pending claim edges, " + danglingEdges + " edges are left out as "
+                + danglingItems.cardinality() + " items they refer to are not imported");
+            if (incremental) log.info("Removed " + removedClaims + " claims of statements gone from changed items");
+            if (fingerprints != null) {
+                log.info("Skipped " + unchangedItems + " items unchanged since the last import");
+                if (failure != null) {
+                    // the pending edges may not all be created, their items are written again next time
+                    for (int i = 0; i < pendingEdges.size(); i++) {
+                        forgetFingerprint(pendingEdges.getGuid(i), i);
+                    }
+                }
+                fingerprints.save();
+            }
         }
+        pendingEdges.close();
         printProcessingStatus();
         log.info("Wikidata Timestamps Start: "+importStartedAt.toString() +" Stop:" + new Date().toString());
         log.info("Finished importing.");
-        this.timer.stop();
-        this.lastSeconds = (int) (timer.getTotalWallTime() / 1000000000);
+        this.lastSeconds = getSeconds();
+        itemTopicIds.clear();
+        languageCodes.clear();
+        properties.clear();
+        texts.clear();
+        if (failure != null) throw failure;
     }
 
     private void startTimer() {
         log.info("Starting processing ("+timeout+" sec) wikidata JSON dump.");
-        this.timer.start();
+        this.timerStartedAt = System.nanoTime();
     }
 
     public class TimeoutException extends RuntimeException {
@@ -0,0 +1,54 @@
+package org.deepamehta.plugins.wdtk;
+
+/**
+ * Turns wikidata entity ids into ints and back, e.g. the item id <code>"Q12345"</code> into
+ * <code>12345</code>. Item and property ids are encoded into the same range of (positive) numbers,
+ * so the kind of entity must be known from where an encoded id is used.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataIdCodec {
+
+    /** Returned for anything not being an entity id. */
+    static final int NO_ID = -1;
+
+    private static final int MAX_DIGITS = 9;
+
+    private WikidataIdCodec() {
+    }
+
+    /** @return The number of the given item id ("Q12345"), or NO_ID if it is none. */
+    static int encodeItem(String itemId) {
+        return encode(itemId, 'Q');
+    }
+
+    /** @return The number of the given property id ("P31"), or NO_ID if it is none. */
+    static int encodeProperty(String propertyId) {
+        return encode(propertyId, 'P');
+    }
+
+    static String decodeItem(int id) {
+        return "Q" + id;
+    }
+
+    static String decodeProperty(int id) {
+        return "P" + id;
+    }
+
+    private static int encode(String entityId, char kind) {
+        if (entityId == null) return NO_ID;
+        int length = entityId.length();
+        if (length < 2 || length > MAX_DIGITS + 1 || entityId.charAt(0) != kind) return NO_ID;
+        int id = 0;
+        for (int i = 1; i < length; i++) {
+            char c = entityId.charAt(i);
+            if (c < '0' || c > '9') return NO_ID;
+            id = id * 10 + (c - '0');
+        }
+        return (id > 0) ? id : NO_ID;
+    }
+
+}
@@ -0,0 +1,191 @@
+package org.deepamehta.plugins.wdtk;
+
+import de.deepamehta.core.Topic;
+import de.deepamehta.core.service.CoreService;
+import de.deepamehta.core.storage.spi.DeepaMehtaTransaction;
+import java.io.File;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Records how far an import got through a wikidata dump, so an import which timed out or was killed
+ * can be continued later on instead of starting again with the first entity of the dump.
+ *
+ * Checkpoints are stored as properties of the importer settings topic. They name the dump file and
+ * the processor used, the position in the dump file right after the last batch of entities which
+ * was completely imported (see {@link WikidataDumpFileStream.Positions}), the number of lines read up
+ * to there and the number of entities imported in total.
+ *
+ * A checkpoint is just stored if the processor was able to commit all entities processed so far,
+ * while processing as well as when the processing was interrupted. What a processor keeps in memory
+ * until it is stopped (e.g. claim edges referring to items not imported yet) is saved to a state file
+ * named after the checkpoint (<code>checkpoint-&lt;settings topic id&gt;.state</code>) and restored
+ * when the import continues at the checkpoint. Processors unable to save their state get no
+ * checkpoints, continuing the import would lose the entities they keep.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataImportCheckpoint implements WikidataDumpPipeline.BatchListener {
+
+    private Logger log = Logger.getLogger(getClass().getName());
+
+    /** Batches of lines (of 1024 lines at most) to process between two checkpoints. */
+    static final int CHECKPOINT_BATCHES = 64;
+
+    private static final String CHECKPOINT_DUMP_FILE    = "org.deepamehta.wikidata.checkpoint_dump_file";
+    private static final String CHECKPOINT_PROCESSOR    = "org.deepamehta.wikidata.checkpoint_processor";
+    private static final String CHECKPOINT_FILE_OFFSET  = "org.deepamehta.wikidata.checkpoint_file_offset";
+    private static final String CHECKPOINT_SKIP_BYTES   = "org.deepamehta.wikidata.checkpoint_skip_bytes";
+    private static final String CHECKPOINT_LINES        = "org.deepamehta.wikidata.checkpoint_lines";
+    private static final String CHECKPOINT_ENTITIES     = "org.deepamehta.wikidata.checkpoint_entities";
+
+    private static final String[] CHECKPOINT_PROPERTIES = {CHECKPOINT_DUMP_FILE, CHECKPOINT_PROCESSOR,
+        CHECKPOINT_FILE_OFFSET, CHECKPOINT_SKIP_BYTES, CHECKPOINT_LINES, CHECKPOINT_ENTITIES};
+
+    private final CoreService dm4;
+    private final Topic importerSettings;
+    private final String dumpFile;
+    private final WikidataImportProcessor processor;
+    private final File stateFile;
+
+    // the position this import started at
+    private long[] startPosition = {0, 0};
+    private long startLines = 0;
+    private long startEntities = 0;
+
+    // the position right after the last batch processed
+    private long[] lastPosition = null;
+    private long lines = 0;
+    private int entities = 0;
+    private int batches = 0;
+
+    /**
+     * Loads the checkpoint stored for the given importer settings, if it was stored for the same dump
+     * file and processor, and restores the state the processor saved along with it.
+     *
+     * @param   dumpFile        The name of the dump file to import.
+     * @param   stateDirectory  The directory to keep the state files of the processor in.
+     */
+    WikidataImportCheckpoint(CoreService dm4, Topic importerSettings, String dumpFile,
+            WikidataImportProcessor processor, File stateDirectory) {
+        this.dm4 = dm4;
+        this.importerSettings = importerSettings;
+        this.dumpFile = dumpFile;
+        this.processor = processor;
+        this.stateFile = new File(stateDirectory, "checkpoint-" + importerSettings.getId() + ".state");
+        if (importerSettings.hasProperty(CHECKPOINT_DUMP_FILE)) {
+            String storedDumpFile = (String) importerSettings.getProperty(CHECKPOINT_DUMP_FILE);
+            String storedProcessor = (String) importerSettings.getProperty(CHECKPOINT_PROCESSOR);
+            if (!storedDumpFile.equals(dumpFile) || !storedProcessor.equals(getProcessorName())) {
+                log.info("Ignoring the checkpoint stored for " + storedDumpFile + " (" + storedProcessor
+                    + "), starting the import of " + dumpFile + " with its first entity");
+            } else if (!processor.resume(stateFile)) {
+                log.warning("Could not restore the state saved with the checkpoint of " + dumpFile
+                    + ", starting the import with its first entity");
+            } else {
+                startPosition = new long[] {(Long) importerSettings.getProperty(CHECKPOINT_FILE_OFFSET),
+                    (Long) importerSettings.getProperty(CHECKPOINT_SKIP_BYTES)};
+                startLines = (Long) importerSettings.getProperty(CHECKPOINT_LINES);
+                startEntities = (Long) importerSettings.getProperty(CHECKPOINT_ENTITIES);
+                log.info("Continuing the import of " + dumpFile + " after line " + startLines + " ("
+                    + startEntities + " entities were imported before)");
+            }
+        }
+    }
+
+    /** @return The position to open the dump file at (see {@link WikidataDumpFileStream#open}). */
+    long[] getStartPosition() {
+        return startPosition;
+    }
+
+    @Override
+    public void batchProcessed(long[] filePosition, int batchLines) {
+        lastPosition = filePosition;
+        lines += batchLines;
+        entities = processor.getEntityCount();
+        batches++;
+        if (batches % CHECKPOINT_BATCHES == 0 && lastPosition != null
+                && processor.commit(stateFile)) {
+            store();
+        }
+    }
+
+    /**
+     * Stores a checkpoint right after the last batch processed, if the processor commits all entities
+     * processed up to there. To be called before the processor is stopped, if the dump was not
+     * processed completely.
+     */
+    void interrupted() {
+        if (lastPosition == null) return;
+        try {
+            if (processor.commit(stateFile)) {
+                store();
+            } else {
+                log.info("No checkpoint stored after line " + (startLines + lines) + " of " + dumpFile
+                    + ", as the processor keeps entities in memory it could not save");
+            }
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, "Could not commit the entities processed, no checkpoint stored", e);
+        }
+    }
+
+    /** Removes the checkpoint once the complete dump was processed (and the processor stopped). */
+    void completed() {
+        log.info("Imported all entities of " + dumpFile + ", removing the checkpoint");
+        clear();
+    }
+
+    private void store() {
+        DeepaMehtaTransaction tx = dm4.beginTx();
+        try {
+            importerSettings.setProperty(CHECKPOINT_DUMP_FILE, dumpFile, false);
+            importerSettings.setProperty(CHECKPOINT_PROCESSOR, getProcessorName(), false);
+            importerSettings.setProperty(CHECKPOINT_FILE_OFFSET, lastPosition[0], false);
+            importerSettings.setProperty(CHECKPOINT_SKIP_BYTES, lastPosition[1], false);
+            importerSettings.setProperty(CHECKPOINT_LINES, startLines + lines, false);
+            importerSettings.setProperty(CHECKPOINT_ENTITIES, startEntities + entities, false);
+            tx.success();
+            log.info("Stored checkpoint after line " + (startLines + lines) + " of " + dumpFile);
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Could not store the import checkpoint", e);
+            tx.failure();
+        } finally {
+            tx.finish();
+        }
+    }
+
+    private void clear() {
+        deleteStateFiles();
+        DeepaMehtaTransaction tx = dm4.beginTx();
+        try {
+            for (String property : CHECKPOINT_PROPERTIES) {
+                if (importerSettings.hasProperty(property)) importerSettings.removeProperty(property);
+            }
+            tx.success();
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Could not remove the import checkpoint", e);
+            tx.failure();
+        } finally {
+            tx.finish();
+        }
+    }
+
+    /** Deletes the state files saved along with the checkpoint, the processor may have saved several. */
+    private void deleteStateFiles() {
+        File[] files = stateFile.getParentFile().listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (file.getName().startsWith(stateFile.getName()) && !file.delete()) {
+                log.warning("Could not delete " + file.getPath());
+            }
+        }
+    }
+
+    private String getProcessorName() {
+        return processor.getClass().getSimpleName();
+    }
+
+}
@@ -0,0 +1,150 @@
+package org.deepamehta.plugins.wdtk;
+
+import de.deepamehta.core.JSONEnabled;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+/**
+ * An import of a wikidata dump run in the background, as requested for one importer settings topic.
+ * Jobs report the progress of the import while it runs and can be cancelled, in which case the dump
+ * processing stops after the batch of entities being processed and everything processed so far is
+ * committed (and a checkpoint stored to continue at). Imports stopped by the time limit of their
+ * settings end up {@link State#TIMED_OUT} the same way, which is no failure.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+public class WikidataImportJob implements JSONEnabled {
+
+    public enum State {
+        QUEUED, RUNNING, CANCELLING, CANCELLED, TIMED_OUT, FINISHED, FAILED
+    }
+
+    private final long id;
+    private final long settingsTopicId;
+    private final long createdAt = System.currentTimeMillis();
+
+    private volatile State state = State.QUEUED;
+    private volatile long startedAt = 0;
+    private volatile long finishedAt = 0;
+    private volatile String dumpName = null;
+    private volatile String error = null;
+    private volatile boolean timedOut = false;
+
+    // set while the dump is processed
+    private volatile WikidataDumpPipeline pipeline = null;
+    private volatile WikidataImportProcessor processor = null;
+
+    WikidataImportJob(long id, long settingsTopicId) {
+        this.id = id;
+        this.settingsTopicId = settingsTopicId;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getSettingsTopicId() {
+        return settingsTopicId;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isDone() {
+        return state == State.CANCELLED || state == State.TIMED_OUT || state == State.FINISHED
+            || state == State.FAILED;
+    }
+
+    boolean isCancelled() {
+        return state == State.CANCELLING || state == State.CANCELLED;
+    }
+
+    /**
+     * Asks the job to stop. A queued job is not started at all, a running one stops once the batch
+     * of entities being processed is done.
+     *
+     * @return  false if the job was done already.
+     */
+    synchronized boolean cancel() {
+        if (isDone()) return false;
+        state = (state == State.QUEUED) ? State.CANCELLED : State.CANCELLING;
+        WikidataDumpPipeline running = pipeline;
+        if (running != null) running.cancel();
+        return true;
+    }
+
+    // --- Called by the thread running the import
+
+    /** @return false if the job was cancelled before it got started. */
+    synchronized boolean started() {
+        if (state != State.QUEUED) return false;
+        state = State.RUNNING;
+        startedAt = System.currentTimeMillis();
+        return true;
+    }
+
+    synchronized void processing(String dumpName, WikidataDumpPipeline pipeline, WikidataImportProcessor processor) {
+        this.dumpName = dumpName;
+        this.pipeline = pipeline;
+        this.processor = processor;
+        if (isCancelled()) pipeline.cancel();
+    }
+
+    void failed(Throwable e) {
+        error = e.getClass().getSimpleName() + ((e.getMessage() != null) ? ": " + e.getMessage() : "");
+    }
+
+    /** The processing stopped as the time limit of the import was reached. */
+    void timedOut() {
+        timedOut = true;
+    }
+
+    synchronized void finished(boolean complete) {
+        finishedAt = System.currentTimeMillis();
+        if (isCancelled()) {
+            state = State.CANCELLED;
+        } else if (timedOut && error == null) {
+            state = State.TIMED_OUT;
+        } else {
+            state = (complete) ? State.FINISHED : State.FAILED;
+        }
+    }
+
+    // --- Progress
+
+    /** @return The number of dump lines read so far. */
+    public long getLinesRead() {
+        WikidataDumpPipeline running = pipeline;
+        return (running != null) ? running.getLinesRead() : 0;
+    }
+
+    /** @return The number of entities handed over to the processor so far. */
+    public int getEntityCount() {
+        WikidataImportProcessor running = processor;
+        return (running != null) ? running.getEntityCount() : 0;
+    }
+
+    @Override
+    public JSONObject toJSON() {
+        try {
+            return new JSONObject()
+                .put("id", id)
+                .put("importer_id", settingsTopicId)
+                .put("state", state.name())
+                .put("dump", dumpName)
+                .put("lines_read", getLinesRead())
+                .put("entities", getEntityCount())
+                .put("created", createdAt)
+                .put("started", startedAt)
+                .put("finished", finishedAt)
+                .put("error", error);
+        } catch (JSONException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+}
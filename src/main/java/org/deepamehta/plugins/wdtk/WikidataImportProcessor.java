@@ -0,0 +1,57 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.io.File;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessor;
+
+/**
+ * An entity processor importing the entities of a wikidata dump into DeepaMehta 4.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+interface WikidataImportProcessor extends EntityDocumentProcessor {
+
+    /**
+     * Commits all changes made for the entities processed so far and saves what the processor keeps
+     * in memory until {@link #stop} is called to the given file. Called from the thread processing
+     * the entities whenever the import is about to store a checkpoint.
+     *
+     * @param   stateFile   The file to save to, named after the checkpoint. Processors may also save
+     *                      to several files whose names start with its path.
+     *
+     * @return  true if all entities processed so far are stored in the database or saved to the file
+     *          now, false if the processor keeps (some of) them in memory only.
+     */
+    boolean commit(File stateFile);
+
+    /**
+     * Restores what {@link #commit} saved to the given file, called before the first entity if the
+     * import continues at the checkpoint stored along with the file.
+     *
+     * @return  false if the file could not be read, the import then starts with the first entity.
+     */
+    boolean resume(File stateFile);
+
+    /** Finishes the import of all entities processed. */
+    void stop();
+
+    int getEntityCount();
+
+    /**
+     * Processes an entity given by the fields extracted through this processors entity extractor, is
+     * called instead of {@link #processItemDocument} when the import streams the dump.
+     */
+    void processEntityRecord(WikidataEntityRecord record);
+
+    /** @return An extractor for all the fields of an entity this processor makes use of. */
+    WikidataEntityExtractor getEntityExtractor();
+
+    /**
+     * @return  A filter dropping all lines of the dump this processor has no use for before they get
+     *          deserialized, or null to process all entities.
+     */
+    WikidataLineFilter getLineFilter();
+
+}
@@ -0,0 +1,350 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.util.Arrays;
+
+/**
+ * A compressed set of (encoded) item ids, organized like a Roaring bitmap: ids are grouped by their
+ * upper 16 bits, and the lower 16 bits of each group are kept in a sorted array while a group holds
+ * few ids, or in a bitmap of 8 KB once it holds more than {@link #ARRAY_LIMIT}. Sparse sets (like
+ * the countries of a dump) take two bytes per id, dense ones (like all humans) about one bit per id.
+ *
+ * Sets are combined in bulk through {@link #and}, {@link #andNot} and {@link #or}, group by group,
+ * without looking up single ids. Sets are not thread-safe.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataItemSet {
+
+    /** The most ids a group keeps in a sorted array. */
+    static final int ARRAY_LIMIT = 4096;
+
+    private static final int BITMAP_WORDS = 1 << 10; // 65536 bits
+
+    // upper 16 bits of the ids of each group (sorted), and the group's container
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int groups = 0;
+    private int cardinality = 0;
+
+    /** @return true if the id was not in the set before. */
+    boolean add(int id) {
+        char key = (char) (id >>> 16);
+        int index = Arrays.binarySearch(keys, 0, groups, key);
+        if (index < 0) {
+            index = -index - 1;
+            insertGroup(index, key, new ArrayContainer());
+        }
+        Container container = containers[index];
+        int before = container.cardinality();
+        containers[index] = container.add((char) id);
+        if (containers[index].cardinality() == before) return false;
+        cardinality++;
+        return true;
+    }
+
+    boolean contains(int id) {
+        int index = Arrays.binarySearch(keys, 0, groups, (char) (id >>> 16));
+        return index >= 0 && containers[index].contains((char) id);
+    }
+
+    int cardinality() {
+        return cardinality;
+    }
+
+    boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    /** @return All ids of the set in ascending order. */
+    int[] toArray() {
+        int[] ids = new int[cardinality];
+        int count = 0;
+        for (int i = 0; i < groups; i++) {
+            count = containers[i].copyTo(ids, count, keys[i] << 16);
+        }
+        return ids;
+    }
+
+    /** @return A new set of the ids being in this and in the given set. */
+    WikidataItemSet and(WikidataItemSet other) {
+        WikidataItemSet result = new WikidataItemSet();
+        int i = 0, j = 0;
+        while (i < groups && j < other.groups) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                result.appendGroup(keys[i], containers[i].and(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /** @return A new set of the ids being in this but not in the given set. */
+    WikidataItemSet andNot(WikidataItemSet other) {
+        WikidataItemSet result = new WikidataItemSet();
+        int j = 0;
+        for (int i = 0; i < groups; i++) {
+            while (j < other.groups && other.keys[j] < keys[i]) j++;
+            if (j < other.groups && other.keys[j] == keys[i]) {
+                result.appendGroup(keys[i], containers[i].andNot(other.containers[j]));
+            } else {
+                result.appendGroup(keys[i], containers[i].copy());
+            }
+        }
+        return result;
+    }
+
+    /** @return A new set of the ids being in this or in the given set. */
+    WikidataItemSet or(WikidataItemSet other) {
+        WikidataItemSet result = new WikidataItemSet();
+        int i = 0, j = 0;
+        while (i < groups || j < other.groups) {
+            if (j == other.groups || (i < groups && keys[i] < other.keys[j])) {
+                result.appendGroup(keys[i], containers[i++].copy());
+            } else if (i == groups || keys[i] > other.keys[j]) {
+                result.appendGroup(other.keys[j], other.containers[j++].copy());
+            } else {
+                result.appendGroup(keys[i], containers[i++].or(other.containers[j++]));
+            }
+        }
+        return result;
+    }
+
+    private void insertGroup(int index, char key, Container container) {
+        if (groups == keys.length) {
+            keys = Arrays.copyOf(keys, groups * 2);
+            containers = Arrays.copyOf(containers, groups * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, groups - index);
+        System.arraycopy(containers, index, containers, index + 1, groups - index);
+        keys[index] = key;
+        containers[index] = container;
+        groups++;
+    }
+
+    /** Appends a group with a key greater than all others, empty containers are dropped. */
+    private void appendGroup(char key, Container container) {
+        if (container.cardinality() == 0) return;
+        insertGroup(groups, key, container);
+        cardinality += container.cardinality();
+    }
+
+    // --- Containers holding the lower 16 bits of the ids of a group
+
+    private static abstract class Container {
+
+        abstract int cardinality();
+
+        abstract boolean contains(char value);
+
+        /** @return This container, or the one replacing it. */
+        abstract Container add(char value);
+
+        abstract Container copy();
+
+        /** @return The next index of the given array to copy to. */
+        abstract int copyTo(int[] ids, int index, int high);
+
+        abstract BitmapContainer toBitmap();
+
+        Container and(Container other) {
+            return toBitmap().andBitmap(other.toBitmap()).shrink();
+        }
+
+        Container andNot(Container other) {
+            return toBitmap().andNotBitmap(other.toBitmap()).shrink();
+        }
+
+        Container or(Container other) {
+            return toBitmap().orBitmap(other.toBitmap()).shrink();
+        }
+
+    }
+
+    private static class ArrayContainer extends Container {
+
+        char[] values;
+        int size = 0;
+
+        ArrayContainer() {
+            this.values = new char[4];
+        }
+
+        ArrayContainer(char[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        @Override
+        int cardinality() {
+            return size;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, size, value) >= 0;
+        }
+
+        @Override
+        Container add(char value) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index >= 0) return this;
+            if (size == ARRAY_LIMIT) {
+                return toBitmap().add(value);
+            }
+            index = -index - 1;
+            if (size == values.length) values = Arrays.copyOf(values, Math.min(size * 2, ARRAY_LIMIT));
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = value;
+            size++;
+            return this;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, size), size);
+        }
+
+        @Override
+        int copyTo(int[] ids, int index, int high) {
+            for (int i = 0; i < size; i++) {
+                ids[index++] = high | values[i];
+            }
+            return index;
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < size; i++) {
+                bitmap.words[values[i] >>> 6] |= 1L << values[i];
+            }
+            bitmap.cardinality = size;
+            return bitmap;
+        }
+
+        @Override
+        Container and(Container other) {
+            // small arrays are filtered instead of being turned into bitmaps
+            char[] result = new char[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (other.contains(values[i])) result[count++] = values[i];
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        Container andNot(Container other) {
+            char[] result = new char[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (!other.contains(values[i])) result[count++] = values[i];
+            }
+            return new ArrayContainer(result, count);
+        }
+
+    }
+
+    private static class BitmapContainer extends Container {
+
+        final long[] words = new long[BITMAP_WORDS];
+        int cardinality = 0;
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        Container add(char value) {
+            long bit = 1L << value;
+            if ((words[value >>> 6] & bit) == 0) {
+                words[value >>> 6] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Container copy() {
+            BitmapContainer copy = new BitmapContainer();
+            System.arraycopy(words, 0, copy.words, 0, BITMAP_WORDS);
+            copy.cardinality = cardinality;
+            return copy;
+        }
+
+        @Override
+        int copyTo(int[] ids, int index, int high) {
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    ids[index++] = high | (w << 6) | Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            return index;
+        }
+
+        @Override
+        BitmapContainer toBitmap() {
+            return this;
+        }
+
+        BitmapContainer andBitmap(BitmapContainer other) {
+            BitmapContainer result = new BitmapContainer();
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                result.words[w] = words[w] & other.words[w];
+                result.cardinality += Long.bitCount(result.words[w]);
+            }
+            return result;
+        }
+
+        BitmapContainer andNotBitmap(BitmapContainer other) {
+            BitmapContainer result = new BitmapContainer();
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                result.words[w] = words[w] & ~other.words[w];
+                result.cardinality += Long.bitCount(result.words[w]);
+            }
+            return result;
+        }
+
+        BitmapContainer orBitmap(BitmapContainer other) {
+            BitmapContainer result = new BitmapContainer();
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                result.words[w] = words[w] | other.words[w];
+                result.cardinality += Long.bitCount(result.words[w]);
+            }
+            return result;
+        }
+
+        /** @return An array container holding the same values, if these are few enough. */
+        Container shrink() {
+            if (cardinality > ARRAY_LIMIT) return this;
+            char[] values = new char[cardinality];
+            int count = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    values[count++] = (char) ((w << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, count);
+        }
+
+    }
+
+}
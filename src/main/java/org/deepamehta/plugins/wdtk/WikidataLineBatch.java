@@ -0,0 +1,88 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.util.Arrays;
+import org.wikidata.wdtk.datamodel.interfaces.EntityDocument;
+
+/**
+ * A recyclable batch of raw lines read from a wikidata (json) dump, together with the documents
+ * parsed (or the records extracted) from these lines. Batches circulate between the stages of a {@link WikidataDumpPipeline}
+ * so the amount of dump data held in memory stays bounded.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataLineBatch {
+
+    /** Marks the end of the line stream between the pipeline stages. */
+    static final WikidataLineBatch END = new WikidataLineBatch(0, 0);
+
+    byte[] data;
+    int length = 0;
+
+    int[] lineStart;
+    int[] lineEnd;
+    int lineCount = 0;
+
+    boolean[] sliced; // accepted by the slice filter (if any)
+    EntityDocument[] documents;
+    WikidataEntityRecord[] records; // created on demand and kept for the lifetime of the batch
+
+    long sequence = 0;
+
+    // the number of bytes read from the dump up to the end of this batch and the file position there
+    long endOffset = 0;
+    long[] filePosition = null;
+
+    WikidataLineBatch(int bytes, int lines) {
+        this.data = new byte[bytes];
+        this.lineStart = new int[lines];
+        this.lineEnd = new int[lines];
+        this.sliced = new boolean[lines];
+        this.documents = new EntityDocument[lines];
+        this.records = new WikidataEntityRecord[lines];
+    }
+
+    void reset() {
+        Arrays.fill(sliced, 0, lineCount, false);
+        Arrays.fill(documents, 0, lineCount, null);
+        for (int i = 0; i < lineCount; i++) {
+            if (records[i] != null) records[i].reset();
+        }
+        length = 0;
+        lineCount = 0;
+        sequence = 0;
+        endOffset = 0;
+        filePosition = null;
+    }
+
+    /** Appends bytes to the line currently read. */
+    void append(byte[] buffer, int offset, int len) {
+        if (length + len > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + len));
+        }
+        System.arraycopy(buffer, offset, data, length, len);
+        length += len;
+    }
+
+    /** Closes the line currently read, which started at the given offset. */
+    void endLine(int start) {
+        if (lineCount == lineStart.length) {
+            int size = lineStart.length * 2;
+            lineStart = Arrays.copyOf(lineStart, size);
+            lineEnd = Arrays.copyOf(lineEnd, size);
+            sliced = Arrays.copyOf(sliced, size);
+            documents = Arrays.copyOf(documents, size);
+            records = Arrays.copyOf(records, size);
+        }
+        lineStart[lineCount] = start;
+        lineEnd[lineCount] = length;
+        lineCount++;
+    }
+
+    boolean isFull(int maxBytes, int maxLines) {
+        return length >= maxBytes || lineCount >= maxLines;
+    }
+
+}
@@ -0,0 +1,115 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.util.Arrays;
+
+/**
+ * A cheap filter on the raw (json) lines of a wikidata dump, used to drop all entities an entity
+ * processor has no use for before these are deserialized.
+ *
+ * A line is accepted if it mentions one of the properties added through {@link #addProperties}, or
+ * if it mentions one of the class properties ("instance of", "subclass of") together with one of
+ * the items added through {@link #addClasses}. Lines are scanned for property and item ids only
+ * (<code>"P31"</code>, <code>"Q5"</code> or <code>"numeric-id":5</code>) without looking at the json
+ * structure, so the filter may accept lines the processor then ignores, but never drops a line the
+ * processor would have used.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataLineFilter {
+
+    private static final byte[] NUMERIC_ID = "\"numeric-id\":".getBytes();
+    private static final int MAX_ID_DIGITS = 9;
+
+    private static final int INSTANCE_OF = idOf(WikidataEntityMap.IS_INSTANCE_OF);
+    private static final int SUBCLASS_OF = idOf(WikidataEntityMap.IS_SUBCLASS_OF);
+
+    // sorted numeric ids
+    private int[] properties = new int[0];
+    private int[] classes = new int[0];
+
+    /** Accepts all lines mentioning one of the given properties (e.g. "P625"). */
+    WikidataLineFilter addProperties(String... propertyIds) {
+        properties = add(properties, propertyIds);
+        return this;
+    }
+
+    /** Accepts all lines stating to be an instance or subclass of one of the given items (e.g. "Q5"). */
+    WikidataLineFilter addClasses(String... itemIds) {
+        classes = add(classes, itemIds);
+        return this;
+    }
+
+    /** Accepts all lines the given filter accepts, too. */
+    WikidataLineFilter addFilter(WikidataLineFilter filter) {
+        properties = merge(properties, filter.properties);
+        classes = merge(classes, filter.classes);
+        return this;
+    }
+
+    /** @return true if the line may be of use, false if it can be dropped. */
+    boolean accept(byte[] data, int start, int end) {
+        boolean classProperty = false;
+        boolean classItem = false;
+        for (int i = start; i < end - 2; i++) {
+            if (data[i] != '"') continue;
+            byte kind = data[i + 1];
+            if (kind == 'P' || kind == 'Q') {
+                int id = 0;
+                int j = i + 2;
+                while (j < end && j - i - 2 < MAX_ID_DIGITS && data[j] >= '0' && data[j] <= '9') {
+                    id = id * 10 + (data[j++] - '0');
+                }
+                if (j == i + 2 || j == end || data[j] != '"') continue;
+                if (kind == 'P') {
+                    if (Arrays.binarySearch(properties, id) >= 0) return true;
+                    if (id == INSTANCE_OF || id == SUBCLASS_OF) classProperty = true;
+                } else if (Arrays.binarySearch(classes, id) >= 0) {
+                    classItem = true;
+                }
+                i = j;
+            } else if (kind == 'n' && startsWith(data, i, end, NUMERIC_ID)) {
+                int id = 0;
+                int j = i + NUMERIC_ID.length;
+                while (j < end && j - i - NUMERIC_ID.length < MAX_ID_DIGITS && data[j] >= '0' && data[j] <= '9') {
+                    id = id * 10 + (data[j++] - '0');
+                }
+                if (j > i + NUMERIC_ID.length && Arrays.binarySearch(classes, id) >= 0) classItem = true;
+                i = j - 1;
+            }
+            if (classProperty && classItem) return true;
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] data, int offset, int end, byte[] prefix) {
+        if (end - offset < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private static int[] add(int[] ids, String... entityIds) {
+        int[] result = Arrays.copyOf(ids, ids.length + entityIds.length);
+        for (int i = 0; i < entityIds.length; i++) {
+            result[ids.length + i] = idOf(entityIds[i]);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static int[] merge(int[] ids, int[] others) {
+        int[] result = Arrays.copyOf(ids, ids.length + others.length);
+        System.arraycopy(others, 0, result, ids.length, others.length);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static int idOf(String entityId) {
+        return Integer.parseInt(entityId.substring(1));
+    }
+
+}
@@ -0,0 +1,64 @@
+package org.deepamehta.plugins.wdtk;
+
+import de.deepamehta.core.Topic;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A small cache of topics looked up by value or URI during one import, for lookups answered by just
+ * a few (thousand) distinct topics, like language codes, properties or country codes. Once full, the
+ * topic looked up least recently is dropped.
+ *
+ * Only topics found (or created) are cached, a miss always goes to the storage again, as the topic
+ * missing may get created by the import in the meantime. Topics created in a transaction may be gone
+ * once it is rolled back, the cache is then to be cleared.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataLookupCache {
+
+    private final String name;
+    private final LinkedHashMap<String, Topic> topics;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    WikidataLookupCache(String name, final int capacity) {
+        this.name = name;
+        this.topics = new LinkedHashMap<String, Topic>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Topic> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /** @return The topic cached for the given key, or null. */
+    Topic get(String key) {
+        Topic topic = topics.get(key);
+        if (topic != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return topic;
+    }
+
+    /** Caches the given topic, if any. */
+    void put(String key, Topic topic) {
+        if (topic != null) topics.put(key, topic);
+    }
+
+    void clear() {
+        topics.clear();
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + hits + " hits, " + misses + " misses";
+    }
+
+}
@@ -0,0 +1,93 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a region of a (large) file through memory mappings, so the data is copied right out of the
+ * page cache. The region is mapped window by window, as a single mapping is limited to 2 GB.
+ *
+ * Note: Mapped windows are released by the garbage collector only, closing the stream just closes
+ * the underlying file.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataMappedInputStream extends InputStream {
+
+    static final long MAP_WINDOW = 1L << 28;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long end;
+
+    private long windowEnd;
+    private MappedByteBuffer window = null;
+
+    /** Reads the given file from <code>start</code> (inclusive) to <code>end</code> (exclusive). */
+    WikidataMappedInputStream(File mappedFile, long start, long end) throws IOException {
+        this.file = new RandomAccessFile(mappedFile, "r");
+        this.channel = file.getChannel();
+        this.end = end;
+        this.windowEnd = start;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) return -1;
+        return window.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (!ensureData()) return -1;
+        int n = Math.min(len, window.remaining());
+        window.get(b, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) return 0;
+        long skipped = 0;
+        if (window != null) {
+            skipped = Math.min(n, window.remaining());
+            window.position(window.position() + (int) skipped);
+        }
+        if (skipped < n) { // skip the windows in between without mapping them
+            long next = Math.min(end, windowEnd + (n - skipped));
+            skipped += next - windowEnd;
+            windowEnd = next;
+            window = null;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (window != null) ? window.remaining() : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        file.close();
+    }
+
+    private boolean ensureData() throws IOException {
+        if (window != null && window.hasRemaining()) return true;
+        if (windowEnd >= end) return false;
+        long size = Math.min(MAP_WINDOW, end - windowEnd);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowEnd, size);
+        windowEnd += size;
+        return true;
+    }
+
+}
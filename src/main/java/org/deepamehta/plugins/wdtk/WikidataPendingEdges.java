@@ -0,0 +1,189 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Claim edges referring to items not (yet) imported when their statement was processed, kept
+ * until the end of the dump instead of creating placeholder topics for the items missing. Edges are
+ * kept column by column: the (encoded) ids of both items and of the property, the offset of the
+ * statement's GUID in an arena of its own and the qualifying start and end time, 36 bytes per edge
+ * plus its GUID.
+ *
+ * Once the dump is processed, the edges are sorted by the item they start at ({@link #sortByFrom})
+ * and resolved in one pass.
+ *
+ * When the import stores a checkpoint, the edges are saved to a file named after it ({@link #save})
+ * and added again ({@link #load}) when the import continues at the checkpoint. The file is a plain
+ * sequence of edges behind a header, written to a temporary file first and then renamed.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataPendingEdges {
+
+    private static final int MAGIC = 0x77647065; // "wdpe"
+
+    private final WikidataTextArena guidArena = new WikidataTextArena();
+
+    private int[] froms = new int[256];
+    private int[] tos = new int[256];
+    private int[] properties = new int[256];
+    private long[] guids = new long[256];
+    private long[] startTimes = new long[256];
+    private long[] endTimes = new long[256];
+    private int size = 0;
+
+    void add(int fromItem, int toItem, int property, String guid, long startTime, long endTime) {
+        if (size == froms.length) {
+            int capacity = size * 2;
+            froms = Arrays.copyOf(froms, capacity);
+            tos = Arrays.copyOf(tos, capacity);
+            properties = Arrays.copyOf(properties, capacity);
+            guids = Arrays.copyOf(guids, capacity);
+            startTimes = Arrays.copyOf(startTimes, capacity);
+            endTimes = Arrays.copyOf(endTimes, capacity);
+        }
+        froms[size] = fromItem;
+        tos[size] = toItem;
+        properties[size] = property;
+        guids[size] = guidArena.add(guid);
+        startTimes[size] = startTime;
+        endTimes[size] = endTime;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** Sorts the edges by the item they start at, edges of the same item keep their order. */
+    void sortByFrom() {
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = ((long) froms[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] sortedFroms = new int[size];
+        int[] sortedTos = new int[size];
+        int[] sortedProperties = new int[size];
+        long[] sortedGuids = new long[size];
+        long[] sortedStartTimes = new long[size];
+        long[] sortedEndTimes = new long[size];
+        for (int i = 0; i < size; i++) {
+            int index = (int) keys[i];
+            sortedFroms[i] = froms[index];
+            sortedTos[i] = tos[index];
+            sortedProperties[i] = properties[index];
+            sortedGuids[i] = guids[index];
+            sortedStartTimes[i] = startTimes[index];
+            sortedEndTimes[i] = endTimes[index];
+        }
+        froms = sortedFroms;
+        tos = sortedTos;
+        properties = sortedProperties;
+        guids = sortedGuids;
+        startTimes = sortedStartTimes;
+        endTimes = sortedEndTimes;
+    }
+
+    int getFrom(int index) {
+        return froms[index];
+    }
+
+    int getTo(int index) {
+        return tos[index];
+    }
+
+    int getProperty(int index) {
+        return properties[index];
+    }
+
+    String getGuid(int index) {
+        return guidArena.get(guids[index]);
+    }
+
+    long getStartTime(int index) {
+        return startTimes[index];
+    }
+
+    long getEndTime(int index) {
+        return endTimes[index];
+    }
+
+    /** Writes all edges to the given file, replacing the edges saved there before. */
+    void save(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            file.getParentFile().mkdirs();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(size);
+                for (int i = 0; i < size; i++) {
+                    out.writeInt(froms[i]);
+                    out.writeInt(tos[i]);
+                    out.writeInt(properties[i]);
+                    out.writeUTF(getGuid(i));
+                    out.writeLong(startTimes[i]);
+                    out.writeLong(endTimes[i]);
+                }
+            } finally {
+                out.close();
+            }
+            if (file.exists() && !file.delete()) throw new IOException("Could not replace " + file.getPath());
+            if (!temp.renameTo(file)) throw new IOException("Could not rename " + temp.getPath());
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Adds the edges saved to the given file. If the file can't be read completely, no edge is added.
+     *
+     * @return  The number of edges added.
+     */
+    int load(File file) throws IOException {
+        WikidataPendingEdges saved = new WikidataPendingEdges();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != MAGIC) throw new IOException("Not a file of pending claim edges");
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                saved.add(in.readInt(), in.readInt(), in.readInt(), in.readUTF(), in.readLong(), in.readLong());
+            }
+        } finally {
+            in.close();
+        }
+        int count = saved.size;
+        for (int i = 0; i < count; i++) {
+            add(saved.froms[i], saved.tos[i], saved.properties[i], saved.getGuid(i), saved.startTimes[i],
+                saved.endTimes[i]);
+        }
+        saved.close();
+        return count;
+    }
+
+    /** Drops all edges. */
+    void close() {
+        froms = new int[0];
+        tos = new int[0];
+        properties = new int[0];
+        guids = new long[0];
+        startTimes = new long[0];
+        endTimes = new long[0];
+        size = 0;
+        guidArena.close();
+    }
+
+}
@@ -0,0 +1,189 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * An append-only store of (UTF-8 encoded) texts in large byte chunks, texts are referred to by the
+ * offset {@link #add} returns. Storing millions of labels this way takes just the bytes of the texts
+ * (plus a length prefix) instead of a String, a char array and a map entry per text.
+ *
+ * Texts are never removed, overwriting a text in a {@link WikidataTextMap} leaves the former one
+ * in the arena.
+ *
+ * Once the chunks held on the heap exceed a given budget (see {@link #spillTo}), all filled chunks
+ * are written to an append-only spill file and read back through memory mappings from then on, so
+ * the page cache rather than the heap holds the texts. Offsets stay valid when chunks are spilled.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataTextArena {
+
+    private static Logger log = Logger.getLogger(WikidataTextArena.class.getName());
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    static final int CHUNK_SIZE = 1 << 24;
+
+    private byte[][] chunks = new byte[4][];
+    private int chunkCount = 0;
+    private int position = CHUNK_SIZE; // within the last chunk, no chunk allocated yet
+    private long bytes = 0;
+
+    // spilling, the chunks written to the spill file are null in chunks and mapped here instead
+    private long heapBudget = Long.MAX_VALUE;
+    private File spillFile = null;
+    private RandomAccessFile spill = null;
+    private MappedByteBuffer[] spilled = new MappedByteBuffer[4];
+    private long heapBytes = 0;
+    private long spilledBytes = 0;
+
+    /**
+     * Lets the arena spill its chunks to the given file once they take more than the given number
+     * of bytes on the heap. The file is created when needed and deleted on {@link #close}.
+     */
+    void spillTo(File spillFile, long heapBudget) {
+        this.spillFile = spillFile;
+        this.heapBudget = heapBudget;
+    }
+
+    /** @return The offset of the text added, to be read through {@link #get}. */
+    long add(String text) {
+        byte[] encoded = text.getBytes(UTF8);
+        int length = encoded.length;
+        int needed = length + 5; // varint length prefix
+        byte[] chunk = (chunkCount > 0) ? chunks[chunkCount - 1] : null;
+        if (chunk == null || chunk.length - position < needed) {
+            chunk = newChunk(Math.max(CHUNK_SIZE, needed));
+        }
+        long offset = ((long) (chunkCount - 1) << 32) | position;
+        // length as varint, then the text
+        int value = length;
+        while ((value & ~0x7f) != 0) {
+            chunk[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        chunk[position++] = (byte) value;
+        System.arraycopy(encoded, 0, chunk, position, length);
+        position += length;
+        bytes += length;
+        return offset;
+    }
+
+    String get(long offset) {
+        int chunkIndex = (int) (offset >>> 32);
+        byte[] chunk = chunks[chunkIndex];
+        if (chunk == null) return getSpilled(spilled[chunkIndex], (int) offset);
+        int position = (int) offset;
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = chunk[position++];
+            length |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return new String(chunk, position, length, UTF8);
+    }
+
+    private String getSpilled(MappedByteBuffer chunk, int position) {
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = chunk.get(position++);
+            length |= (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        byte[] encoded = new byte[length];
+        ByteBuffer text = chunk.duplicate();
+        text.position(position);
+        text.get(encoded);
+        return new String(encoded, UTF8);
+    }
+
+    /** @return The number of bytes of all texts stored. */
+    long getBytes() {
+        return bytes;
+    }
+
+    /** @return The number of bytes of chunks written to the spill file. */
+    long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    /** Drops all texts and deletes the spill file. */
+    void close() {
+        chunks = new byte[4][];
+        spilled = new MappedByteBuffer[4];
+        chunkCount = 0;
+        position = CHUNK_SIZE;
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException e) {
+                log.warning("Could not close the spill file " + spillFile.getPath() + ": " + e.getMessage());
+            }
+            spill = null;
+            if (!spillFile.delete()) log.warning("Could not delete the spill file " + spillFile.getPath());
+        }
+    }
+
+    private byte[] newChunk(int size) {
+        if (chunkCount > 0 && heapBytes + size > heapBudget) {
+            spillChunks();
+        }
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            spilled = Arrays.copyOf(spilled, chunkCount * 2);
+        }
+        byte[] chunk = new byte[size];
+        chunks[chunkCount++] = chunk;
+        heapBytes += size;
+        position = 0;
+        return chunk;
+    }
+
+    /** Writes all chunks held on the heap (which are full) to the spill file and maps them from there. */
+    private void spillChunks() {
+        try {
+            if (spill == null) {
+                spillFile.getParentFile().mkdirs();
+                spill = new RandomAccessFile(spillFile, "rw");
+                spill.setLength(0);
+                log.info("Texts exceed the heap budget of " + (heapBudget >> 20) + " MB, spilling them to "
+                    + spillFile.getPath());
+            }
+            FileChannel channel = spill.getChannel();
+            int lastChunk = chunkCount - 1;
+            for (int i = 0; i <= lastChunk; i++) {
+                byte[] chunk = chunks[i];
+                if (chunk == null) continue;
+                // just the last chunk may be filled partly, all others are written as a whole
+                int length = (i == lastChunk) ? position : chunk.length;
+                long start = channel.size();
+                ByteBuffer data = ByteBuffer.wrap(chunk, 0, length);
+                while (data.hasRemaining()) {
+                    channel.write(data, start + data.position());
+                }
+                spilled[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                chunks[i] = null;
+                heapBytes -= chunk.length;
+                spilledBytes += length;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not spill texts to " + spillFile.getPath(), e);
+        }
+    }
+
+}
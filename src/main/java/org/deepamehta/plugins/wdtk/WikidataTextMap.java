@@ -0,0 +1,105 @@
+package org.deepamehta.plugins.wdtk;
+
+/**
+ * Maps (encoded) entity ids to texts kept in a {@link WikidataTextArena}, e.g. the label of each
+ * item. Ids and text offsets are stored in two plain arrays (open addressing with linear probing),
+ * so an entry costs 12 bytes plus the bytes of its text, whereas the <code>HashMap&lt;String,
+ * String&gt;</code> this replaces took well over 100 bytes per entry.
+ *
+ * Entries may be put without a text, which makes the map a plain set of ids. Several maps may share
+ * one arena. Maps are not thread-safe.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataTextMap {
+
+    private static final int FREE = 0; // ids are positive
+    private static final long NO_TEXT = -1;
+
+    private final WikidataTextArena arena;
+
+    private int[] ids;
+    private long[] offsets;
+    private int size = 0;
+    private int resizeAt;
+    private int shift; // 32 - log2(capacity)
+
+    WikidataTextMap(WikidataTextArena arena) {
+        this.arena = arena;
+        allocate(1 << 10);
+    }
+
+    /** Maps the given id to the given text (which may be null). */
+    void put(int id, String text) {
+        if (id <= 0) throw new IllegalArgumentException("Invalid entity id " + id);
+        int slot = slot(id);
+        if (ids[slot] == FREE) {
+            ids[slot] = id;
+            size++;
+        }
+        offsets[slot] = (text != null) ? arena.add(text) : NO_TEXT;
+        if (size > resizeAt) grow();
+    }
+
+    /** @return The text the given id maps to, null if there is none (or if it maps to no text). */
+    String get(int id) {
+        int slot = slot(id);
+        if (ids[slot] == FREE || offsets[slot] == NO_TEXT) return null;
+        return arena.get(offsets[slot]);
+    }
+
+    boolean containsKey(int id) {
+        return ids[slot(id)] != FREE;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** @return All ids mapped, in no particular order. */
+    int[] keys() {
+        int[] keys = new int[size];
+        int count = 0;
+        for (int id : ids) {
+            if (id != FREE) keys[count++] = id;
+        }
+        return keys;
+    }
+
+    /** @return The slot the given id is stored at, or the free slot it is to be stored at. */
+    private int slot(int id) {
+        int mask = ids.length - 1;
+        int slot = (id * 0x9E3779B9) >>> shift; // fibonacci hashing, as ids come in (almost) sequential runs
+        while (ids[slot] != FREE && ids[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void allocate(int capacity) {
+        ids = new int[capacity];
+        offsets = new long[capacity];
+        resizeAt = capacity / 3 * 2;
+        shift = Integer.numberOfLeadingZeros(capacity) + 1;
+    }
+
+    private void grow() {
+        int[] oldIds = ids;
+        long[] oldOffsets = offsets;
+        allocate(oldIds.length * 2);
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] == FREE) continue;
+            int slot = slot(oldIds[i]);
+            ids[slot] = oldIds[i];
+            offsets[slot] = oldOffsets[i];
+        }
+    }
+
+}
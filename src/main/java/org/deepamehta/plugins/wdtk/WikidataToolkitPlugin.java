@@ -1,9 +1,19 @@
 
 package org.deepamehta.plugins.wdtk;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -30,9 +40,9 @@ import de.deepamehta.core.Topic;
 import de.deepamehta.core.osgi.PluginActivator;
 import de.deepamehta.core.service.Inject;
 import de.deepamehta.core.service.Transactional;
+import de.deepamehta.core.storage.spi.DeepaMehtaTransaction;
 import de.deepamehta.accesscontrol.AccessControlService;
 import de.deepamehta.workspaces.WorkspacesService;
-import org.wikidata.wdtk.datamodel.interfaces.EntityDocumentProcessor;
 import org.wikidata.wdtk.dumpfiles.DumpContentType;
 import org.wikidata.wdtk.dumpfiles.MwDumpFile;
 import org.wikidata.wdtk.dumpfiles.MwLocalDumpFile;
@@ -68,14 +78,35 @@ public class WikidataToolkitPlugin extends PluginActivator implements WikidataTo
     private final String WD_IMPORT_DESCRIPTIONS = "org.deepamehta.wikidata.dumpfile_descriptions";
     private final String WD_IMPORT_WEBSITES = "org.deepamehta.wikidata.dumpfile_websites";
     private final String WD_IMPORT_COORDINATES = "org.deepamehta.wikidata.dumpfile_coordinates";
+    private final String WD_IMPORT_STREAMING = "org.deepamehta.wikidata.dumpfile_streaming";
+    private final String WD_IMPORT_SLICES = "org.deepamehta.wikidata.dumpfile_slices";
+    private final String WD_IMPORT_PROCESSOR = "org.deepamehta.wikidata.dumpfile_processor";
+    private final String WD_IMPORT_PROCESSOR_THREADS = "org.deepamehta.wikidata.dumpfile_processor_threads";
+    private final String WD_IMPORT_HEAP_BUDGET = "org.deepamehta.wikidata.dumpfile_heap_budget";
+    private final String WD_IMPORT_TWO_PASS = "org.deepamehta.wikidata.dumpfile_two_pass";
+    private final String WD_IMPORT_BULK_ASSIGNMENT = "org.deepamehta.wikidata.dumpfile_bulk_assignment";
+
+    // values of the processor setting
+    private final String PROCESSOR_ENTITIES = "entities";
+    private final String PROCESSOR_GEODATA = "geodata";
+
+    // the date stamp of the last wikidata change files applied, stored at the importer settings
+    private final String WD_CHANGES_APPLIED = "org.deepamehta.wikidata.changes_applied";
+
+    // the number of claim edges the claim edge filter of an import is sized for
+    private final long CLAIM_EDGES_EXPECTED = 1 << 22;
 
     // private final String WIKIDATA_PROPERTY_ENTITY_URL_PREFIX = "Property:";
 
     // --- Instance Variables
 
     // private String dumpFilePath = ""; // ### make dumpfile location configurable
-    // prevents corrupting the db because of parallel imports/transactions
-    private boolean isCurrentlyImporting = false;
+    // runs one import job after the other, which prevents corrupting the db through parallel imports/transactions
+    private ExecutorService importExecutor = null;
+    private final Map<Long, WikidataImportJob> importJobs = new ConcurrentHashMap<Long, WikidataImportJob>();
+    private final AtomicLong importJobIds = new AtomicLong();
+    // the number of jobs done kept to report about, older ones are dropped once new jobs are queued
+    private final int DONE_JOBS_KEPT = 16;
 
     @Inject
     private AccessControlService acService = null;
@@ -84,21 +115,104 @@ public class WikidataToolkitPlugin extends PluginActivator implements WikidataTo
     private WorkspacesService wsService = null;
 
 
+    // --
+    // --- Plugin Lifecycle
+    // --
+
+    @Override
+    public void init() {
+        importExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "wdtk-import");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        // running imports are cancelled, so they get the chance to commit what they processed so far
+        for (WikidataImportJob job : importJobs.values()) {
+            job.cancel();
+        }
+        importExecutor.shutdown();
+        try {
+            if (!importExecutor.awaitTermination(60, TimeUnit.SECONDS)) {
+                log.warning("Wikidata import did not stop within 60 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     // --
     // --- Public REST API Endpoints
     // --
 
+    /**
+     * Starts an import job for the given importer settings in the background, import jobs are run
+     * one after the other.
+     *
+     * @return  The import job, see {@link #getImportJob} for its progress.
+     */
     @GET
     @Path("/import/entities/{importerId}")
     @Produces(MediaType.APPLICATION_JSON)
     @Override
-    public Topic importEntitiesFromWikidataDump(@PathParam("importerId") long settingsTopicId) {
-        //
+    public WikidataImportJob importEntitiesFromWikidataDump(@PathParam("importerId") long settingsTopicId) {
+        return queueImportJob(settingsTopicId, false);
+    }
+
+    /**
+     * Starts an import job applying the wikidata change files stored locally which are more recent
+     * than the ones applied before (see {@link WikidataChangeFiles}) with the geodata processor and
+     * the given importer settings. Just the items changed are read and updated, their claims are
+     * added, updated or removed as their statements are.
+     *
+     * @return  The import job, see {@link #getImportJob} for its progress.
+     */
+    @GET
+    @Path("/import/changes/{importerId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Override
+    public WikidataImportJob importChangesFromWikidataDailies(@PathParam("importerId") long settingsTopicId) {
+        return queueImportJob(settingsTopicId, true);
+    }
+
+    @GET
+    @Path("/import/jobs")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Override
+    public List<WikidataImportJob> getImportJobs() {
         checkAuthorization();
-        //
-        Topic settings = dm4.getTopic(settingsTopicId);
-        importWikidataEntities(settings);
-        return settings;
+        return new ArrayList<WikidataImportJob>(importJobs.values());
+    }
+
+    @GET
+    @Path("/import/jobs/{jobId}")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Override
+    public WikidataImportJob getImportJob(@PathParam("jobId") long jobId) {
+        checkAuthorization();
+        WikidataImportJob job = importJobs.get(jobId);
+        if (job == null) throw new WebApplicationException(Status.NOT_FOUND);
+        return job;
+    }
+
+    /**
+     * Cancels the given import job. A running import stops after the batch of entities currently
+     * processed, commits all entities processed so far and leaves a checkpoint to continue at.
+     */
+    @GET
+    @Path("/import/jobs/{jobId}/cancel")
+    @Produces(MediaType.APPLICATION_JSON)
+    @Override
+    public WikidataImportJob cancelImportJob(@PathParam("jobId") long jobId) {
+        WikidataImportJob job = getImportJob(jobId);
+        if (job.cancel()) log.info("Cancelling wikidata import job " + jobId);
+        return job;
     }
 
     @GET
@@ -446,7 +560,55 @@ public class WikidataToolkitPlugin extends PluginActivator implements WikidataTo
         return dm4.getTopicByUri(WikidataEntityMap.WD_ENTITY_BASE_URI + id);
     }
 
-    private void importWikidataEntities(Topic importerSettings) {
+    private WikidataImportJob queueImportJob(long settingsTopicId, final boolean changes) {
+        //
+        checkAuthorization();
+        //
+        dm4.getTopic(settingsTopicId); // fails for unknown topics
+        removeDoneImportJobs();
+        final WikidataImportJob job = new WikidataImportJob(importJobIds.incrementAndGet(), settingsTopicId);
+        importJobs.put(job.getId(), job);
+        importExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                runImportJob(job, changes);
+            }
+        });
+        log.info("Queued wikidata " + ((changes) ? "change" : "import") + " job " + job.getId()
+            + " for importer settings " + settingsTopicId);
+        return job;
+    }
+
+    /** Drops the oldest jobs done, so just the last {@link #DONE_JOBS_KEPT} of them are reported. */
+    private void removeDoneImportJobs() {
+        List<Long> doneJobIds = new ArrayList<Long>();
+        for (WikidataImportJob job : importJobs.values()) {
+            if (job.isDone()) doneJobIds.add(job.getId());
+        }
+        Collections.sort(doneJobIds);
+        for (int i = 0; i < doneJobIds.size() - DONE_JOBS_KEPT; i++) {
+            importJobs.remove(doneJobIds.get(i));
+        }
+    }
+
+    private void runImportJob(WikidataImportJob job, boolean changes) {
+        if (!job.started()) return; // cancelled while queued
+        boolean complete = false;
+        try {
+            Topic importerSettings = dm4.getTopic(job.getSettingsTopicId());
+            complete = (changes) ? importWikidataChanges(importerSettings, job)
+                : importWikidataEntities(importerSettings, job);
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Wikidata import job " + job.getId() + " failed", e);
+            job.failed(e);
+        } finally {
+            job.finished(complete);
+            log.info("Wikidata import job " + job.getId() + " is done (" + job.getState() + ")");
+        }
+    }
+
+    /** @return true if the complete dump was imported. */
+    private boolean importWikidataEntities(Topic importerSettings, WikidataImportJob job) {
         // ### read in settings stored as child topics
         ChildTopics childs = importerSettings.getChildTopics();
         int timeOut = Integer.parseInt(childs.getString(WD_IMPORT_SECONDS));
@@ -459,13 +621,151 @@ public class WikidataToolkitPlugin extends PluginActivator implements WikidataTo
         boolean descriptions = childs.getBoolean(WD_IMPORT_DESCRIPTIONS);
         boolean websites = childs.getBoolean(WD_IMPORT_WEBSITES);
         boolean geoCoordinates = childs.getBoolean(WD_IMPORT_COORDINATES);
-        // ### TODO: Allow users to configure which entityProcessor they want to execute/kickstart here.
-        /** WikidataGeodataProcessor wikidataEntityProcessor = new WikidataGeodataProcessor(dm4, mf, wsService, timeOut,
-                persons, institutions, cities, countries, descriptions, websites, geoCoordinates, isoLanguageCode); **/
-        WikidataEntityProcessor wikidataEntityProcessor = new WikidataEntityProcessor(dm4, mf, wsService, timeOut,
-                persons, institutions, cities, countries, descriptions, websites, geoCoordinates, isoLanguageCode);
-        WikidataToolkitPlugin.this.startProcessingWikidataDumpfile(wikidataEntityProcessor, noDownload);
-        wikidataEntityProcessor = null;
+        Boolean streaming = childs.getBooleanOrNull(WD_IMPORT_STREAMING); // introduced with migration 7
+        Boolean slices = childs.getBooleanOrNull(WD_IMPORT_SLICES); // introduced with migration 8
+        List<RelatedTopic> processorNames = childs.getTopicsOrNull(WD_IMPORT_PROCESSOR); // introduced with migration 9
+        Boolean processorThreads = childs.getBooleanOrNull(WD_IMPORT_PROCESSOR_THREADS); // introduced with migration 9
+        String heapBudget = childs.getStringOrNull(WD_IMPORT_HEAP_BUDGET); // introduced with migration 10
+        Boolean twoPass = childs.getBooleanOrNull(WD_IMPORT_TWO_PASS); // introduced with migration 11
+        Boolean bulkAssignment = childs.getBooleanOrNull(WD_IMPORT_BULK_ASSIGNMENT); // introduced with migration 12
+        // all processors configured are served by one pass through the dump
+        List<WikidataImportProcessor> processors = new ArrayList<WikidataImportProcessor>();
+        if (processorNames != null) {
+            for (RelatedTopic processorName : processorNames) {
+                String name = processorName.getSimpleValue().toString().trim();
+                if (name.equals(PROCESSOR_ENTITIES)) {
+                    processors.add(new WikidataEntityProcessor(dm4, mf, wsService, timeOut, persons, institutions,
+                        cities, countries, descriptions, websites, geoCoordinates, isoLanguageCode));
+                } else if (name.equals(PROCESSOR_GEODATA)) {
+                    processors.add(new WikidataGeodataProcessor(dm4, mf, wsService, timeOut, persons, institutions,
+                        cities, countries, descriptions, websites, geoCoordinates, isoLanguageCode));
+                } else {
+                    log.warning("Unknown wikidata import processor \"" + name + "\" is ignored");
+                }
+            }
+        }
+        if (processors.isEmpty()) {
+            processors.add(new WikidataEntityProcessor(dm4, mf, wsService, timeOut, persons, institutions, cities,
+                countries, descriptions, websites, geoCoordinates, isoLanguageCode));
+        }
+        if (heapBudget != null && !heapBudget.trim().isEmpty()) {
+            long budget = Long.parseLong(heapBudget.trim()) << 20;
+            File spillDirectory = new File(findDumpDirectoryPath(), WikidataDumpFileStream.DUMP_DIRECTORY + "/spill");
+            for (WikidataImportProcessor processor : processors) {
+                if (processor instanceof WikidataEntityProcessor) {
+                    ((WikidataEntityProcessor) processor).spillTo(spillDirectory, budget);
+                }
+            }
+        }
+        // the claim edges existing already are loaded once, so creating edges hardly asks the storage
+        WikidataClaimEdgeFilter claimEdges = new WikidataClaimEdgeFilter(CLAIM_EDGES_EXPECTED);
+        boolean bulk = (bulkAssignment != null) ? bulkAssignment : false;
+        for (WikidataImportProcessor processor : processors) {
+            if (processor instanceof WikidataEntityProcessor) {
+                ((WikidataEntityProcessor) processor).setClaimEdgeFilter(claimEdges);
+                ((WikidataEntityProcessor) processor).setBulkAssignment(bulk);
+            } else if (processor instanceof WikidataGeodataProcessor) {
+                ((WikidataGeodataProcessor) processor).setClaimEdgeFilter(claimEdges);
+                ((WikidataGeodataProcessor) processor).setBulkAssignment(bulk);
+                ((WikidataGeodataProcessor) processor).setFingerprintIndex(new File(findDumpDirectoryPath(),
+                    WikidataDumpFileStream.DUMP_DIRECTORY + "/geodata.fingerprints"));
+            }
+        }
+        claimEdges.seed(dm4);
+        // in a two-pass import, a first pass finds the items the entity processor needs labels for
+        WikidataImportProcessor firstPass = null;
+        if (twoPass != null && twoPass) {
+            for (WikidataImportProcessor processor : processors) {
+                if (processor instanceof WikidataEntityProcessor) {
+                    firstPass = ((WikidataEntityProcessor) processor).getWantedItemsPass();
+                }
+            }
+        }
+        WikidataImportProcessor wikidataEntityProcessor = (processors.size() == 1) ? processors.get(0)
+            : new WikidataCompositeProcessor(processors, (processorThreads != null) ? processorThreads : false);
+        return startProcessingWikidataDumpfile(job, importerSettings, wikidataEntityProcessor, firstPass,
+                noDownload, (streaming != null) ? streaming : false, (slices != null) ? slices : false);
+    }
+
+    /**
+     * Applies the change files stored after the ones applied last, see {@link #importChangesFromWikidataDailies}.
+     * The latest revisions of the items changed are collected into a file of their own, which is then
+     * processed just like a dump, so the time taken depends on the number of items changed only. No
+     * claim edge filter is seeded, as loading all edges would take longer than looking up the few
+     * edges of the items changed.
+     *
+     * @return true if all change files were applied.
+     */
+    private boolean importWikidataChanges(Topic importerSettings, WikidataImportJob job) {
+        ChildTopics childs = importerSettings.getChildTopics();
+        int timeOut = Integer.parseInt(childs.getString(WD_IMPORT_SECONDS));
+        String isoLanguageCode = childs.getString(WD_IMPORT_LANG);
+        boolean persons = childs.getBoolean(WD_IMPORT_PERSONS);
+        boolean institutions = childs.getBoolean(WD_IMPORT_INSTITUTIONS);
+        boolean cities = childs.getBoolean(WD_IMPORT_CITIES);
+        boolean countries = childs.getBoolean(WD_IMPORT_COUNTRIES);
+        boolean descriptions = childs.getBoolean(WD_IMPORT_DESCRIPTIONS);
+        boolean websites = childs.getBoolean(WD_IMPORT_WEBSITES);
+        boolean geoCoordinates = childs.getBoolean(WD_IMPORT_COORDINATES);
+        Boolean bulkAssignment = childs.getBooleanOrNull(WD_IMPORT_BULK_ASSIGNMENT); // introduced with migration 12
+        String path = findDumpDirectoryPath();
+        String appliedDateStamp = (importerSettings.hasProperty(WD_CHANGES_APPLIED))
+            ? (String) importerSettings.getProperty(WD_CHANGES_APPLIED) : null;
+        WikidataChangeFiles changeFiles = WikidataChangeFiles.find(path, appliedDateStamp);
+        if (changeFiles.isEmpty()) {
+            log.info("No wikidata change files after " + appliedDateStamp + " under " + path
+                + WikidataDumpFileStream.DUMP_DIRECTORY + "/" + WikidataChangeFiles.DAILY_DIRECTORY_PREFIX + "YYYYMMDD");
+            return true;
+        }
+        WikidataGeodataProcessor processor = new WikidataGeodataProcessor(dm4, mf, wsService, timeOut, persons,
+            institutions, cities, countries, descriptions, websites, geoCoordinates, isoLanguageCode);
+        processor.setIncremental(true);
+        processor.setBulkAssignment((bulkAssignment != null) ? bulkAssignment : false);
+        processor.setFingerprintIndex(new File(path, WikidataDumpFileStream.DUMP_DIRECTORY + "/geodata.fingerprints"));
+        int threads = Runtime.getRuntime().availableProcessors();
+        String changesName = "changes up to " + changeFiles.getLastDateStamp();
+        // kept out of the dump directory itself, so it is never taken for a dump
+        File changedItems = new File(path, WikidataDumpFileStream.DUMP_DIRECTORY + "/changes/items.json");
+        boolean complete = false;
+        try {
+            changeFiles.collect(changedItems, Math.max(1, threads / 2));
+            // the line filter is not used, items may have lost the statements it looks for
+            WikidataDumpPipeline pipeline = new WikidataDumpPipeline(Math.max(1, threads / 2 - 1), null,
+                processor.getEntityExtractor());
+            job.processing(changesName, pipeline, processor);
+            InputStream changesStream = WikidataDumpFileStream.open(changedItems, 1);
+            try {
+                pipeline.process(changesStream, processor);
+                complete = !pipeline.isCancelled();
+            } finally {
+                changesStream.close();
+            }
+        } catch (WikidataGeodataProcessor.TimeoutException e) {
+            log.info("Applying the wikidata " + changesName + " reached the time limit, the same change files "
+                + "are applied again next time");
+            job.timedOut();
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Could not apply the wikidata " + changesName, e);
+            job.failed(e);
+        }
+        processor.stop();
+        changedItems.delete();
+        if (complete) storeChangesApplied(importerSettings, changeFiles.getLastDateStamp());
+        return complete;
+    }
+
+    private void storeChangesApplied(Topic importerSettings, String dateStamp) {
+        DeepaMehtaTransaction tx = dm4.beginTx();
+        try {
+            importerSettings.setProperty(WD_CHANGES_APPLIED, dateStamp, false);
+            tx.success();
+            log.info("Applied the wikidata change files up to " + dateStamp);
+        } catch (Exception e) {
+            log.log(Level.WARNING, "Could not store the date of the wikidata change files applied", e);
+            tx.failure();
+        } finally {
+            tx.finish();
+        }
     }
 
     /**
@@ -473,16 +773,28 @@ public class WikidataToolkitPlugin extends PluginActivator implements WikidataTo
      * processor. By default, the most recent JSON dump will be used. In offline
      * mode, only the most recent previously downloaded file is considered.
      *
+     * The dump is read, parsed and processed in a staged {@link WikidataDumpPipeline}
+     * to make use of all available cores. If a former import of the same dump was
+     * not completed, the import continues at the checkpoint it left behind. Uncompressed
+     * (<code>.json</code>) dumps are memory-mapped and read in shards side by side instead,
+     * which leaves no checkpoints behind.
+     *
+     * @param   job             the job to report the progress of the import to
+     * @param   importerSettings    the topic to store the {@link WikidataImportCheckpoint} at
      * @param   entityProcessor the object to use for processing entities
+     * @param   firstPass       a processor to run through the complete dump before the entity processor is,
+     * or null for a single pass (see {@link WikidataEntityProcessor#getWantedItemsPass})
      * @param   noDownload     if set to true only dumpfiles already stored on disk are considered for import
      * in this dump
+     * @param   streaming       if set to true just the fields used by the entity processor are extracted from
+     * the dump (see {@link WikidataEntityExtractor}) instead of deserializing complete entity documents
+     * @param   slices          if set to true the {@link WikidataDumpSlice} of the dump is imported instead of
+     * the dump, if there is none yet it is written while the complete dump is imported
+     * @return  true if the complete dump was processed
      */
-    private void startProcessingWikidataDumpfile(EntityDocumentProcessor entityProcessor, boolean noDownload) {
-        if (isCurrentlyImporting == true) {
-            log.warning("One WDTK DumpFileProcessor is already running, please try again later.");
-            return;
-        }
-        // Controller object for processing dumps:
+    private boolean startProcessingWikidataDumpfile(WikidataImportJob job, Topic importerSettings,
+            WikidataImportProcessor entityProcessor, WikidataImportProcessor firstPass, boolean noDownload, boolean streaming, boolean slices) {
+        // Controller object for finding dumps:
         DumpProcessingController dumpProcessingController = new DumpProcessingController("wikidatawiki");
         dumpProcessingController.setOfflineMode(noDownload);
         List<MwDumpFile> availableJSONDumps = null;
@@ -500,26 +812,147 @@ public class WikidataToolkitPlugin extends PluginActivator implements WikidataTo
             log.warning("IOException: " + ex.getMessage());
             throw new RuntimeException(ex);
         }
-        dumpProcessingController.registerEntityDocumentProcessor(entityProcessor, null, false);
+        WikidataImportCheckpoint checkpoint = null;
+        WikidataDumpSlice slice = null;
+        boolean complete = false;
         try {
-            isCurrentlyImporting = true;
+            MwDumpFile jsonDumpFile = null;
+            File localDumpFile = null;
             if (availableJSONDumps.isEmpty()) {
                 // ### TODO: If the original issue (https://github.com/Wikidata/Wikidata-Toolkit/issues/232)
                 // is resolved, we can remove this. Test this.
-                MwDumpFile jsonDumpFile = new MwLocalDumpFile(path + "/dumpfiles/wikidatawiki/20160425.json.gz");
-                dumpProcessingController.processDump(jsonDumpFile);
+                jsonDumpFile = new MwLocalDumpFile(path + "/dumpfiles/wikidatawiki/20160425.json.gz");
+                localDumpFile = WikidataDumpFileStream.findLocalDumpFile(path, null);
+            } else {
+                jsonDumpFile = dumpProcessingController.getMostRecentDump(DumpContentType.JSON);
+                localDumpFile = WikidataDumpFileStream.findLocalDumpFile(path, jsonDumpFile.getDateStamp());
+            }
+            String dumpName = (localDumpFile != null) ? localDumpFile.getName() : jsonDumpFile.getDateStamp();
+            File sliceFile = WikidataDumpSlice.sliceFile(path, dumpName);
+            File partialSliceFile = WikidataDumpSlice.partialSliceFile(path, dumpName);
+            boolean timeLimited = Integer.parseInt(importerSettings.getChildTopics().getString(WD_IMPORT_SECONDS)) > 0;
+            File importedSlice = (sliceFile.isFile()) ? sliceFile
+                : (timeLimited && partialSliceFile.isFile()) ? partialSliceFile : null;
+            if (slices && importedSlice != null) { // the slice is imported just like a dump
+                log.info("Importing the slice " + importedSlice.getPath() + " instead of the dump " + dumpName);
+                localDumpFile = importedSlice;
+                dumpName = importedSlice.getName();
+            }
+            checkpoint = new WikidataImportCheckpoint(dm4, importerSettings, dumpName, entityProcessor,
+                new File(path, WikidataDumpFileStream.DUMP_DIRECTORY + "/checkpoints"));
+            long[] startPosition = checkpoint.getStartPosition();
+            boolean fromStart = startPosition[0] == 0 && startPosition[1] == 0;
+            // Dumps already stored on disk are decompressed in parallel, all others are read through the WDTK
+            int threads = Runtime.getRuntime().availableProcessors();
+            if (firstPass != null && fromStart) {
+                log.info("First pass through the wikidata dump " + dumpName);
+                WikidataDumpPipeline firstPipeline = new WikidataDumpPipeline(Math.max(1, threads / 2 - 1),
+                    firstPass.getLineFilter(), (streaming) ? firstPass.getEntityExtractor() : null);
+                job.processing(dumpName, firstPipeline, firstPass);
+                try {
+                    processDump(firstPipeline, firstPass, localDumpFile, jsonDumpFile, startPosition, null, threads);
+                } catch (WikidataEntityProcessor.TimeoutException e) {
+                    // the first pass read further than the main pass will in the same time, so the items
+                    // wanted by the entities read are all the main pass gets to
+                    log.info("First pass through " + dumpName + " stopped at the time limit");
+                }
+                firstPass.stop();
+            } else if (firstPass != null) {
+                log.info("No first pass through " + dumpName + ", as the import continues at a checkpoint");
+            }
+            if (slices && localDumpFile != sliceFile && localDumpFile != partialSliceFile) {
+                if (fromStart) { // the slice holds all entities any import (settings) could make use of
+                    slice = new WikidataDumpSlice(sliceFile, partialSliceFile);
+                } else {
+                    log.info("Not writing a slice of " + dumpName + ", as the import continues at a checkpoint");
+                }
+            }
+            WikidataDumpPipeline pipeline = new WikidataDumpPipeline(Math.max(1, threads / 2 - 1),
+                entityProcessor.getLineFilter(), (streaming) ? entityProcessor.getEntityExtractor() : null);
+            if (slice != null) pipeline.setSlice(slice, WikidataDumpSlice.lineFilter());
+            job.processing(dumpName, pipeline, entityProcessor);
+            if (pipeline.isCancelled()) { // the job was cancelled in the first pass
+                log.info("Import of " + dumpName + " cancelled before the main pass");
             } else {
-                dumpProcessingController.processMostRecentJsonDump();
+                complete = processDump(pipeline, entityProcessor, localDumpFile, jsonDumpFile, startPosition,
+                    checkpoint, threads);
+                if (complete && localDumpFile == partialSliceFile) {
+                    log.info("Imported all of the partial slice " + dumpName + " within the time limit, delete it "
+                        + "to read on in the dump");
+                }
             }
+        } catch (WikidataEntityProcessor.TimeoutException | WikidataGeodataProcessor.TimeoutException e) {
+            // the import is bounded by the time limit of its settings, what was processed is kept
+            log.info("Import of the wikidata dump stopped at the time limit");
+            job.timedOut();
         } catch (Exception e) {
-            log.log(Level.SEVERE, "Let's see, if this is not a TimeoutException, what was catched then?", e);
-            // The timer caused a time out or we could not find a dumpfile.
+            log.log(Level.SEVERE, "Could not import the wikidata dump", e);
+            job.failed(e);
+        } finally {
+            // the processor is stopped and the slice finished whatever happened before
+            if (checkpoint != null && !complete) {
+                checkpoint.interrupted();
+            }
+            try {
+                entityProcessor.stop();
+                if (checkpoint != null && complete) {
+                    checkpoint.completed();
+                }
+            } catch (RuntimeException e) {
+                log.log(Level.SEVERE, "Could not finish the import of the wikidata dump", e);
+                job.failed(e);
+                complete = false;
+            } finally {
+                if (slice != null) {
+                    try {
+                        slice.finish(complete);
+                    } catch (IOException e) {
+                        log.log(Level.WARNING, "Could not write the slice of the dump", e);
+                    }
+                }
+            }
         }
-        isCurrentlyImporting = false;
-        if (entityProcessor instanceof WikidataEntityProcessor) {
-            ((WikidataEntityProcessor) entityProcessor).stop();
-        } else if (entityProcessor instanceof WikidataGeodataProcessor) {
-            ((WikidataGeodataProcessor) entityProcessor).stop();
+        return complete;
+    }
+
+    /**
+     * Runs the given pipeline through the dump, see {@link #startProcessingWikidataDumpfile}.
+     *
+     * @param   checkpoint  the checkpoint to store while processing, or null
+     * @return  true if the complete dump was processed
+     */
+    private boolean processDump(WikidataDumpPipeline pipeline, WikidataImportProcessor entityProcessor,
+            File localDumpFile, MwDumpFile jsonDumpFile, long[] startPosition, WikidataImportCheckpoint checkpoint,
+            int threads) throws IOException, InterruptedException {
+        boolean fromStart = startPosition[0] == 0 && startPosition[1] == 0;
+        if (localDumpFile != null && fromStart && WikidataDumpFileStream.isShardable(localDumpFile)) {
+            // uncompressed dumps are memory-mapped and read in shards, no checkpoints can be taken then
+            log.info("Processing wikidata dump file " + localDumpFile.getPath() + " in shards");
+            List<InputStream> shards = WikidataDumpFileStream.openShards(localDumpFile, Math.max(1, threads / 2));
+            try {
+                pipeline.processShards(shards, entityProcessor, checkpoint);
+                return !pipeline.isCancelled();
+            } finally {
+                for (InputStream shard : shards) {
+                    shard.close();
+                }
+            }
+        } else {
+            InputStream dumpStream = null;
+            if (localDumpFile != null) {
+                log.info("Processing wikidata dump file " + localDumpFile.getPath());
+                dumpStream = WikidataDumpFileStream.open(localDumpFile, Math.max(1, threads / 2), startPosition);
+            } else { // not split into chunks, so the position is given in decompressed bytes only
+                dumpStream = jsonDumpFile.getDumpFileStream();
+                WikidataDumpFileStream.skipFully(dumpStream, startPosition[1]);
+            }
+            try {
+                pipeline.process(dumpStream, WikidataDumpFileStream.positions(dumpStream, startPosition[1]),
+                    entityProcessor, checkpoint);
+                return !pipeline.isCancelled();
+            } finally {
+                dumpStream.close();
+            }
         }
     }
 
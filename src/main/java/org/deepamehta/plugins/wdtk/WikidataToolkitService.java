@@ -14,7 +14,15 @@ import java.util.List;
  */
 public interface WikidataToolkitService {
 
-    Topic importEntitiesFromWikidataDump (long settingsTopicId);
+    WikidataImportJob importEntitiesFromWikidataDump (long settingsTopicId);
+
+    WikidataImportJob importChangesFromWikidataDailies (long settingsTopicId);
+
+    List<WikidataImportJob> getImportJobs ();
+
+    WikidataImportJob getImportJob (long jobId);
+
+    WikidataImportJob cancelImportJob (long jobId);
     
     Topic deleteAllWikidataTopics (long settingsTopicId);
 
@@ -0,0 +1,122 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.util.Arrays;
+
+/**
+ * A bounded cache mapping (encoded) entity ids to the ids of the topics representing them, so the
+ * topic of an entity is fetched by its id instead of being looked up in the URI index again and
+ * again.
+ *
+ * Entries live in buckets of {@link #WAYS} slots (set-associative, open addressing within a bucket
+ * only), kept in two plain long arrays. Once a bucket is full, a new entry replaces the first entry
+ * not hit since the bucket was last searched for a victim (second chance), so frequently referenced
+ * items (like countries) stay cached while the bulk of items passes through.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataTopicIdCache {
+
+    /** Returned for entities not cached. */
+    static final long NOT_CACHED = -1;
+
+    static final int WAYS = 8;
+
+    private static final long FREE = 0; // entity ids are positive
+    private static final int MAX_BUCKETS = 1 << 24; // the bits a hash provides
+
+    private final long[] keys;
+    private final long[] topicIds;
+    private final boolean[] hit;
+    private final int[] hands; // the slot of each bucket to look at first for a victim
+    private final int bucketMask;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /** @param   capacity    the most entries to keep, rounded up to a power of two */
+    WikidataTopicIdCache(int capacity) {
+        int buckets = 1;
+        while (buckets * WAYS < capacity && buckets < MAX_BUCKETS) buckets <<= 1;
+        this.keys = new long[buckets * WAYS];
+        this.topicIds = new long[buckets * WAYS];
+        this.hit = new boolean[buckets * WAYS];
+        this.hands = new int[buckets];
+        this.bucketMask = buckets - 1;
+    }
+
+    /** @return The id of the topic cached for the given entity, or NOT_CACHED. */
+    long get(long entityId) {
+        int start = bucket(entityId) * WAYS;
+        for (int slot = start; slot < start + WAYS; slot++) {
+            if (keys[slot] == entityId) {
+                hit[slot] = true;
+                hits++;
+                return topicIds[slot];
+            }
+            if (keys[slot] == FREE) break;
+        }
+        misses++;
+        return NOT_CACHED;
+    }
+
+    void put(long entityId, long topicId) {
+        int bucket = bucket(entityId);
+        int start = bucket * WAYS;
+        for (int slot = start; slot < start + WAYS; slot++) {
+            if (keys[slot] == entityId || keys[slot] == FREE) {
+                keys[slot] = entityId;
+                topicIds[slot] = topicId;
+                return;
+            }
+        }
+        // the bucket is full, find a victim
+        int way = hands[bucket];
+        while (hit[start + way]) {
+            hit[start + way] = false;
+            way = (way + 1) % WAYS;
+        }
+        hands[bucket] = (way + 1) % WAYS;
+        keys[start + way] = entityId;
+        topicIds[start + way] = topicId;
+        evictions++;
+    }
+
+    /** Drops the given entity from the cache, e.g. if its topic turned out to be gone. */
+    void remove(long entityId) {
+        int start = bucket(entityId) * WAYS;
+        for (int slot = start; slot < start + WAYS; slot++) {
+            if (keys[slot] == entityId) {
+                // close the gap, as lookups stop at the first free slot
+                int last = slot;
+                while (last + 1 < start + WAYS && keys[last + 1] != FREE) last++;
+                keys[slot] = keys[last];
+                topicIds[slot] = topicIds[last];
+                hit[slot] = hit[last];
+                keys[last] = FREE;
+                hit[last] = false;
+                return;
+            }
+            if (keys[slot] == FREE) return;
+        }
+    }
+
+    void clear() {
+        Arrays.fill(keys, FREE);
+        Arrays.fill(hit, false);
+    }
+
+    @Override
+    public String toString() {
+        return "topic id cache: " + hits + " hits, " + misses + " misses, " + evictions + " evictions";
+    }
+
+    private int bucket(long entityId) {
+        long hash = entityId * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 40) & bucketMask;
+    }
+
+}
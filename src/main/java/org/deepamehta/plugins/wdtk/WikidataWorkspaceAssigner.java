@@ -0,0 +1,134 @@
+package org.deepamehta.plugins.wdtk;
+
+import de.deepamehta.core.DeepaMehtaObject;
+import de.deepamehta.core.service.CoreService;
+import de.deepamehta.core.storage.spi.DeepaMehtaTransaction;
+import de.deepamehta.workspaces.WorkspacesService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Assigns the topics and associations created by an import processor to the wikidata workspace.
+ *
+ * By default each object is assigned right away, within the transaction creating it. In bulk mode,
+ * the objects are collected and assigned in batches (see {@link #flush}), so the workspace
+ * bookkeeping is done in a few large transactions instead of adding to every small one. Objects
+ * created but not yet assigned are not visible in the wikidata workspace until the next flush.
+ *
+ * A processor writing in batches of its own tells the assigner about the outcome of each batch (see
+ * {@link #committed} and {@link #rolledBack}): the objects collected within a batch rolled back are
+ * gone and dropped, those collected before but assigned within it are collected again.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+class WikidataWorkspaceAssigner {
+
+    private static Logger log = Logger.getLogger(WikidataWorkspaceAssigner.class.getName());
+
+    /** The number of objects collected (in bulk mode) after which these should be assigned. */
+    static final int BULK_SIZE = 4096;
+
+    private final CoreService dm4;
+    private final WorkspacesService workspaceService;
+    private final long workspaceId;
+
+    private boolean bulk = false;
+    private final List<DeepaMehtaObject> pending = new ArrayList<DeepaMehtaObject>();
+
+    // the number of pending objects created in batches committed, and the ones of these assigned since
+    private int pendingCommitted = 0;
+    private final List<DeepaMehtaObject> flushedUncommitted = new ArrayList<DeepaMehtaObject>();
+    private long assignedUncommitted = 0;
+
+    private long assigned = 0;
+    private long batches = 0;
+
+    WikidataWorkspaceAssigner(CoreService dm4, WorkspacesService workspaceService, long workspaceId) {
+        this.dm4 = dm4;
+        this.workspaceService = workspaceService;
+        this.workspaceId = workspaceId;
+    }
+
+    /** Switches to bulk mode, to be called before the first object is assigned. */
+    void setBulk(boolean bulk) {
+        this.bulk = bulk;
+    }
+
+    /** Assigns the given object right away, or (in bulk mode) with the next flush. */
+    void assign(DeepaMehtaObject object) {
+        if (bulk) {
+            pending.add(object);
+        } else {
+            workspaceService.assignToWorkspace(object, workspaceId);
+            assigned++;
+        }
+    }
+
+    /** @return true if (in bulk mode) enough objects are collected to be assigned in a batch. */
+    boolean isFull() {
+        return pending.size() >= BULK_SIZE;
+    }
+
+    /** Assigns all objects collected so far, within the transaction of the caller. */
+    void flush() {
+        if (pending.isEmpty()) return;
+        for (DeepaMehtaObject object : pending) {
+            workspaceService.assignToWorkspace(object, workspaceId);
+        }
+        assigned += pending.size();
+        assignedUncommitted += pending.size();
+        batches++;
+        log.fine("Assigned " + pending.size() + " objects to the wikidata workspace");
+        flushedUncommitted.addAll(pending.subList(0, pendingCommitted));
+        pendingCommitted = 0;
+        pending.clear();
+    }
+
+    /** The objects collected and assigned since the last call are committed. */
+    void committed() {
+        pendingCommitted = pending.size();
+        flushedUncommitted.clear();
+        assignedUncommitted = 0;
+    }
+
+    /** The objects collected and assigned since the last call are rolled back. */
+    void rolledBack() {
+        int dropped = pending.size() - pendingCommitted;
+        List<DeepaMehtaObject> committed = new ArrayList<DeepaMehtaObject>(flushedUncommitted);
+        committed.addAll(pending.subList(0, pendingCommitted));
+        pending.clear();
+        pending.addAll(committed);
+        pendingCommitted = pending.size();
+        flushedUncommitted.clear();
+        assigned -= assignedUncommitted;
+        assignedUncommitted = 0;
+        if (dropped > 0) log.fine("Dropped " + dropped + " objects of a rolled back batch, these are gone");
+    }
+
+    /** Assigns all objects collected so far, within a transaction of its own. */
+    void flushInTransaction() {
+        if (pending.isEmpty()) return;
+        DeepaMehtaTransaction tx = dm4.beginTx();
+        try {
+            flush();
+            tx.success();
+        } catch (Exception e) {
+            log.log(Level.SEVERE, "Could not assign " + pending.size() + " objects to the wikidata workspace", e);
+            tx.failure();
+        } finally {
+            tx.finish();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "workspace assignments: " + assigned + ((bulk) ? " in " + batches + " batches, "
+            + pending.size() + " pending" : "");
+    }
+
+}
@@ -0,0 +1,56 @@
+package org.deepamehta.plugins.wdtk.migrations;
+
+import de.deepamehta.core.TopicType;
+import de.deepamehta.core.service.Migration;
+import java.util.logging.Logger;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+
+/*
+ * Adding the "Label Heap Budget" setting to the wikidata dump import settings, the number of MB
+ * the labels (and other texts) collected during an import may take on the heap before these are
+ * spilled to disk.
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @website https://github.com/mukil/dm4-wikidata-toolkit
+ */
+
+public class Migration10 extends Migration {
+
+    private Logger log = Logger.getLogger(getClass().getName());
+
+    @Override
+    public void run() {
+        try {
+            // 1) create "Label Heap Budget"-Setting Type
+            JSONObject budgetTypeDef = new JSONObject("{" +
+                "\"value\": \"Wikidata Dump Setting: Label Heap Budget (MB)\"," +
+                "\"uri\": \"org.deepamehta.wikidata.dumpfile_heap_budget\"," +
+                "\"data_type_uri\": \"dm4.core.text\"," +
+                "\"view_config_topics\": [" +
+                "   {" +
+                "       \"type_uri\": \"dm4.webclient.view_config\"," +
+                "       \"childs\": {" +
+                "           \"dm4.webclient.show_in_create_menu\": false," +
+                "           \"dm4.webclient.searchable_as_unit\": false" +
+                "   }" +
+                "}]}");
+            dm4.createTopicType(mf.newTopicTypeModel(budgetTypeDef));
+            // 2) add it to the import settings
+            log.info("Adding new Label Heap Budget Setting as Child AssocDef to Wikidata Dump Import Type");
+            TopicType importSettings = dm4.getTopicType("org.deepamehta.wikidata.dumpfile_import");
+            JSONObject assocDef = new JSONObject("{" +
+                "\"child_type_uri\": \"org.deepamehta.wikidata.dumpfile_heap_budget\"," +
+                "\"parent_type_uri\": \"org.deepamehta.wikidata.dumpfile_import\"," +
+                "\"child_cardinality_uri\": \"dm4.core.one\"," +
+                "\"parent_cardinality_uri\": \"dm4.core.one\"," +
+                "\"assoc_type_uri\": \"dm4.core.composition_def\"" +
+                "}");
+            importSettings.addAssocDef(mf.newAssociationDefinitionModel(assocDef));
+        } catch (JSONException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package org.deepamehta.plugins.wdtk.migrations;
+
+import de.deepamehta.core.TopicType;
+import de.deepamehta.core.service.Migration;
+import java.util.logging.Logger;
+import org.codehaus.jettison.json.JSONException;
+import org.codehaus.jettison.json.JSONObject;
+
+
+/*
+ * Adding the "Slices" setting to the wikidata dump import settings.
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @website https://github.com/mukil/dm4-wikidata-toolkit
+ */
+
+public class Migration8 extends Migration {
+
+    private Logger log = Logger.getLogger(getClass().getName());
+
+    @Override
+    public void run() {
+        try {
+            // 1) create "Slices"-Setting Type
+            JSONObject slicesTypeDef = new JSONObject("{" +
+                "\"value\": \"Wikidata Dump Setting: Write and Import Slices\"," +
+                "\"uri\": \"org.deepamehta.wikidata.dumpfile_slices\"," +
+                "\"data_type_uri\": \"dm4.core.boolean\"," +
+                "\"view_config_topics\": [" +
+                "   {" +
+                "       \"type_uri\": \"dm4.webclient.view_config\"," +
+                "       \"childs\": {" +
+                "           \"dm4.webclient.show_in_create_menu\": false," +
+                "           \"dm4.webclient.searchable_as_unit\": false" +
+                "   }" +
+                "}]}");
+            dm4.createTopicType(mf.newTopicTypeModel(slicesTypeDef));
+            // 2) add it to the import settings
+            log.info("Adding new Slices Setting as Child AssocDef to Wikidata Dump Import Type");
+            TopicType importSettings = dm4.getTopicType("org.deepamehta.wikidata.dumpfile_import");
+            JSONObject assocDef = new JSONObject("{" +
+                "\"child_type_uri\": \"org.deepamehta.wikidata.dumpfile_slices\"," +
+                "\"parent_type_uri\": \"org.deepamehta.wikidata.dumpfile_import\"," +
+                "\"child_cardinality_uri\": \"dm4.core.one\"," +
+                "\"parent_cardinality_uri\": \"dm4.core.one\"," +
+                "\"assoc_type_uri\": \"dm4.core.composition_def\"" +
+                "}");
+            importSettings.addAssocDef(mf.newAssociationDefinitionModel(assocDef));
+        } catch (JSONException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+}
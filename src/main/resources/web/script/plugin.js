@@ -27,6 +27,11 @@
                     handler: importWikidataEntities,
                     context: ['context-menu', 'detail-panel-show']
                 })
+                commands.push({
+                    label: 'Apply daily changes',
+                    handler: importWikidataChanges,
+                    context: ['context-menu', 'detail-panel-show']
+                })
                 commands.push({is_separator: true, context: 'context-menu'})
                 commands.push({
                     label: 'Remove topics',
@@ -47,15 +52,13 @@
                 dataType: response_data_type, processData: false,
                 async: true,
                 success: function(data, text_status, jq_xhr) {
-                    dm4c.do_select_topic(data.id, true)
+                    renderImportJob(data)
+                    pollImportJob(data.id)
                 },
                 error: function(jq_xhr, text_status, error_thrown) {
                     $('#page-content').html('<div class="field-label wikidata-search started">'
                         + 'An error occured: ' +error_thrown+ ' </div>')
                     throw "RESTClientError: GET request failed (" + text_status + ": " + error_thrown + ")"
-                },
-                complete: function(jq_xhr, text_status) {
-                    var status = text_status
                 }
             })
 
@@ -66,6 +69,68 @@
                 + '<img src="/org.deepamehta.wikidata-toolkit/images/ajax-loader.gif" '
                     + 'title="Processing the wikidata dump (file, json)"></div>')
         }
+
+        function importWikidataChanges () {
+
+            $.ajax({
+                type: "GET", url: '/wdtk/import/changes/' + dm4c.selected_object.id,
+                dataType: "json", processData: false,
+                async: true,
+                success: function(data, text_status, jq_xhr) {
+                    renderImportJob(data)
+                    pollImportJob(data.id)
+                },
+                error: function(jq_xhr, text_status, error_thrown) {
+                    $('#page-content').html('<div class="field-label wikidata-search started">'
+                        + 'An error occured: ' +error_thrown+ ' </div>')
+                    throw "RESTClientError: GET request failed (" + text_status + ": " + error_thrown + ")"
+                }
+            })
+
+            $('#page-content').html('<div class="field-label wikidata-search started">'
+                + 'Start applying the wikidata change files (daily dumps) </div>')
+        }
+
+        function pollImportJob (jobId) {
+            setTimeout(function() {
+                $.ajax({
+                    type: "GET", url: '/wdtk/import/jobs/' + jobId,
+                    dataType: "json", processData: false,
+                    async: true,
+                    success: function(job, text_status, jq_xhr) {
+                        renderImportJob(job)
+                        if (job.state === 'QUEUED' || job.state === 'RUNNING' || job.state === 'CANCELLING') {
+                            pollImportJob(jobId)
+                        } else if (job.state === 'FINISHED') {
+                            dm4c.do_select_topic(job.importer_id, true)
+                        }
+                    },
+                    error: function(jq_xhr, text_status, error_thrown) {
+                        $('#page-content').html('<div class="field-label wikidata-search started">'
+                            + 'An error occured: ' +error_thrown+ ' </div>')
+                    }
+                })
+            }, 3000)
+        }
+
+        function renderImportJob (job) {
+            var done = job.state === 'CANCELLED' || job.state === 'TIMED_OUT'
+                || job.state === 'FINISHED' || job.state === 'FAILED'
+            $('#page-content').html('<div class="field-label wikidata-search started">'
+                + 'Import job ' + job.id + ': ' + job.state + ((job.dump) ? ' (' + job.dump + ')' : '') + '</div>')
+            $('#page-content').append('<div class="field-item wikidata-import-progress">'
+                + job.lines_read + ' lines read, ' + job.entities + ' entities processed'
+                + ((job.error) ? '<br/>' + job.error : '') + '</div>')
+            if (!done) {
+                $('#page-content').append('<div class="field-item wikidata-search-spinner">'
+                    + '<img src="/org.deepamehta.wikidata-toolkit/images/ajax-loader.gif" '
+                        + 'title="Processing the wikidata dump (file, json)"></div>')
+                var cancel = $('<button>').text('Cancel import').click(function() {
+                    $.ajax({type: "GET", url: '/wdtk/import/jobs/' + job.id + '/cancel', dataType: "json"})
+                })
+                $('#page-content').append(cancel)
+            }
+        }
         
         function deleteWikidataEntities () {
 
@@ -0,0 +1,140 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Splits bzip2 data compressed with the smallest block size (100k) into its blocks and decodes these
+ * on their own, in single streams as well as in streams concatenated (as written by pbzip2).
+ * Blocks cut at a false marker (the magic turning up within compressed data) decode once merged.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+public class WikidataBzip2ChunksTest {
+
+    @Test
+    public void blocksDecodeToTheDataCompressed() throws Exception {
+        byte[] data = lines(600000, 1);
+        List<WikidataChunkedInputStream.Chunk> blocks = split(compress(data));
+        assertTrue("Just " + blocks.size() + " blocks", blocks.size() >= 5);
+        assertArrayEquals(data, decode(blocks));
+    }
+
+    @Test
+    public void blocksOfConcatenatedStreamsDecodeToAllData() throws Exception {
+        byte[] first = lines(250000, 2);
+        byte[] second = lines(250000, 3);
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.write(compress(first));
+        file.write(compress(second));
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(first);
+        data.write(second);
+        assertArrayEquals(data.toByteArray(), decode(split(file.toByteArray())));
+    }
+
+    @Test
+    public void splittingContinuesAtTheOffsetOfABlock() throws Exception {
+        byte[] data = lines(600000, 4);
+        byte[] file = compress(data);
+        List<WikidataChunkedInputStream.Chunk> blocks = split(file);
+        WikidataChunkedInputStream.Chunk third = blocks.get(2);
+        // blocks are not byte aligned, the source starts at the byte holding the first bit of the block
+        long bitOffset = third.fileOffset();
+        InputStream in = new ByteArrayInputStream(file, (int) (bitOffset / 8), file.length);
+        List<WikidataChunkedInputStream.Chunk> rest = split(new WikidataBzip2Chunks(in, bitOffset));
+        assertEquals(blocks.size() - 2, rest.size());
+        assertEquals(bitOffset, rest.get(0).fileOffset());
+        assertArrayEquals(decode(blocks.subList(2, blocks.size())), decode(rest));
+    }
+
+    @Test
+    public void blockCutAtAFalseMarkerDecodesOnceMerged() throws Exception {
+        byte[] data = lines(300000, 5);
+        WikidataBzip2Chunks.Block block = (WikidataBzip2Chunks.Block) split(compress(data)).get(1);
+        // as if the block magic had turned up within the compressed data of the block
+        long cut = block.bitLength / 2;
+        WikidataBzip2Chunks.Block head = new WikidataBzip2Chunks.Block(block.bytes, block.firstBit, cut,
+            block.fileBitOffset);
+        WikidataBzip2Chunks.Block tail = new WikidataBzip2Chunks.Block(block.bytes, block.firstBit + cut,
+            block.bitLength - cut, block.fileBitOffset + cut);
+        assertArrayEquals(block.decode(), head.merge(tail).decode());
+    }
+
+    @Test
+    public void chunkedStreamDecodesBlocksInParallel() throws Exception {
+        byte[] data = lines(600000, 6);
+        InputStream in = new WikidataChunkedInputStream(
+            new WikidataBzip2Chunks(new ByteArrayInputStream(compress(data)), 0), 4);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            assertArrayEquals(data, out.toByteArray());
+        } finally {
+            in.close();
+        }
+    }
+
+    /** @return Lines of json-like text, random enough to take a few bzip2 blocks. */
+    private static byte[] lines(int length, long seed) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder(length + 100);
+        while (text.length() < length) {
+            text.append("{\"type\":\"item\",\"id\":\"Q").append(random.nextInt(100000000)).append("\",\"label\":\"");
+            for (int i = 0; i < 40; i++) {
+                text.append((char) ('a' + random.nextInt(26)));
+            }
+            text.append("\"},\n");
+        }
+        return text.toString().getBytes();
+    }
+
+    private static byte[] compress(byte[] data) throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        BZip2CompressorOutputStream out = new BZip2CompressorOutputStream(file, 1);
+        out.write(data);
+        out.close();
+        return file.toByteArray();
+    }
+
+    private static List<WikidataChunkedInputStream.Chunk> split(byte[] file) throws IOException {
+        return split(new WikidataBzip2Chunks(new ByteArrayInputStream(file), 0));
+    }
+
+    private static List<WikidataChunkedInputStream.Chunk> split(WikidataBzip2Chunks source) throws IOException {
+        List<WikidataChunkedInputStream.Chunk> blocks = new ArrayList<WikidataChunkedInputStream.Chunk>();
+        WikidataChunkedInputStream.Chunk block;
+        while ((block = source.next()) != null) {
+            blocks.add(block);
+        }
+        source.close();
+        return blocks;
+    }
+
+    private static byte[] decode(List<WikidataChunkedInputStream.Chunk> blocks) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (WikidataChunkedInputStream.Chunk block : blocks) {
+            out.write(block.decode());
+        }
+        return out.toByteArray();
+    }
+
+}
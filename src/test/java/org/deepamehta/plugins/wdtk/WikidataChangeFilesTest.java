@@ -0,0 +1,127 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads the small change files kept in <code>src/test/resources/changes</code>: a json file of
+ * 2026-09-30, an xml dump of 2026-10-01 (two revisions of Q1, a talk page, a property, a pretty
+ * printed Q4 and a suppressed revision of Q5) and a json file of 2026-10-02 (Q2 changed again, Q3
+ * turned into a redirect). The directory <code>daily-2026</code> has no valid date stamp.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+public class WikidataChangeFilesTest {
+
+    @Test
+    public void findTakesAllChangeFilesWithoutDateStamp() throws Exception {
+        WikidataChangeFiles changes = WikidataChangeFiles.find(baseDirectory(), null);
+        assertEquals(3, changes.getFiles().size());
+        assertEquals("20261002", changes.getLastDateStamp());
+    }
+
+    @Test
+    public void findSkipsChangeFilesUpToTheDateStampApplied() throws Exception {
+        WikidataChangeFiles changes = WikidataChangeFiles.find(baseDirectory(), "20260930");
+        assertEquals(2, changes.getFiles().size());
+        assertEquals("wikidatawiki-20261001-pages-meta-hist-incr.xml", changes.getFiles().get(0).getName());
+        assertEquals("wikidatawiki-20261002-changes.json", changes.getFiles().get(1).getName());
+        assertEquals("20261002", changes.getLastDateStamp());
+    }
+
+    @Test
+    public void findKeepsTheDateStampAppliedIfNothingChanged() throws Exception {
+        WikidataChangeFiles changes = WikidataChangeFiles.find(baseDirectory(), "20261002");
+        assertTrue(changes.isEmpty());
+        assertEquals("20261002", changes.getLastDateStamp());
+    }
+
+    @Test
+    public void collectWritesTheLatestRevisionOfEachItem() throws Exception {
+        List<String> lines = collect("20260930", 5);
+        assertEquals(5, lines.size());
+        // the latest revision of Q1 in the xml dump, Q2 as changed again the day after
+        assertEquals("{\"type\":\"item\",\"id\":\"Q1\",\"labels\":{\"en\":{\"language\":\"en\",\"value\":\"one\"}}}",
+            lines.get(0));
+        assertEquals("{\"type\":\"item\",\"id\":\"Q2\",\"labels\":{\"en\":{\"language\":\"en\",\"value\":\"two again\"}}}",
+            lines.get(3));
+    }
+
+    @Test
+    public void collectLeavesOutOtherPages() throws Exception {
+        for (String line : collect("20260930", 5)) {
+            assertTrue(line, !line.contains("\"P17\""));
+            assertTrue(line, !line.contains("Talk header"));
+        }
+    }
+
+    @Test
+    public void collectWritesRedirectedItemsWithoutClaims() throws Exception {
+        List<String> lines = collect("20260930", 5);
+        // Q3 turned into a redirect the day after it was changed, its claims are to be removed
+        assertEquals("{\"type\":\"item\",\"id\":\"Q3\"}", lines.get(4));
+        for (String line : lines.subList(0, 4)) {
+            assertTrue(line, !line.contains("\"Q3\""));
+        }
+    }
+
+    @Test
+    public void collectSkipsSuppressedRevisions() throws Exception {
+        List<String> lines = collect("20260930", 5);
+        assertEquals("{\"type\":\"item\",\"id\":\"Q5\",\"labels\":{\"en\":{\"language\":\"en\",\"value\":\"five\"}}}",
+            lines.get(2));
+    }
+
+    @Test
+    public void collectKeepsEachEntityOnOneLine() throws Exception {
+        List<String> lines = collect("20260930", 5);
+        assertTrue(lines.get(1), lines.get(1).startsWith("{"));
+        assertTrue(lines.get(1), lines.get(1).contains("\"id\": \"Q4\""));
+        assertTrue(lines.get(1), lines.get(1).endsWith("}"));
+    }
+
+    @Test
+    public void collectReadsAllChangeFilesWithoutDateStamp() throws Exception {
+        List<String> lines = collect(null, 6);
+        assertTrue(lines.get(0), lines.get(0).contains("\"Q9\""));
+    }
+
+    private List<String> collect(String appliedDateStamp, int expectedItems) throws IOException {
+        File out = File.createTempFile("wdtk-changes", ".json");
+        out.deleteOnExit();
+        int written = WikidataChangeFiles.find(baseDirectory(), appliedDateStamp).collect(out, 1);
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(out), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) lines.add(line);
+        } finally {
+            reader.close();
+        }
+        out.delete();
+        assertEquals(expectedItems, written);
+        assertEquals(expectedItems, lines.size());
+        return lines;
+    }
+
+    private String baseDirectory() {
+        try {
+            return new File(getClass().getResource("/changes").toURI()).getPath();
+        } catch (Exception e) {
+            throw new RuntimeException("The change files to test with are missing", e);
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Streams more buffers through the read ahead stream than its queue holds, with the queue full when
+ * the stream ends.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+public class WikidataDumpFileStreamTest {
+
+    private static final int BUFFER = 1 << 20;
+
+    @Test(timeout = 60000)
+    public void readAheadEndsWithTheQueueFull() throws Exception {
+        byte[] data = data(20 * BUFFER);
+        final CountDownLatch closed = new CountDownLatch(1);
+        InputStream source = new ByteArrayInputStream(data) {
+            @Override
+            public void close() throws IOException {
+                closed.countDown();
+            }
+        };
+        InputStream in = new WikidataDumpFileStream.ReadAheadInputStream(source);
+        try {
+            byte[] read = new byte[data.length];
+            // 4 buffers are taken, the 16 left fill the queue before the reader gets to the end
+            readFully(in, read, 0, 4 * BUFFER);
+            assertTrue(closed.await(30, TimeUnit.SECONDS));
+            // the reader is done once it closed the source and told about the end
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().equals("wdtk-dump-decompressor")) thread.join(30000);
+            }
+            readFully(in, read, 4 * BUFFER, data.length - 4 * BUFFER);
+            assertEquals(-1, in.read());
+            for (int i = 0; i < data.length; i++) {
+                if (read[i] != data[i]) throw new AssertionError("Byte " + i + " differs");
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void readAheadReadsAPartialLastBuffer() throws Exception {
+        byte[] data = data(17 * BUFFER + 12345);
+        InputStream in = new WikidataDumpFileStream.ReadAheadInputStream(new ByteArrayInputStream(data));
+        try {
+            byte[] read = new byte[data.length];
+            readFully(in, read, 0, data.length);
+            assertEquals(-1, in.read(new byte[16], 0, 16));
+            for (int i = 0; i < data.length; i++) {
+                if (read[i] != data[i]) throw new AssertionError("Byte " + i + " differs");
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void readAheadEndsAnEmptyStream() throws Exception {
+        InputStream in = new WikidataDumpFileStream.ReadAheadInputStream(new ByteArrayInputStream(new byte[0]));
+        try {
+            assertEquals(-1, in.read());
+        } finally {
+            in.close();
+        }
+    }
+
+    static byte[] data(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ((i * 31) % 251);
+        }
+        return data;
+    }
+
+    static void readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int n = in.read(buffer, offset, length);
+            if (n == -1) throw new AssertionError("Stream ended " + length + " bytes early");
+            offset += n;
+            length -= n;
+        }
+    }
+
+}
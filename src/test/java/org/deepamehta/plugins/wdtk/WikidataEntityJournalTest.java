@@ -0,0 +1,125 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Appends frames of collected items and relations to a log as done at checkpoints and replays them
+ * as done when the import continues at the last one.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+public class WikidataEntityJournalTest {
+
+    @Test
+    public void replayHandsOverAllRecordsOfAllFrames() throws Exception {
+        File logFile = logFile();
+        WikidataEntityJournal journal = new WikidataEntityJournal();
+        journal.wantedItem(42);
+        journal.item((byte) 2, 64);
+        journal.text((byte) 0, 64, "Berlin");
+        journal.appendFrame(logFile);
+        journal.coordinates("Q64", new double[] {52.5, 13.4});
+        journal.edge((byte) 1, 1001, 77, 27, "Q1001$guid");
+        journal.text((byte) 2, 64, "https://berlin.de/ä");
+        journal.appendFrame(logFile);
+        List<String> records = new ArrayList<String>();
+        assertEquals(2, new WikidataEntityJournal().replay(logFile, recorder(records)));
+        assertEquals(6, records.size());
+        assertEquals("wanted 42", records.get(0));
+        assertEquals("item 2 64", records.get(1));
+        assertEquals("text 0 64 Berlin", records.get(2));
+        assertEquals("coordinates Q64 52.5 13.4", records.get(3));
+        assertEquals("edge 1 1001 77 27 Q1001$guid", records.get(4));
+        assertEquals("text 2 64 https://berlin.de/ä", records.get(5));
+        logFile.delete();
+    }
+
+    @Test
+    public void replayDropsAFrameCutOffAndAppendsAfterTheLastCompleteOne() throws Exception {
+        File logFile = logFile();
+        WikidataEntityJournal journal = new WikidataEntityJournal();
+        journal.item((byte) 0, 1);
+        journal.appendFrame(logFile);
+        journal.item((byte) 0, 2);
+        journal.appendFrame(logFile);
+        // as if the process died while appending the second frame
+        truncate(logFile, logFile.length() - 3);
+        WikidataEntityJournal resumed = new WikidataEntityJournal();
+        List<String> records = new ArrayList<String>();
+        assertEquals(1, resumed.replay(logFile, recorder(records)));
+        assertEquals(1, records.size());
+        resumed.item((byte) 0, 3);
+        resumed.appendFrame(logFile);
+        records.clear();
+        assertEquals(2, new WikidataEntityJournal().replay(logFile, recorder(records)));
+        assertEquals("item 0 1", records.get(0));
+        assertEquals("item 0 3", records.get(1));
+        logFile.delete();
+    }
+
+    @Test
+    public void firstFrameReplacesAFormerLog() throws Exception {
+        File logFile = logFile();
+        WikidataEntityJournal former = new WikidataEntityJournal();
+        former.item((byte) 1, 5);
+        former.appendFrame(logFile);
+        WikidataEntityJournal journal = new WikidataEntityJournal();
+        journal.item((byte) 1, 6);
+        journal.appendFrame(logFile);
+        List<String> records = new ArrayList<String>();
+        assertEquals(1, new WikidataEntityJournal().replay(logFile, recorder(records)));
+        assertEquals("item 1 6", records.get(0));
+        logFile.delete();
+    }
+
+    private static WikidataEntityJournal.Replay recorder(final List<String> records) {
+        return new WikidataEntityJournal.Replay() {
+            @Override
+            public void item(byte set, int item) {
+                records.add("item " + set + " " + item);
+            }
+            @Override
+            public void text(byte map, int item, String text) {
+                records.add("text " + map + " " + item + " " + text);
+            }
+            @Override
+            public void coordinates(String itemId, double[] coordinates) {
+                records.add("coordinates " + itemId + " " + coordinates[0] + " " + coordinates[1]);
+            }
+            @Override
+            public void edge(byte buffer, int sourceItem, long targetTopicId, int property, String guid) {
+                records.add("edge " + buffer + " " + sourceItem + " " + targetTopicId + " " + property + " " + guid);
+            }
+            @Override
+            public void wantedItem(int item) {
+                records.add("wanted " + item);
+            }
+        };
+    }
+
+    private static File logFile() throws IOException {
+        File file = File.createTempFile("wdtk-checkpoint", ".state");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.getChannel().truncate(length);
+        } finally {
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package org.deepamehta.plugins.wdtk;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Saves pending claim edges as done at a checkpoint and adds them again as done when the import
+ * continues there.
+ *
+ * <a href="https://github.com/mukil/dm4-wikidata-toolkit">Source Code Repository</a>
+ *
+ * @author Malte Reißig (<malte@mikromedia.de>)
+ * @version 0.3-SNAPSHOT
+ */
+public class WikidataPendingEdgesTest {
+
+    @Test
+    public void loadAddsTheEdgesSaved() throws Exception {
+        WikidataPendingEdges edges = new WikidataPendingEdges();
+        for (int i = 1; i <= 1000; i++) {
+            edges.add(i, i + 1, 17, "Q" + i + "$guid-" + i, (i % 2 == 0) ? i * 1000L : WikidataEntityRecord.NO_TIME,
+                WikidataEntityRecord.NO_TIME);
+        }
+        File file = stateFile();
+        edges.save(file);
+        WikidataPendingEdges resumed = new WikidataPendingEdges();
+        resumed.add(5000, 5001, 36, "Q5000$guid", 1, 2);
+        assertEquals(1000, resumed.load(file));
+        assertEquals(1001, resumed.size());
+        assertEquals(5000, resumed.getFrom(0));
+        for (int i = 1; i <= 1000; i++) {
+            assertEquals(i, resumed.getFrom(i));
+            assertEquals(i + 1, resumed.getTo(i));
+            assertEquals(17, resumed.getProperty(i));
+            assertEquals("Q" + i + "$guid-" + i, resumed.getGuid(i));
+            assertEquals((i % 2 == 0) ? i * 1000L : WikidataEntityRecord.NO_TIME, resumed.getStartTime(i));
+            assertEquals(WikidataEntityRecord.NO_TIME, resumed.getEndTime(i));
+        }
+        file.delete();
+    }
+
+    @Test
+    public void saveReplacesTheEdgesSavedBefore() throws Exception {
+        WikidataPendingEdges edges = new WikidataPendingEdges();
+        edges.add(1, 2, 17, "Q1$a", 0, 0);
+        File file = stateFile();
+        edges.save(file);
+        edges.add(3, 4, 17, "Q3$b", 0, 0);
+        edges.save(file);
+        assertTrue(!new File(file.getPath() + ".tmp").exists());
+        assertEquals(2, new WikidataPendingEdges().load(file));
+        file.delete();
+    }
+
+    @Test
+    public void loadAddsNoEdgeOfATruncatedFile() throws Exception {
+        WikidataPendingEdges edges = new WikidataPendingEdges();
+        edges.add(1, 2, 17, "Q1$a", 0, 0);
+        edges.add(3, 4, 17, "Q3$b", 0, 0);
+        File file = stateFile();
+        edges.save(file);
+        truncate(file, file.length() - 4);
+        WikidataPendingEdges resumed = new WikidataPendingEdges();
+        try {
+            resumed.load(file);
+            throw new AssertionError("A truncated file was read");
+        } catch (IOException e) {
+            assertEquals(0, resumed.size());
+        }
+        file.delete();
+    }
+
+    private static File stateFile() throws IOException {
+        File file = File.createTempFile("wdtk-checkpoint", ".state");
+        file.deleteOnExit();
+        return file;
+    }
+
+    private static void truncate(File file, long length) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.getChannel().truncate(length);
+        } finally {
+            out.close();
+        }
+    }
+
+}